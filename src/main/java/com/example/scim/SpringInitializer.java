@@ -1,19 +1,43 @@
 package com.example.scim;
 
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.PersonRecordCodec;
+import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.scimple.ChangeLog;
+import com.example.scim.scimple.RequestProfiler;
+import com.example.scim.scimple.ResponseCache;
 import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimRequestContextFilter;
 import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.JsonRecordCodec;
+import com.example.scim.store.LogResourceStore;
+import com.example.scim.store.OffHeapResourceStore;
+import com.example.scim.store.ResourceStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Produces;
 import javax.inject.Named;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 @SpringBootApplication
 public class SpringInitializer extends SpringBootServletInitializer implements ApplicationContextAware {
@@ -29,13 +53,130 @@ public class SpringInitializer extends SpringBootServletInitializer implements A
     }
 
     @Bean
-    public ScimGroupProvider inMemoryGroupService() {
-        return new ScimGroupProvider();
+    public ScimGroupProvider inMemoryGroupService(ResourceStore<ExampleGroup> groupStore, ScimUserProvider userProvider,
+                                                  MeterRegistry meterRegistry) {
+        return new ScimGroupProvider(groupStore, userProvider, meterRegistry);
     }
 
+    /**
+     * Stored users share their names, cities, states, postal codes and countries through a dictionary of at most
+     * {@code scim.users.dictionary-size} strings.
+     */
+    @Bean
+    public ScimUserProvider inMemoryUserService(ResourceStore<ExamplePerson> userStore, MeterRegistry meterRegistry,
+                                               @Value("${scim.users.dictionary-size:200000}") int dictionarySize) {
+        return new ScimUserProvider(userStore, meterRegistry, dictionarySize);
+    }
+
+    /**
+     * Metrics of the providers and the JVM, scraped by Prometheus from {@code /metrics}.
+     */
+    @Bean
+    public PrometheusMeterRegistry meterRegistry() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmGcMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+        return registry;
+    }
+
+    /**
+     * Users are kept in memory unless {@code scim.store.directory} is set, in which case they are persisted there.
+     * In memory, they are kept serialized outside the heap if {@code scim.store.off-heap} is set. Spring closes the
+     * store on shutdown.
+     */
+    @Bean
+    public ResourceStore<ExamplePerson> userStore(@Value("${scim.store.directory:}") String directory,
+                                                  @Value("${scim.store.off-heap:false}") boolean offHeap) throws IOException {
+        if (directory.isEmpty() && offHeap) {
+            return new OffHeapResourceStore<>(new PersonRecordCodec());
+        }
+        return store(directory, "users", ExamplePerson.class);
+    }
+
+    @Bean
+    public ResourceStore<ExampleGroup> groupStore(@Value("${scim.store.directory:}") String directory) throws IOException {
+        return store(directory, "groups", ExampleGroup.class);
+    }
+
+    /**
+     * Serialized responses of {@code GET /Users/{id}} and {@code GET /Groups/{id}}, at most
+     * {@code scim.response-cache.max-bytes} of them, dropped whenever their user or group is written. Groups are also
+     * dropped when one of their members is written, as they show the display names of their members. A limit of
+     * {@code 0} disables the cache, its filter is then not registered.
+     */
     @Bean
-    public ScimUserProvider inMemoryUserService() {
-        return new ScimUserProvider();
+    public ResponseCache responseCache(@Value("${scim.response-cache.max-bytes:33554432}") long maxBytes,
+                                       ResourceStore<ExamplePerson> userStore,
+                                       ResourceStore<ExampleGroup> groupStore,
+                                       ScimGroupProvider groupProvider) {
+        ResponseCache responseCache = new ResponseCache(maxBytes);
+        if (!responseCache.isEnabled()) {
+            return responseCache;
+        }
+        userStore.addListener(responseCache.invalidator("Users"));
+        groupStore.addListener(responseCache.invalidator("Groups"));
+        userStore.addListener(responseCache.invalidator("Groups", groupProvider::getGroupIds));
+        groupStore.addListener(responseCache.invalidator("Groups", groupProvider::getGroupIds));
+        return responseCache;
+    }
+
+    /**
+     * The last {@code scim.changes.capacity} users and groups created, updated and deleted, followed by clients through
+     * {@code /v2/Changes}. Long-polls waiting for changes hold a request thread unless
+     * {@code scim.changes.suspend-long-polls} is set, event streams from {@code /v2/Changes/Events} hold one for as long
+     * as they are open whether it is set or not. Spring closes the log on shutdown.
+     */
+    @Bean
+    public ChangeLog changeLog(@Value("${scim.changes.capacity:100000}") int capacity,
+                               @Value("${scim.changes.suspend-long-polls:false}") boolean suspendLongPolls,
+                               ResourceStore<ExamplePerson> userStore,
+                               ResourceStore<ExampleGroup> groupStore) {
+        ChangeLog changeLog = new ChangeLog(capacity, suspendLongPolls);
+        userStore.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+        groupStore.addListener(changeLog.<ExampleGroup>recorder("Group", ScimTypeConverter::version));
+        return changeLog;
+    }
+
+    /**
+     * Profiles of one in {@code scim.profiler.sample-rate} SCIM requests and of all requests slower than
+     * {@code scim.profiler.slow-millis}, the last {@code scim.profiler.capacity} of them are listed at
+     * {@code /profiler}.
+     */
+    @Bean
+    public RequestProfiler requestProfiler(@Value("${scim.profiler.capacity:1000}") int capacity,
+                                           @Value("${scim.profiler.sample-rate:100}") int sampleRate,
+                                           @Value("${scim.profiler.slow-millis:500}") long slowMillis) {
+        return new RequestProfiler(capacity, sampleRate, slowMillis);
+    }
+
+    /**
+     * Profiles the SCIM endpoints from before authentication on.
+     */
+    @Bean
+    public FilterRegistrationBean<RequestProfiler> requestProfilerRegistration(RequestProfiler requestProfiler) {
+        FilterRegistrationBean<RequestProfiler> registration = new FilterRegistrationBean<>(requestProfiler);
+        registration.addUrlPatterns("/v2/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    /**
+     * Opens and closes the context the JAX-RS filters hand on to the providers around every SCIM request.
+     */
+    @Bean
+    public FilterRegistrationBean<ScimRequestContextFilter> scimRequestContextRegistration() {
+        FilterRegistrationBean<ScimRequestContextFilter> registration = new FilterRegistrationBean<>(new ScimRequestContextFilter());
+        registration.addUrlPatterns("/v2/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+
+    private static <T> ResourceStore<T> store(String directory, String name, Class<T> type) throws IOException {
+        if (directory.isEmpty()) {
+            return new ConcurrentResourceStore<>();
+        }
+        return new LogResourceStore<>(Paths.get(directory), name, new JsonRecordCodec<>(type));
     }
 
     /**
@@ -61,7 +202,8 @@ public class SpringInitializer extends SpringBootServletInitializer implements A
     }
 
     /**
-     * Bridge the needed InMemoryGroupService and InMemoryUserService from Spring's context into the CDI context.
+     * Bridge the needed InMemoryGroupService, InMemoryUserService, ResponseCache and ChangeLog from Spring's context into the CDI
+     * context.
      */
     @ApplicationScoped
     public static class SpringToCdiBridge {
@@ -80,5 +222,25 @@ public class SpringInitializer extends SpringBootServletInitializer implements A
         public ScimUserProvider inMemoryUserService() {
             return APPLICATION_CONTEXT.getBean(ScimUserProvider.class);
         }
+
+        @Named
+        @Produces
+        public ResponseCache responseCache() {
+            return APPLICATION_CONTEXT.getBean(ResponseCache.class);
+        }
+
+        @Named
+        @Produces
+        public ChangeLog changeLog() {
+            return APPLICATION_CONTEXT.getBean(ChangeLog.class);
+        }
+
+        /**
+         * @return whether the {@link ResponseCache} holds any responses, read while the JAX-RS application registers its
+         * providers, once Spring's context has started
+         */
+        static boolean isResponseCacheEnabled() {
+            return APPLICATION_CONTEXT.getBean(ResponseCache.class).isEnabled();
+        }
     }
 }
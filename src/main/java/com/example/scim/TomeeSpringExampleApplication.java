@@ -1,9 +1,18 @@
 package com.example.scim;
 
+import com.example.scim.scimple.AttributeProjectionFilter;
+import com.example.scim.scimple.BulkExportResource;
+import com.example.scim.scimple.BulkImportResource;
+import com.example.scim.scimple.ChangeResource;
+import com.example.scim.scimple.ConditionalRequestFilter;
+import com.example.scim.scimple.MembershipResource;
+import com.example.scim.scimple.RequestProfilerFilter;
+import com.example.scim.scimple.ResponseCacheFilter;
 import org.apache.directory.scim.server.rest.ScimResourceHelper;
 
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -18,6 +27,18 @@ public class TomeeSpringExampleApplication extends Application {
 
   @Override
   public Set<Class<?>> getClasses() {
-    return ScimResourceHelper.getScimClassesToLoad();
+    Set<Class<?>> classes = new HashSet<>(ScimResourceHelper.getScimClassesToLoad());
+    classes.add(AttributeProjectionFilter.class);
+    classes.add(BulkExportResource.class);
+    classes.add(BulkImportResource.class);
+    classes.add(ChangeResource.class);
+    classes.add(ConditionalRequestFilter.class);
+    classes.add(MembershipResource.class);
+    classes.add(RequestProfilerFilter.class);
+    // without a cache there is nothing to look up and no response worth buffering
+    if (SpringInitializer.SpringToCdiBridge.isResponseCacheEnabled()) {
+      classes.add(ResponseCacheFilter.class);
+    }
+    return classes;
   }
 }
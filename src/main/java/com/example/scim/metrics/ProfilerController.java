@@ -0,0 +1,47 @@
+package com.example.scim.metrics;
+
+import com.example.scim.scimple.RequestProfile;
+import com.example.scim.scimple.RequestProfiler;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists the request profiles kept by the {@link RequestProfiler}, along with a summary of their searches by filter
+ * shape. Filter shapes that are slow and scanned point at attributes that would benefit from an index.
+ */
+@RestController
+public class ProfilerController {
+
+    private final RequestProfiler profiler;
+
+    public ProfilerController(RequestProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * @param slowerThan only lists requests that took at least this many milliseconds
+     * @param filter only lists searches with this filter shape, e.g. {@code username eq}
+     */
+    @GetMapping(path = "/profiler", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> profiles(@RequestParam(name = "slowerThan", defaultValue = "0") double slowerThan,
+                                        @RequestParam(name = "filter", required = false) String filter) {
+        List<RequestProfile> profiles = new ArrayList<>();
+        for (RequestProfile profile : profiler.getProfiles()) {
+            if (profile.getTotalMillis() >= slowerThan && (filter == null || filter.equals(profile.getFilter()))) {
+                profiles.add(profile);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("filters", RequestProfiler.summarize(profiles));
+        result.put("requests", profiles);
+        return result;
+    }
+}
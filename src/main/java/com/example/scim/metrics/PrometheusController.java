@@ -0,0 +1,27 @@
+package com.example.scim.metrics;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Exposes the meters of the registry in the Prometheus text format.
+ * <p>
+ * Meters are only read when Prometheus scrapes them, recording a request costs no more than updating its timers and
+ * counters.
+ */
+@RestController
+public class PrometheusController {
+
+    private final PrometheusMeterRegistry registry;
+
+    public PrometheusController(PrometheusMeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @GetMapping(path = "/metrics", produces = TextFormat.CONTENT_TYPE_004)
+    public String scrape() {
+        return registry.scrape();
+    }
+}
@@ -19,4 +19,29 @@ public class ExampleAddress {
     private String zip;
 
     private String country;
+
+    /**
+     * @return a copy of this address, which can be modified without affecting this address
+     */
+    public ExampleAddress copy() {
+        return new ExampleAddress()
+                .setStreet(street)
+                .setCity(city)
+                .setState(state)
+                .setZip(zip)
+                .setCountry(country);
+    }
+
+    /**
+     * Replaces the city, state, postal code and country by the instances kept in {@code strings}, shared with other
+     * addresses. Streets are mostly unique and are left as they are.
+     * @return this address
+     */
+    public ExampleAddress compact(StringDictionary strings) {
+        city = strings.intern(city);
+        state = strings.intern(state);
+        zip = strings.intern(zip);
+        country = strings.intern(country);
+        return this;
+    }
 }
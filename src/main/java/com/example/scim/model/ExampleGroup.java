@@ -1,9 +1,11 @@
 package com.example.scim.model;
 
+import com.example.scim.store.IdSet;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Example Group model, used to demonstrate converting between a SCIM model and a custom domain model.
@@ -16,5 +18,77 @@ public class ExampleGroup {
 
     private String description;
 
-    private List<String> memberIds;
+    private Set<String> memberIds;
+
+    /**
+     * Number of writes of this group, starting at 1 when it is created.
+     */
+    private long version;
+
+    /**
+     * Creation time in milliseconds since the epoch.
+     */
+    private long created;
+
+    /**
+     * Time of the last write in milliseconds since the epoch.
+     */
+    private long lastModified;
+
+    /**
+     * @return a copy of this group with its own member set, which can be modified without affecting this group
+     */
+    public ExampleGroup copy() {
+        Set<String> members = null;
+        if (memberIds != null) {
+            members = newMemberSet();
+            members.addAll(memberIds);
+        }
+        return withMemberIds(members);
+    }
+
+    /**
+     * @return a copy of this group holding {@code members}, which is not copied
+     */
+    public ExampleGroup withMemberIds(Set<String> members) {
+        return new ExampleGroup()
+                .setId(id)
+                .setDescription(description)
+                .setMemberIds(members)
+                .setVersion(version)
+                .setCreated(created)
+                .setLastModified(lastModified);
+    }
+
+    /**
+     * Creates an empty, modifiable set of member ids, for groups that are built or patched before they are stored.
+     */
+    public static Set<String> newMemberSet() {
+        return new HashSet<>();
+    }
+
+    /**
+     * Replaces the member set with an {@link IdSet}, so later versions of the group can add and remove members without
+     * copying the whole set. Called before the group is stored.
+     * @return this group
+     */
+    public ExampleGroup compact() {
+        if (memberIds != null) {
+            memberIds = IdSet.of(memberIds);
+        }
+        return this;
+    }
+
+    /**
+     * Makes this group the version following {@code previous}, or the first version if {@code previous} is
+     * {@code null}.
+     * @param now the time of the write in milliseconds since the epoch
+     * @return this group
+     */
+    public ExampleGroup versionAfter(ExampleGroup previous, long now) {
+        version = previous != null ? previous.version + 1 : 1;
+        created = previous != null ? previous.created : now;
+        lastModified = now;
+        return this;
+    }
 }
@@ -3,6 +3,9 @@ package com.example.scim.model;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -26,4 +29,103 @@ public class ExamplePerson {
 
     private boolean active = true;
 
+    /**
+     * Number of writes of this person, starting at 1 when it is created.
+     */
+    private long version;
+
+    /**
+     * Creation time in milliseconds since the epoch.
+     */
+    private long created;
+
+    /**
+     * Time of the last write in milliseconds since the epoch.
+     */
+    private long lastModified;
+
+    /**
+     * @return a copy of this person with its own lists and addresses, which can be modified without affecting this
+     * person
+     */
+    public ExamplePerson copy() {
+        return new ExamplePerson()
+                .setUsername(username)
+                .setFirstName(firstName)
+                .setMiddleName(middleName)
+                .setLastName(lastName)
+                .setEmails(emails != null ? new ArrayList<>(emails) : null)
+                .setAddresses(copy(addresses))
+                .setActive(active)
+                .setVersion(version)
+                .setCreated(created)
+                .setLastModified(lastModified);
+    }
+
+    private static List<ExampleAddress> copy(List<ExampleAddress> addresses) {
+        if (addresses == null) {
+            return null;
+        }
+        List<ExampleAddress> copy = new ArrayList<>(addresses.size());
+        for (ExampleAddress address : addresses) {
+            copy.add(address != null ? address.copy() : null);
+        }
+        return copy;
+    }
+
+    /**
+     * Shrinks this person for storage: names are shared with other persons through {@code strings}, addresses are
+     * {@link ExampleAddress#compact(StringDictionary) compacted} and lists are replaced by fixed-size lists of their
+     * exact size, a single email or address taking no more than a reference to it.
+     * <p>
+     * The lists of a compacted person can no longer grow or shrink, which is fine for stored persons as they are only
+     * changed through a {@link #copy()}.
+     * @param strings the dictionary of the store the person is written to, given and family names repeat a lot across
+     * a large population and those that do not are kept out by its bound
+     * @return this person
+     */
+    public ExamplePerson compact(StringDictionary strings) {
+        firstName = strings.intern(firstName);
+        middleName = strings.intern(middleName);
+        lastName = strings.intern(lastName);
+        emails = compact(emails);
+        if (addresses != null) {
+            for (ExampleAddress address : addresses) {
+                if (address != null) {
+                    address.compact(strings);
+                }
+            }
+            addresses = compact(addresses);
+        }
+        return this;
+    }
+
+    private static <E> List<E> compact(List<E> list) {
+        if (list == null) {
+            return null;
+        }
+        switch (list.size()) {
+            case 0:
+                return Collections.emptyList();
+            case 1:
+                return Collections.singletonList(list.get(0));
+            default:
+                @SuppressWarnings("unchecked")
+                E[] elements = (E[]) list.toArray();
+                return Arrays.asList(elements);
+        }
+    }
+
+    /**
+     * Makes this person the version following {@code previous}, or the first version if {@code previous} is
+     * {@code null}.
+     * @param now the time of the write in milliseconds since the epoch
+     * @return this person
+     */
+    public ExamplePerson versionAfter(ExamplePerson previous, long now) {
+        version = previous != null ? previous.version + 1 : 1;
+        created = previous != null ? previous.created : now;
+        lastModified = now;
+        return this;
+    }
 }
@@ -0,0 +1,180 @@
+package com.example.scim.model;
+
+import com.example.scim.store.RecordCodec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs a person into a compact binary record, a fraction of the size of its JSON and of its objects on the heap.
+ * <p>
+ * Layout: {@code byte format | byte active | varlong version | varlong created | varlong lastModified | username |
+ * firstName | middleName | lastName | emails | addresses}, where a string is a varint of its UTF-8 length plus one
+ * followed by its bytes, {@code 0} standing for {@code null}, a list is a varint of its size plus one followed by its
+ * elements, and an address is its street, city, state, zip and country.
+ */
+public final class PersonRecordCodec implements RecordCodec<ExamplePerson> {
+
+    private static final byte FORMAT = 1;
+
+    @Override
+    public byte[] encode(ExamplePerson person) {
+        Writer out = new Writer();
+        out.bytes[out.length++] = FORMAT;
+        out.bytes[out.length++] = (byte) (person.isActive() ? 1 : 0);
+        out.writeVarLong(person.getVersion());
+        out.writeVarLong(person.getCreated());
+        out.writeVarLong(person.getLastModified());
+        out.writeString(person.getUsername());
+        out.writeString(person.getFirstName());
+        out.writeString(person.getMiddleName());
+        out.writeString(person.getLastName());
+
+        List<String> emails = person.getEmails();
+        out.writeVarLong(emails != null ? emails.size() + 1 : 0);
+        if (emails != null) {
+            for (String email : emails) {
+                out.writeString(email);
+            }
+        }
+
+        List<ExampleAddress> addresses = person.getAddresses();
+        out.writeVarLong(addresses != null ? addresses.size() + 1 : 0);
+        if (addresses != null) {
+            for (ExampleAddress address : addresses) {
+                out.writeString(address.getStreet());
+                out.writeString(address.getCity());
+                out.writeString(address.getState());
+                out.writeString(address.getZip());
+                out.writeString(address.getCountry());
+            }
+        }
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    @Override
+    public ExamplePerson decode(byte[] bytes, int offset, int length) throws IOException {
+        Reader in = new Reader(bytes, offset, offset + length);
+        byte format = in.readByte();
+        if (format != FORMAT) {
+            throw new IOException("Unknown person record format " + format);
+        }
+        ExamplePerson person = new ExamplePerson()
+                .setActive(in.readByte() != 0)
+                .setVersion(in.readVarLong())
+                .setCreated(in.readVarLong())
+                .setLastModified(in.readVarLong())
+                .setUsername(in.readString())
+                .setFirstName(in.readString())
+                .setMiddleName(in.readString())
+                .setLastName(in.readString());
+
+        int emailCount = (int) in.readVarLong() - 1;
+        if (emailCount >= 0) {
+            List<String> emails = new ArrayList<>(emailCount);
+            for (int i = 0; i < emailCount; i++) {
+                emails.add(in.readString());
+            }
+            person.setEmails(emails);
+        }
+
+        int addressCount = (int) in.readVarLong() - 1;
+        if (addressCount >= 0) {
+            List<ExampleAddress> addresses = new ArrayList<>(addressCount);
+            for (int i = 0; i < addressCount; i++) {
+                addresses.add(new ExampleAddress()
+                        .setStreet(in.readString())
+                        .setCity(in.readString())
+                        .setState(in.readString())
+                        .setZip(in.readString())
+                        .setCountry(in.readString()));
+            }
+            person.setAddresses(addresses);
+        }
+        return person;
+    }
+
+    private static final class Writer {
+
+        private byte[] bytes = new byte[128];
+
+        private int length;
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+
+        private final int end;
+
+        private int position;
+
+        private Reader(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = end;
+        }
+
+        private byte readByte() throws IOException {
+            if (position >= end) {
+                throw new IOException("Truncated person record");
+            }
+            return bytes[position++];
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in person record");
+        }
+
+        private String readString() throws IOException {
+            long length = readVarLong() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > end - position) {
+                throw new IOException("Truncated person record");
+            }
+            String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+    }
+}
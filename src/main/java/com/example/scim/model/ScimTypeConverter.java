@@ -5,18 +5,64 @@ import org.apache.directory.scim.spec.resources.Email;
 import org.apache.directory.scim.spec.resources.Name;
 import org.apache.directory.scim.spec.resources.ScimGroup;
 import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.Meta;
 import org.apache.directory.scim.spec.schema.ResourceReference;
 import org.springframework.util.StringUtils;
 
-import java.util.stream.Collectors;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Type conversion utility converts between SCIM and {@code Example*} classes.
+ * <p>
+ * Conversions run for every resource a request returns, so they use plain loops and presized collections rather than
+ * streams.
  */
 public final class ScimTypeConverter {
 
+    private static final Predicate<String> ALL_ATTRIBUTES = attribute -> true;
+
     private ScimTypeConverter() {}
 
+    /**
+     * @return the opaque version of a person, as exposed in {@code meta.version} and entity tags, or {@code null} if
+     * the person is {@code null}
+     */
+    public static String version(ExamplePerson person) {
+        return person != null ? version(person.getCreated(), person.getVersion()) : null;
+    }
+
+    /**
+     * @return the opaque version of a group, as exposed in {@code meta.version} and entity tags, or {@code null} if
+     * the group is {@code null}
+     */
+    public static String version(ExampleGroup group) {
+        return group != null ? version(group.getCreated(), group.getVersion()) : null;
+    }
+
+    private static String version(long created, long version) {
+        // versions restart when a resource is deleted and created again, the creation time tells the two apart
+        return created + "-" + version;
+    }
+
+    private static Meta meta(String resourceType, long created, long lastModified, String version) {
+        Meta meta = new Meta();
+        meta.setResourceType(resourceType);
+        meta.setVersion(version);
+        if (created != 0) {
+            meta.setCreated(toLocalDateTime(created));
+            meta.setLastModified(toLocalDateTime(lastModified));
+        }
+        return meta;
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
 
     private static Address toScim(ExampleAddress exampleAddress) {
 
@@ -47,6 +93,21 @@ public final class ScimTypeConverter {
                 .setCountry(address.getCountry());
     }
 
+    private static Address copy(Address address) {
+
+        if (address == null) {
+            return null;
+        }
+
+        Address copy = new Address();
+        copy.setStreetAddress(address.getStreetAddress());
+        copy.setLocality(address.getLocality());
+        copy.setRegion(address.getRegion());
+        copy.setPostalCode(address.getPostalCode());
+        copy.setCountry(address.getCountry());
+        return copy;
+    }
+
     private static String fromScim(Email email) {
         return email != null ? email.getValue() : null;
     }
@@ -62,6 +123,15 @@ public final class ScimTypeConverter {
     }
 
     public static ScimUser toScim(ExamplePerson person) {
+        return toScim(person, ALL_ATTRIBUTES);
+    }
+
+    /**
+     * Converts only some of the attributes of a person, for requests that asked for a subset of them.
+     * @param attributes whether to convert a top-level attribute, given its lower case name. {@code id},
+     *                   {@code userName}, {@code active} and {@code meta} are always converted
+     */
+    public static ScimUser toScim(ExamplePerson person, Predicate<String> attributes) {
 
         if (person == null) {
             return null;
@@ -71,31 +141,114 @@ public final class ScimTypeConverter {
         user.setId(person.getUsername());
         user.setUserName(person.getUsername());
         user.setActive(person.isActive());
+        user.setMeta(meta("User", person.getCreated(), person.getLastModified(), version(person)));
+
+        boolean nameRequested = attributes.test("name");
+        boolean displayNameRequested = attributes.test("displayname");
+        if (nameRequested || displayNameRequested) {
+            String formatted = displayName(person);
+            if (nameRequested) {
+                Name name = new Name();
+                name.setGivenName(person.getFirstName());
+                name.setMiddleName(person.getMiddleName());
+                name.setFamilyName(person.getLastName());
+                name.setFormatted(formatted);
+                user.setName(name);
+            }
+            if (displayNameRequested) {
+                user.setDisplayName(formatted);
+            }
+        }
 
-        String formatted = person.getLastName() + ", " + person.getFirstName();
-        Name name = new Name();
-        name.setGivenName(person.getFirstName());
-        name.setMiddleName(person.getMiddleName());
-        name.setFamilyName(person.getLastName());
-        name.setFormatted(formatted);
-        user.setName(name);
-        user.setDisplayName(formatted);
-
-        if (person.getEmails() != null) {
-            user.setEmails(person.getEmails().stream()
-                    .map(ScimTypeConverter::toScim)
-                    .collect(Collectors.toList()));
+        List<String> emailAddresses = person.getEmails();
+        if (emailAddresses != null && attributes.test("emails")) {
+            List<Email> emails = new ArrayList<>(emailAddresses.size());
+            for (String emailAddress : emailAddresses) {
+                emails.add(toScim(emailAddress));
+            }
+            user.setEmails(emails);
         }
 
-        if (person.getAddresses() != null) {
-            user.setAddresses(person.getAddresses().stream()
-                    .map(ScimTypeConverter::toScim)
-                    .collect(Collectors.toList()));
+        List<ExampleAddress> exampleAddresses = person.getAddresses();
+        if (exampleAddresses != null && attributes.test("addresses")) {
+            List<Address> addresses = new ArrayList<>(exampleAddresses.size());
+            for (ExampleAddress exampleAddress : exampleAddresses) {
+                addresses.add(toScim(exampleAddress));
+            }
+            user.setAddresses(addresses);
         }
 
         return user;
     }
 
+    /**
+     * Copies the attributes {@link #toScim(ExamplePerson)} sets, sharing their strings and times, which are immutable.
+     * The copy can be modified without affecting {@code user}, and is cheaper to make than converting the person again.
+     */
+    public static ScimUser copy(ScimUser user) {
+
+        if (user == null) {
+            return null;
+        }
+
+        ScimUser copy = new ScimUser();
+        copy.setId(user.getId());
+        copy.setUserName(user.getUserName());
+        copy.setActive(user.getActive());
+        copy.setDisplayName(user.getDisplayName());
+
+        Meta meta = user.getMeta();
+        if (meta != null) {
+            Meta metaCopy = new Meta();
+            metaCopy.setResourceType(meta.getResourceType());
+            metaCopy.setVersion(meta.getVersion());
+            metaCopy.setCreated(meta.getCreated());
+            metaCopy.setLastModified(meta.getLastModified());
+            copy.setMeta(metaCopy);
+        }
+
+        Name name = user.getName();
+        if (name != null) {
+            Name nameCopy = new Name();
+            nameCopy.setGivenName(name.getGivenName());
+            nameCopy.setMiddleName(name.getMiddleName());
+            nameCopy.setFamilyName(name.getFamilyName());
+            nameCopy.setFormatted(name.getFormatted());
+            copy.setName(nameCopy);
+        }
+
+        List<Email> emails = user.getEmails();
+        if (emails != null) {
+            List<Email> emailCopies = new ArrayList<>(emails.size());
+            for (Email email : emails) {
+                emailCopies.add(email != null ? toScim(email.getValue()) : null);
+            }
+            copy.setEmails(emailCopies);
+        }
+
+        List<Address> addresses = user.getAddresses();
+        if (addresses != null) {
+            List<Address> addressCopies = new ArrayList<>(addresses.size());
+            for (Address address : addresses) {
+                addressCopies.add(copy(address));
+            }
+            copy.setAddresses(addressCopies);
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return the {@code displayName} and {@code name.formatted} of a person
+     */
+    public static String displayName(ExamplePerson person) {
+        return new StringBuilder(length(person.getLastName()) + 2 + length(person.getFirstName()))
+                .append(person.getLastName())
+                .append(", ")
+                .append(person.getFirstName())
+                .toString();
+    }
+
     public static ExamplePerson fromScim(ScimUser user) {
 
         if (user == null) {
@@ -113,22 +266,37 @@ public final class ScimTypeConverter {
                   .setLastName(name.getFamilyName());
         }
 
-        if (user.getEmails() != null) {
-            person.setEmails(user.getEmails().stream()
-                    .map(ScimTypeConverter::fromScim)
-                    .collect(Collectors.toList()));
+        List<Email> emails = user.getEmails();
+        if (emails != null) {
+            List<String> emailAddresses = new ArrayList<>(emails.size());
+            for (Email email : emails) {
+                emailAddresses.add(fromScim(email));
+            }
+            person.setEmails(emailAddresses);
         }
 
-        if (user.getAddresses() != null) {
-            person.setAddresses(user.getAddresses().stream()
-                    .map(ScimTypeConverter::fromScim)
-                    .collect(Collectors.toList()));
+        List<Address> addresses = user.getAddresses();
+        if (addresses != null) {
+            List<ExampleAddress> exampleAddresses = new ArrayList<>(addresses.size());
+            for (Address address : addresses) {
+                exampleAddresses.add(fromScim(address));
+            }
+            person.setAddresses(exampleAddresses);
         }
 
         return person;
     }
 
     public static ScimGroup toScim(ExampleGroup exampleGroup) {
+        return toScim(exampleGroup, ALL_ATTRIBUTES);
+    }
+
+    /**
+     * Converts only some of the attributes of a group, for requests that asked for a subset of them.
+     * @param attributes whether to convert a top-level attribute, given its lower case name. {@code id},
+     *                   {@code displayName} and {@code meta} are always converted
+     */
+    public static ScimGroup toScim(ExampleGroup exampleGroup, Predicate<String> attributes) {
 
         if (exampleGroup == null) {
             return null;
@@ -137,15 +305,17 @@ public final class ScimTypeConverter {
         ScimGroup group = new ScimGroup();
         group.setId(exampleGroup.getId());
         group.setDisplayName(exampleGroup.getDescription());
-
-        if (exampleGroup.getMemberIds() != null) {
-            group.setMembers(exampleGroup.getMemberIds().stream()
-                    .map(id -> {
-                        ResourceReference ref = new ResourceReference();
-                        ref.setValue(id);
-                        return ref;
-                    })
-                    .collect(Collectors.toList()));
+        group.setMeta(meta("Group", exampleGroup.getCreated(), exampleGroup.getLastModified(), version(exampleGroup)));
+
+        Set<String> memberIds = exampleGroup.getMemberIds();
+        if (memberIds != null && attributes.test("members")) {
+            List<ResourceReference> members = new ArrayList<>(memberIds.size());
+            for (String id : memberIds) {
+                ResourceReference ref = new ResourceReference();
+                ref.setValue(id);
+                members.add(ref);
+            }
+            group.setMembers(members);
         }
 
         return group;
@@ -160,11 +330,22 @@ public final class ScimTypeConverter {
         ExampleGroup exampleGroup = new ExampleGroup()
                 .setId(group.getId())
                 .setDescription(group.getDisplayName());
-        if (group.getMembers() != null) {
-            exampleGroup.setMemberIds( group.getMembers().stream()
-                    .map(ResourceReference::getValue)
-                    .collect(Collectors.toList()));
+        List<ResourceReference> members = group.getMembers();
+        if (members != null) {
+            Set<String> memberIds = ExampleGroup.newMemberSet();
+            for (ResourceReference member : members) {
+                // a member without a value refers to nothing
+                if (member.getValue() != null) {
+                    memberIds.add(member.getValue());
+                }
+            }
+            exampleGroup.setMemberIds(memberIds);
         }
         return exampleGroup;
     }
+
+    private static int length(String value) {
+        // a missing name part is appended as "null"
+        return value != null ? value.length() : 4;
+    }
 }
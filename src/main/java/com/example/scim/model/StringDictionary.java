@@ -0,0 +1,53 @@
+package com.example.scim.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one instance of each string of a low-cardinality attribute, such as countries, cities or family names, so a
+ * million stored resources sharing a handful of values hold references to the same few strings rather than a million
+ * copies of them.
+ * <p>
+ * The dictionary is bounded: once it holds {@code maxSize} strings, further new strings are returned as they are, and
+ * long strings are never added, as they are unlikely to repeat.
+ */
+public final class StringDictionary {
+
+    private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final int maxLength;
+
+    /**
+     * @param maxSize the maximum number of distinct strings kept
+     * @param maxLength the maximum length of the strings kept
+     */
+    public StringDictionary(int maxSize, int maxLength) {
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the instance kept for strings equal to {@code value}, or {@code value} itself if there is none and the
+     * dictionary does not take it
+     */
+    public String intern(String value) {
+        if (value == null || value.length() > maxLength) {
+            return value;
+        }
+        String interned = values.get(value);
+        if (interned != null) {
+            return interned;
+        }
+        if (values.size() >= maxSize) {
+            return value;
+        }
+        interned = values.putIfAbsent(value, value);
+        return interned != null ? interned : value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
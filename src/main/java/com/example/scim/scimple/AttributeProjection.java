@@ -0,0 +1,122 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The top-level attributes a request asked for with its {@code attributes} and {@code excludedAttributes} parameters,
+ * so the providers only convert what will be returned. Attributes are tested by their lower case name, e.g.
+ * {@code emails}.
+ * <p>
+ * SCIMple still trims the returned resources to the exact attributes requested, so a projection only has to keep a
+ * superset of them: a sub-attribute such as {@code name.givenName} keeps its whole attribute, excluding a
+ * sub-attribute excludes nothing, and a schema or extension attribute the projection cannot resolve keeps everything.
+ */
+public final class AttributeProjection implements Predicate<String> {
+
+  /**
+   * Keeps every attribute, the projection of requests without either parameter.
+   */
+  public static final AttributeProjection ALL = new AttributeProjection(null, null);
+
+  private static final String[] CORE_SCHEMA_PREFIXES = {ScimUser.SCHEMA_URI + ':', ScimGroup.SCHEMA_URI + ':'};
+
+  // null when the parameter was absent or could not be narrowed down
+  private final Set<String> included;
+
+  private final Set<String> excluded;
+
+  private AttributeProjection(Set<String> included, Set<String> excluded) {
+    this.included = included;
+    this.excluded = excluded;
+  }
+
+  /**
+   * @param attributes the value of the {@code attributes} parameter, may be {@code null}
+   * @param excludedAttributes the value of the {@code excludedAttributes} parameter, may be {@code null}
+   */
+  public static AttributeProjection of(String attributes, String excludedAttributes) {
+    Set<String> included = names(attributes, true);
+    Set<String> excluded = names(excludedAttributes, false);
+    if (included == null && (excluded == null || excluded.isEmpty())) {
+      return ALL;
+    }
+    return new AttributeProjection(included, excluded);
+  }
+
+  /**
+   * @return whether every attribute is kept
+   */
+  public boolean isAll() {
+    return this == ALL;
+  }
+
+  @Override
+  public boolean test(String attribute) {
+    return (included == null || included.contains(attribute)) && (excluded == null || !excluded.contains(attribute));
+  }
+
+  private static Set<String> names(String parameter, boolean include) {
+    if (parameter == null || parameter.trim().isEmpty()) {
+      return null;
+    }
+
+    Set<String> names = new HashSet<>();
+    for (String reference : parameter.split(",")) {
+      String name = withoutSchema(reference.trim());
+      if (name == null) {
+        if (include) {
+          return null;
+        }
+        continue;
+      }
+      int dot = name.indexOf('.');
+      if (dot < 0) {
+        names.add(name.toLowerCase(Locale.ROOT));
+      } else if (include) {
+        names.add(name.substring(0, dot).toLowerCase(Locale.ROOT));
+      }
+    }
+    return names;
+  }
+
+  /**
+   * @return the attribute name of a reference, without the core schema it may be prefixed with, or {@code null} if
+   * it refers to another schema
+   */
+  private static String withoutSchema(String reference) {
+    if (!reference.regionMatches(true, 0, "urn:", 0, 4)) {
+      return reference;
+    }
+    for (String prefix : CORE_SCHEMA_PREFIXES) {
+      if (reference.regionMatches(true, 0, prefix, 0, prefix.length())) {
+        return reference.substring(prefix.length());
+      }
+    }
+    return null;
+  }
+}
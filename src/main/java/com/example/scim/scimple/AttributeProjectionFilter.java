@@ -0,0 +1,59 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import javax.enterprise.context.Dependent;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import java.util.regex.Pattern;
+
+/**
+ * Hands the {@code attributes} and {@code excludedAttributes} parameters of {@code GET} requests for users and groups
+ * to the providers as an {@link AttributeProjection} in the {@link ScimRequestContext}, so they skip converting
+ * attributes SCIMple would drop from the response afterwards.
+ */
+@Provider
+@Dependent
+public class AttributeProjectionFilter implements ContainerRequestFilter {
+
+  private static final Pattern RESOURCE_PATH = Pattern.compile("/?(Users|Groups)(/[^/]+)?");
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    ScimRequestContext context = ScimRequestContext.current();
+    if (context == null || !HttpMethod.GET.equals(request.getMethod()) || !RESOURCE_PATH.matcher(request.getUriInfo().getPath()).matches()) {
+      return;
+    }
+
+    MultivaluedMap<String, String> parameters = request.getUriInfo().getQueryParameters();
+    context.setProjection(AttributeProjection.of(parameters.getFirst("attributes"), parameters.getFirst("excludedAttributes")));
+  }
+
+  /**
+   * @return the projection of the request being processed, {@link AttributeProjection#ALL} outside of requests
+   */
+  static AttributeProjection current() {
+    ScimRequestContext context = ScimRequestContext.current();
+    return context != null ? context.getProjection() : AttributeProjection.ALL;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * {@code GET /Export} streams all users and groups as newline delimited JSON through a {@link BulkExporter},
+ * {@code GET /Export/Users} and {@code GET /Export/Groups} only one of them. The response has no length and is sent
+ * in chunks as it is written, and can be loaded into another server through {@link BulkImportResource}.
+ */
+@Path("Export")
+@Dependent
+public class BulkExportResource {
+
+  private final BulkExporter exporter;
+
+  @Inject
+  public BulkExportResource(ScimUserProvider userProvider, ScimGroupProvider groupProvider) {
+    this.exporter = new BulkExporter(userProvider, groupProvider);
+  }
+
+  @GET
+  @Produces(BulkImporter.NDJSON)
+  public Response exportAll() {
+    return response(exporter::exportAll);
+  }
+
+  @GET
+  @Path("Users")
+  @Produces(BulkImporter.NDJSON)
+  public Response exportUsers() {
+    return response(exporter::exportUsers);
+  }
+
+  @GET
+  @Path("Groups")
+  @Produces(BulkImporter.NDJSON)
+  public Response exportGroups() {
+    return response(exporter::exportGroups);
+  }
+
+  private static Response response(StreamingOutput body) {
+    return Response.ok(body, BulkImporter.NDJSON).build();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Exports users and groups as newline delimited JSON, one SCIM resource per line, in the format read by
+ * {@link BulkImporter#importNdjson(java.io.InputStream)}.
+ * <p>
+ * Resources are converted and written one at a time straight from the stores, so exporting all of them takes
+ * constant memory. Like the stores' iterators, an export is weakly consistent: resources written while it runs may or
+ * may not be included.
+ */
+public class BulkExporter {
+
+  // flushing after every resource would turn each line into its own chunk of the response
+  private static final ObjectWriter WRITER = SimplePatchUtil.OBJECT_MAPPER.writer()
+    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  private final ScimUserProvider userProvider;
+
+  private final ScimGroupProvider groupProvider;
+
+  public BulkExporter(ScimUserProvider userProvider, ScimGroupProvider groupProvider) {
+    this.userProvider = userProvider;
+    this.groupProvider = groupProvider;
+  }
+
+  /**
+   * Writes all users followed by all groups.
+   * @return the number of resources written
+   */
+  public long exportAll(OutputStream out) throws IOException {
+    try (JsonGenerator generator = generator(out)) {
+      return write(generator, userProvider.export()) + write(generator, groupProvider.export());
+    }
+  }
+
+  /**
+   * @return the number of users written
+   */
+  public long exportUsers(OutputStream out) throws IOException {
+    try (JsonGenerator generator = generator(out)) {
+      return write(generator, userProvider.export());
+    }
+  }
+
+  /**
+   * @return the number of groups written
+   */
+  public long exportGroups(OutputStream out) throws IOException {
+    try (JsonGenerator generator = generator(out)) {
+      return write(generator, groupProvider.export());
+    }
+  }
+
+  /**
+   * @return a view of {@code resources} that converts each one when the iterator reaches it
+   */
+  static <D, S> Iterable<S> converting(Collection<D> resources, Function<D, S> converter) {
+    return () -> new Iterator<S>() {
+
+      private final Iterator<D> iterator = resources.iterator();
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public S next() {
+        return converter.apply(iterator.next());
+      }
+    };
+  }
+
+  private static JsonGenerator generator(OutputStream out) throws IOException {
+    JsonGenerator generator = SimplePatchUtil.OBJECT_MAPPER.getFactory().createGenerator(out);
+    // lines are separated explicitly, not by the space Jackson puts between root values
+    generator.setRootValueSeparator(null);
+    return generator;
+  }
+
+  private static long write(JsonGenerator generator, Iterable<?> resources) throws IOException {
+    long count = 0;
+    for (Object resource : resources) {
+      WRITER.writeValue(generator, resource);
+      generator.writeRaw('\n');
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@code POST /Import} loads users and groups in bulk through a {@link BulkImporter}, from newline delimited JSON
+ * ({@value BulkImporter#NDJSON}) or from a SCIM bulk request ({@code application/scim+json}).
+ * <p>
+ * Unlike SCIMple's {@code /Bulk} endpoint, the request body is streamed rather than read into memory, and the response
+ * only counts the created resources instead of describing every operation.
+ */
+@Path("Import")
+@Dependent
+public class BulkImportResource {
+
+  private static final String SCIM_JSON = "application/scim+json";
+
+  private final BulkImporter importer;
+
+  @Inject
+  public BulkImportResource(ScimUserProvider userProvider, ScimGroupProvider groupProvider) {
+    this.importer = new BulkImporter(userProvider, groupProvider);
+  }
+
+  @POST
+  @Consumes(BulkImporter.NDJSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response importNdjson(InputStream in) throws IOException {
+    return response(importer.importNdjson(in));
+  }
+
+  @POST
+  @Consumes({SCIM_JSON, MediaType.APPLICATION_JSON})
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response importBulkRequest(InputStream in) throws IOException {
+    return response(importer.importBulkRequest(in));
+  }
+
+  private static Response response(BulkImporter.Result result) {
+    StreamingOutput body = out -> SimplePatchUtil.OBJECT_MAPPER.writeValue(out, result);
+    return Response.status(result.isComplete() ? Response.Status.OK : Response.Status.BAD_REQUEST)
+      .entity(body)
+      .type(MediaType.APPLICATION_JSON_TYPE)
+      .build();
+  }
+}
@@ -0,0 +1,338 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.directory.scim.server.exception.UnableToCreateResourceException;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Imports users and groups from a stream, for initial loads that would take far too long as one POST per resource.
+ * <p>
+ * The input is either newline delimited JSON, one SCIM user or group per line told apart by its {@code schemas}, or a
+ * SCIM bulk request whose operations all POST to {@code /Users} or {@code /Groups}. It is parsed incrementally and the
+ * resources are created in batches of {@value #BATCH_SIZE} through {@link ScimUserProvider#createAll(List)} and
+ * {@link ScimGroupProvider#createAll(List)}, so memory use does not grow with the size of the input. A resource that
+ * cannot be created does not fail the others, it is reported in the {@link Result}.
+ */
+public class BulkImporter {
+
+  public static final String NDJSON = "application/x-ndjson";
+
+  static final int BATCH_SIZE = 1000;
+
+  // Failures beyond this many are only counted, so importing a broken file does not fill the heap with errors.
+  static final int MAX_REPORTED_ERRORS = 1000;
+
+  private static final String USER_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:User";
+
+  private static final String GROUP_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:Group";
+
+  private final ScimUserProvider userProvider;
+
+  private final ScimGroupProvider groupProvider;
+
+  public BulkImporter(ScimUserProvider userProvider, ScimGroupProvider groupProvider) {
+    this.userProvider = userProvider;
+    this.groupProvider = groupProvider;
+  }
+
+  /**
+   * Imports one user or group per line, blank lines are skipped. Errors are reported with the zero-based index of the
+   * line.
+   */
+  public Result importNdjson(InputStream in) throws IOException {
+    Import run = new Import();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+    int index = 0;
+    for (String line = reader.readLine(); line != null; line = reader.readLine(), index++) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      Item item = new Item(index, null);
+      try {
+        JsonNode resource = SimplePatchUtil.OBJECT_MAPPER.readTree(line);
+        String type = schemaType(resource.get("schemas"));
+        if (type == null) {
+          run.result.fail(item, Response.Status.BAD_REQUEST, "Resource is neither a user nor a group.");
+        } else {
+          run.add(item, type, resource);
+        }
+      } catch (JsonProcessingException e) {
+        run.result.fail(item, Response.Status.BAD_REQUEST, "Malformed resource: " + e.getOriginalMessage());
+      }
+    }
+    return run.finish();
+  }
+
+  /**
+   * Imports the operations of a SCIM bulk request. Only POST operations to {@code /Users} and {@code /Groups} are
+   * supported, errors are reported with the zero-based index of the operation and its {@code bulkId}. Input that is
+   * not valid JSON ends the import, with the resources before it imported and {@link Result#isComplete()}
+   * {@code false}.
+   */
+  public Result importBulkRequest(InputStream in) throws IOException {
+    Import run = new Import();
+
+    int index = 0;
+    try (JsonParser parser = SimplePatchUtil.OBJECT_MAPPER.getFactory().createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a SCIM bulk request");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        if (parser.nextToken() == JsonToken.START_ARRAY && "Operations".equals(field)) {
+          for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken(), index++) {
+            JsonNode operation = parser.readValueAsTree();
+            importOperation(run, new Item(index, text(operation, "bulkId")), operation);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } catch (JsonProcessingException e) {
+      run.result.fail(new Item(index, null), Response.Status.BAD_REQUEST, "Malformed bulk request: " + e.getOriginalMessage());
+      run.result.complete = false;
+    }
+    return run.finish();
+  }
+
+  private void importOperation(Import run, Item item, JsonNode operation) {
+    String method = text(operation, "method");
+    String path = text(operation, "path");
+    JsonNode data = operation.get("data");
+
+    if (!"POST".equalsIgnoreCase(method)) {
+      run.result.fail(item, Response.Status.BAD_REQUEST, "Only POST operations can be imported.");
+    } else if (!"/Users".equals(path) && !"/Groups".equals(path)) {
+      run.result.fail(item, Response.Status.BAD_REQUEST, "Only users and groups can be imported.");
+    } else if (data == null || !data.isObject()) {
+      run.result.fail(item, Response.Status.BAD_REQUEST, "Operation has no data.");
+    } else {
+      run.add(item, path.equals("/Users") ? USER_SCHEMA : GROUP_SCHEMA, data);
+    }
+  }
+
+  private static String schemaType(JsonNode schemas) {
+    if (schemas != null) {
+      for (JsonNode schema : schemas) {
+        if (USER_SCHEMA.equals(schema.asText()) || GROUP_SCHEMA.equals(schema.asText())) {
+          return schema.asText();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String text(JsonNode node, String field) {
+    JsonNode value = node.get(field);
+    return value != null && !value.isNull() ? value.asText() : null;
+  }
+
+  /**
+   * The pending batches of one import.
+   */
+  private final class Import {
+
+    private final Result result = new Result();
+
+    private final Batch<ScimUser> users = new Batch<>(ScimUser.class, userProvider::createAll);
+
+    private final Batch<ScimGroup> groups = new Batch<>(ScimGroup.class, groupProvider::createAll);
+
+    void add(Item item, String schema, JsonNode resource) {
+      if (USER_SCHEMA.equals(schema)) {
+        users.add(result, item, resource);
+      } else {
+        groups.add(result, item, resource);
+      }
+    }
+
+    Result finish() {
+      users.flush(result);
+      groups.flush(result);
+      return result;
+    }
+  }
+
+  private static final class Batch<R> {
+
+    private final Class<R> type;
+
+    private final Function<List<R>, List<UnableToCreateResourceException>> creator;
+
+    private final List<R> resources = new ArrayList<>(BATCH_SIZE);
+
+    private final List<Item> items = new ArrayList<>(BATCH_SIZE);
+
+    Batch(Class<R> type, Function<List<R>, List<UnableToCreateResourceException>> creator) {
+      this.type = type;
+      this.creator = creator;
+    }
+
+    void add(Result result, Item item, JsonNode resource) {
+      try {
+        resources.add(SimplePatchUtil.OBJECT_MAPPER.treeToValue(resource, type));
+        items.add(item);
+      } catch (JsonProcessingException e) {
+        result.fail(item, Response.Status.BAD_REQUEST, "Invalid resource: " + e.getOriginalMessage());
+        return;
+      }
+      if (resources.size() == BATCH_SIZE) {
+        flush(result);
+      }
+    }
+
+    void flush(Result result) {
+      if (resources.isEmpty()) {
+        return;
+      }
+      List<UnableToCreateResourceException> failures = creator.apply(resources);
+      for (int i = 0; i < failures.size(); i++) {
+        UnableToCreateResourceException failure = failures.get(i);
+        if (failure == null) {
+          result.created++;
+        } else {
+          result.fail(items.get(i), failure.getStatus(), failure.getMessage());
+        }
+      }
+      resources.clear();
+      items.clear();
+    }
+  }
+
+  private static final class Item {
+
+    private final int index;
+
+    private final String bulkId;
+
+    Item(int index, String bulkId) {
+      this.index = index;
+      this.bulkId = bulkId;
+    }
+  }
+
+  /**
+   * Outcome of an import, serialized as the response to the import request.
+   */
+  public static class Result {
+
+    private long created;
+
+    private long failed;
+
+    private boolean complete = true;
+
+    private final List<ItemError> errors = new ArrayList<>();
+
+    /**
+     * @return the number of resources created
+     */
+    public long getCreated() {
+      return created;
+    }
+
+    /**
+     * @return the number of resources that could not be created
+     */
+    public long getFailed() {
+      return failed;
+    }
+
+    /**
+     * @return {@code false} if the import stopped before the end of its input, which was not valid JSON
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    /**
+     * @return why resources could not be created, for at most {@value BulkImporter#MAX_REPORTED_ERRORS} of them
+     */
+    public List<ItemError> getErrors() {
+      return errors;
+    }
+
+    void fail(Item item, Response.Status status, String detail) {
+      failed++;
+      if (errors.size() < MAX_REPORTED_ERRORS) {
+        errors.add(new ItemError(item.index, item.bulkId, status.getStatusCode(), detail));
+      }
+    }
+  }
+
+  /**
+   * A resource that could not be created.
+   */
+  public static class ItemError {
+
+    private final int index;
+
+    private final String bulkId;
+
+    private final int status;
+
+    private final String detail;
+
+    ItemError(int index, String bulkId, int status, String detail) {
+      this.index = index;
+      this.bulkId = bulkId;
+      this.status = status;
+      this.detail = detail;
+    }
+
+    /**
+     * @return the zero-based index of the line or bulk operation holding the resource
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    public String getBulkId() {
+      return bulkId;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public String getDetail() {
+      return detail;
+    }
+  }
+}
@@ -0,0 +1,412 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import com.example.scim.store.StoreListener;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * A sequenced log of the users and groups created, updated and deleted, so consumers can follow the changes instead of
+ * listing every resource again. The log is filled by the {@link #recorder(String, Function) recorders} added to the
+ * stores, and read by {@link ChangeResource}.
+ * <p>
+ * Every change gets the next sequence number, and changes to the same resource are numbered in the order they were
+ * applied, as stores notify their listeners while the resource is locked. Only the last {@code capacity} changes are
+ * kept in a ring buffer, consumers resuming from an older sequence are told to start over with a full export.
+ * <p>
+ * Appending takes no lock, so writers of different resources are not serialized by the log: a writer claims its
+ * sequence numbers, stores the changes in their slots and then moves the published sequence forward over every slot
+ * that is filled in, including those of writers that claimed earlier numbers but finished later. Readers only see
+ * changes up to the published sequence, so they never skip a change that is still being stored. The log's monitor is
+ * only taken to wake readers waiting for changes.
+ * <p>
+ * Sequences start at the time the log was created, in microseconds, rather than at 1. After a restart the new
+ * sequences are above those consumers saw before, so a consumer resuming from the previous run is told to start over
+ * instead of silently skipping the changes made since.
+ * <p>
+ * Readers waiting for the next change with {@link #poll(long, int, long)} block their thread by default. An
+ * asynchronous log instead parks them without a thread and completes them from a thread of its own when a change is
+ * appended or they time out, so the number of waiting readers is not bounded by the request threads.
+ */
+public final class ChangeLog implements AutoCloseable {
+
+  /**
+   * The kinds of change, as shown in {@link Change#getOperation()}.
+   */
+  public static final String CREATED = "created";
+
+  public static final String UPDATED = "updated";
+
+  public static final String DELETED = "deleted";
+
+  private final AtomicReferenceArray<Change> changes;
+
+  // sequence of the change before the first one
+  private final long start;
+
+  // the last sequence handed out to a writer
+  private final AtomicLong claimed;
+
+  // the last sequence readers may see, every change up to it is stored
+  private final AtomicLong published;
+
+  // readers blocked or parked waiting for changes, so writes only take the monitor when someone waits
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  // guarded by this, asynchronous readers waiting for changes
+  private final Set<Waiter> waiters = new LinkedHashSet<>();
+
+  // completes and expires asynchronous readers, null if readers block
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * @param capacity the number of changes kept
+   */
+  public ChangeLog(int capacity) {
+    this(capacity, false);
+  }
+
+  /**
+   * @param capacity the number of changes kept
+   * @param async whether readers waiting for changes are parked without a thread rather than blocked
+   */
+  public ChangeLog(int capacity, boolean async) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.changes = new AtomicReferenceArray<>(capacity);
+    this.start = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    this.claimed = new AtomicLong(start);
+    this.published = new AtomicLong(start);
+    if (async) {
+      this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "scim-change-log");
+        thread.setDaemon(true);
+        return thread;
+      });
+      // readers completed by a change drop their timeouts right away
+      scheduler.setRemoveOnCancelPolicy(true);
+    } else {
+      this.scheduler = null;
+    }
+  }
+
+  /**
+   * @param resourceType the type of the resources of the store the listener is added to, e.g. {@code User}
+   * @param version the {@code meta.version} of a resource
+   * @return a listener appending the changes to the store it is added to
+   */
+  public <T> StoreListener<T> recorder(String resourceType, Function<T, String> version) {
+    return new StoreListener<T>() {
+      @Override
+      public void onWrite(String id, T previous, T current) {
+        long timestamp = System.currentTimeMillis();
+        String operation = current == null ? DELETED : previous == null ? CREATED : UPDATED;
+        String currentVersion = current != null ? version.apply(current) : null;
+        store(new Change(claimed.incrementAndGet(), resourceType, id, operation, currentVersion, timestamp));
+        publish();
+      }
+
+      @Override
+      public void onCreateAll(Map<String, T> created) {
+        if (created.isEmpty()) {
+          return;
+        }
+        long timestamp = System.currentTimeMillis();
+        long sequence = claimed.getAndAdd(created.size());
+        for (Map.Entry<String, T> entry : created.entrySet()) {
+          store(new Change(++sequence, resourceType, entry.getKey(), CREATED, version.apply(entry.getValue()), timestamp));
+        }
+        publish();
+      }
+
+      @Override
+      public boolean isInitializedFromStore() {
+        return false;
+      }
+    };
+  }
+
+  private void store(Change change) {
+    // should a writer fall a whole ring behind, the slot keeps the newer change
+    changes.accumulateAndGet(slot(change.sequence), change,
+                             (stored, next) -> stored != null && stored.sequence > next.sequence ? stored : next);
+  }
+
+  /**
+   * Moves the published sequence over every stored change following it. A writer publishes after storing its own
+   * changes, so whichever of two concurrent writers stores last sees the changes of both and publishes them.
+   */
+  private void publish() {
+    boolean advanced = false;
+    for (long current = published.get(); ; current = published.get()) {
+      Change next = changes.get(slot(current + 1));
+      // a change a ring ahead means this one was overwritten, readers of it are told to start over
+      if (next == null || next.sequence <= current) {
+        break;
+      }
+      advanced |= published.compareAndSet(current, current + 1);
+    }
+    if (advanced && waiting.get() > 0) {
+      wakeReaders();
+    }
+  }
+
+  private void wakeReaders() {
+    List<Waiter> ready;
+    synchronized (this) {
+      notifyAll();
+      if (waiters.isEmpty()) {
+        return;
+      }
+      ready = new ArrayList<>(waiters);
+      waiters.clear();
+      waiting.addAndGet(-ready.size());
+    }
+    try {
+      // completed on the log's thread, as this one holds the lock of the written resource
+      scheduler.execute(() -> ready.forEach(this::complete));
+    } catch (RejectedExecutionException e) {
+      // closed, the readers are dropped along with their requests
+    }
+  }
+
+  /**
+   * @return the sequence of the last change, consumers starting from it only receive the changes made from now on
+   */
+  public long getLastSequence() {
+    return published.get();
+  }
+
+  /**
+   * Reads the changes following a sequence, waiting for the next change if there is none yet.
+   * @param after the sequence of the last change the consumer has seen
+   * @param max the maximum number of changes returned
+   * @param timeoutMillis how long to wait for a change, {@code 0} to return immediately
+   * @return the changes following {@code after} in order, empty if none was made before the timeout, or {@code null}
+   * if some of them are no longer kept or {@code after} was not handed out by this log, in which case the consumer
+   * has to start over
+   */
+  public List<Change> read(long after, int max, long timeoutMillis) throws InterruptedException {
+    if (after == published.get() && timeoutMillis > 0) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      synchronized (this) {
+        // counted before checking again, so a writer publishing in between sees this reader and wakes it
+        waiting.incrementAndGet();
+        try {
+          for (long remaining = timeoutMillis; after == published.get() && remaining > 0; ) {
+            wait(remaining);
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+          }
+        } finally {
+          waiting.decrementAndGet();
+        }
+      }
+    }
+    return changesAfter(after, max);
+  }
+
+  /**
+   * Reads the changes following a sequence like {@link #read(long, int, long)}. A blocking log waits for the next
+   * change on the calling thread and returns a completed future, an asynchronous log returns at once and completes the
+   * future from its own thread.
+   * @return the changes following {@code after}, see {@link #read(long, int, long)}
+   */
+  public CompletableFuture<List<Change>> poll(long after, int max, long timeoutMillis) {
+    if (scheduler == null) {
+      CompletableFuture<List<Change>> result = new CompletableFuture<>();
+      try {
+        result.complete(read(after, max, timeoutMillis));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result.completeExceptionally(e);
+      }
+      return result;
+    }
+
+    if (after != published.get() || timeoutMillis <= 0) {
+      return CompletableFuture.completedFuture(changesAfter(after, max));
+    }
+    Waiter waiter = new Waiter(after, max);
+    synchronized (this) {
+      waiting.incrementAndGet();
+      if (after != published.get()) {
+        waiting.decrementAndGet();
+        return CompletableFuture.completedFuture(changesAfter(after, max));
+      }
+      waiters.add(waiter);
+    }
+    try {
+      waiter.timeout = scheduler.schedule(() -> expire(waiter), timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      expire(waiter);
+    }
+    return waiter.result;
+  }
+
+  private void complete(Waiter waiter) {
+    ScheduledFuture<?> timeout = waiter.timeout;
+    if (timeout != null) {
+      timeout.cancel(false);
+    }
+    waiter.result.complete(changesAfter(waiter.after, waiter.max));
+  }
+
+  private void expire(Waiter waiter) {
+    synchronized (this) {
+      if (waiters.remove(waiter)) {
+        waiting.decrementAndGet();
+      }
+    }
+    waiter.result.complete(Collections.emptyList());
+  }
+
+  /**
+   * Stops completing asynchronous readers, those still waiting are never completed.
+   */
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private List<Change> changesAfter(long after, int max) {
+    long last = published.get();
+    long oldest = Math.max(start, last - changes.length());
+    if (after < oldest || after > last) {
+      return null;
+    }
+    if (after == last) {
+      return Collections.emptyList();
+    }
+    int size = (int) Math.min(max, last - after);
+    List<Change> result = new ArrayList<>(size);
+    for (long sequence = after + 1; sequence <= after + size; sequence++) {
+      Change change = changes.get(slot(sequence));
+      if (change == null || change.sequence != sequence) {
+        // overwritten by newer changes while reading
+        return null;
+      }
+      result.add(change);
+    }
+    return result;
+  }
+
+  private int slot(long sequence) {
+    return (int) (sequence % changes.length());
+  }
+
+  private static final class Waiter {
+
+    private final long after;
+
+    private final int max;
+
+    private final CompletableFuture<List<Change>> result = new CompletableFuture<>();
+
+    // set after the waiter is registered, so a change may complete it first
+    private volatile ScheduledFuture<?> timeout;
+
+    private Waiter(long after, int max) {
+      this.after = after;
+      this.max = max;
+    }
+  }
+
+  /**
+   * A user or group that was created, updated or deleted.
+   */
+  public static final class Change {
+
+    private final long sequence;
+
+    private final String resourceType;
+
+    private final String id;
+
+    private final String operation;
+
+    private final String version;
+
+    private final long timestamp;
+
+    private Change(long sequence, String resourceType, String id, String operation, String version, long timestamp) {
+      this.sequence = sequence;
+      this.resourceType = resourceType;
+      this.id = id;
+      this.operation = operation;
+      this.version = version;
+      this.timestamp = timestamp;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    /**
+     * @return {@code User} or {@code Group}, as in {@code meta.resourceType}
+     */
+    public String getResourceType() {
+      return resourceType;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    /**
+     * @return {@link #CREATED}, {@link #UPDATED} or {@link #DELETED}
+     */
+    public String getOperation() {
+      return operation;
+    }
+
+    /**
+     * @return the {@code meta.version} of the resource after the change, or {@code null} if it was deleted
+     */
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * @return when the change was made, in ISO-8601 format
+     */
+    public String getTimestamp() {
+      return Instant.ofEpochMilli(timestamp).toString();
+    }
+  }
+}
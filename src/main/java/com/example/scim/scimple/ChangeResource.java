@@ -0,0 +1,181 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the changes of the users and groups in the {@link ChangeLog}, so clients can keep a copy in sync without
+ * listing every resource again.
+ * <p>
+ * {@code GET /Changes?after={sequence}} long-polls: it returns the changes following {@code after} at once if there
+ * are any, or waits up to {@code wait} seconds for the next one, along with the sequence to pass as {@code after} in
+ * the next request. {@code GET /Changes/Events} streams the changes as server-sent events, resuming after the
+ * {@code Last-Event-ID} header sent by reconnecting clients. Without {@code after}, both start with the changes made
+ * from now on.
+ * <p>
+ * A client resuming from changes that are no longer kept gets {@code 410 Gone}, or a {@code reset} event, and starts
+ * over: it takes the current {@code next} sequence from {@code GET /Changes?wait=0}, reloads everything through
+ * {@link BulkExportResource}, and follows the changes from that sequence on.
+ * <p>
+ * Long-polls are answered through an {@link AsyncResponse}. With a blocking {@link ChangeLog} the request thread
+ * still waits for the next change, with an asynchronous one it returns to the container while the poll waits. Event
+ * streams always hold their request thread.
+ */
+@Path("Changes")
+@Dependent
+public class ChangeResource {
+
+  static final String EVENT_STREAM = "text/event-stream";
+
+  private static final int MAX_COUNT = 1000;
+
+  private static final int MAX_WAIT_SECONDS = 60;
+
+  // added to the wait before the container gives up on a suspended poll with 503 Service Unavailable
+  private static final int SUSPEND_GRACE_SECONDS = 10;
+
+  // comment sent when no change was made for this long, keeps proxies from closing the stream and detects closed ones
+  private static final long KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+  private final ChangeLog changeLog;
+
+  @Inject
+  public ChangeResource(ChangeLog changeLog) {
+    this.changeLog = changeLog;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public void poll(@QueryParam("after") Long after,
+                   @QueryParam("count") @DefaultValue("100") int count,
+                   @QueryParam("wait") @DefaultValue("30") int wait,
+                   @Suspended AsyncResponse asyncResponse) {
+    int seconds = Math.max(0, Math.min(wait, MAX_WAIT_SECONDS));
+    asyncResponse.setTimeout(seconds + SUSPEND_GRACE_SECONDS, TimeUnit.SECONDS);
+    poll(after, count, seconds).whenComplete((response, failure) -> asyncResponse.resume(failure != null ? failure : response));
+  }
+
+  /**
+   * @return the response to a long-poll, completed when it is answered
+   */
+  public CompletableFuture<Response> poll(Long after, int count, int wait) {
+    long from = after != null ? after : changeLog.getLastSequence();
+    long timeout = TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(wait, MAX_WAIT_SECONDS)));
+    return changeLog.poll(from, Math.max(1, Math.min(count, MAX_COUNT)), timeout)
+                    .thenApply(changes -> response(from, changes));
+  }
+
+  private Response response(long from, List<ChangeLog.Change> changes) {
+    if (changes == null) {
+      return Response.status(Response.Status.GONE)
+                     .entity(gone(from))
+                     .type(MediaType.APPLICATION_JSON_TYPE)
+                     .build();
+    }
+
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("next", changes.isEmpty() ? from : changes.get(changes.size() - 1).getSequence());
+    body.put("changes", changes);
+    StreamingOutput output = out -> SimplePatchUtil.OBJECT_MAPPER.writeValue(out, body);
+    return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
+  }
+
+  @GET
+  @Path("Events")
+  @Produces(EVENT_STREAM)
+  public Response stream(@QueryParam("after") Long after, @HeaderParam("Last-Event-ID") String lastEventId) {
+    long from;
+    if (lastEventId != null && !lastEventId.trim().isEmpty()) {
+      try {
+        from = Long.parseLong(lastEventId.trim());
+      } catch (NumberFormatException e) {
+        return Response.status(Response.Status.BAD_REQUEST).build();
+      }
+    } else {
+      from = after != null ? after : changeLog.getLastSequence();
+    }
+
+    StreamingOutput output = out -> {
+      try {
+        stream(from, out);
+      } catch (InterruptedException e) {
+        // the server is shutting down, clients reconnect with their last event id
+        Thread.currentThread().interrupt();
+      }
+    };
+    return Response.ok(output, EVENT_STREAM).header("Cache-Control", "no-cache").build();
+  }
+
+  /**
+   * Writes the changes following {@code after} until the client goes away, which the next write notices.
+   */
+  private void stream(long after, OutputStream out) throws IOException, InterruptedException {
+    out.write(": changes\n\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    while (true) {
+      List<ChangeLog.Change> changes = changeLog.read(after, MAX_COUNT, KEEP_ALIVE_MILLIS);
+      if (changes == null) {
+        out.write(("event: reset\ndata: " + SimplePatchUtil.OBJECT_MAPPER.writeValueAsString(gone(after)) + "\n\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return;
+      }
+      if (changes.isEmpty()) {
+        out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+      }
+      for (ChangeLog.Change change : changes) {
+        String event = "id: " + change.getSequence() + "\nevent: change\ndata: "
+                       + SimplePatchUtil.OBJECT_MAPPER.writeValueAsString(change) + "\n\n";
+        out.write(event.getBytes(StandardCharsets.UTF_8));
+        after = change.getSequence();
+      }
+      out.flush();
+    }
+  }
+
+  private Map<String, Object> gone(long after) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("after", after);
+    body.put("next", changeLog.getLastSequence());
+    body.put("detail", "Changes after " + after + " are no longer kept, export all resources and follow the changes from next.");
+    return body;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the {@code If-None-Match} and {@code If-Match} preconditions of requests for a single user or group
+ * against the version the providers keep in {@code meta.version}.
+ * <p>
+ * A {@code GET} whose {@code If-None-Match} matches the current version is answered with {@code 304 Not Modified}
+ * right away, without converting or serializing the resource. The {@code If-Match} header of a {@code PUT} or
+ * {@code PATCH} is handed to the provider in the {@link ScimRequestContext}. The provider compares it with the stored
+ * version while it holds the resource's write lock and fails the update with {@code 412 Precondition Failed} if they
+ * differ, see {@link #checkIfMatch(String, String)}.
+ */
+@Provider
+@Dependent
+public class ConditionalRequestFilter implements ContainerRequestFilter {
+
+  private static final Pattern RESOURCE_PATH = Pattern.compile("/?(Users|Groups)/([^/]+)");
+
+  private static final String PATCH = "PATCH";
+
+  private final ScimUserProvider userProvider;
+
+  private final ScimGroupProvider groupProvider;
+
+  @Inject
+  public ConditionalRequestFilter(ScimUserProvider userProvider, ScimGroupProvider groupProvider) {
+    this.userProvider = userProvider;
+    this.groupProvider = groupProvider;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    Matcher matcher = RESOURCE_PATH.matcher(request.getUriInfo().getPath());
+    if (!matcher.matches()) {
+      return;
+    }
+
+    String method = request.getMethod();
+    if (HttpMethod.GET.equals(method)) {
+      String ifNoneMatch = request.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+      if (ifNoneMatch != null) {
+        String version = "Users".equals(matcher.group(1)) ? userProvider.getVersion(matcher.group(2)) : groupProvider.getVersion(matcher.group(2));
+        if (version != null && matches(ifNoneMatch, version)) {
+          request.abortWith(Response.notModified(new EntityTag(version)).build());
+        }
+      }
+    } else if (HttpMethod.PUT.equals(method) || PATCH.equals(method)) {
+      ScimRequestContext context = ScimRequestContext.current();
+      if (context != null) {
+        context.setIfMatch(request.getHeaderString(HttpHeaders.IF_MATCH));
+      }
+    }
+  }
+
+  /**
+   * Fails an update if the request being processed has an {@code If-Match} header that does not match the current
+   * version of the resource. Must be called while the resource's write lock is held.
+   * @param id the id of the resource
+   * @param version the current version of the resource
+   * @throws UnableToUpdateResourceException with status {@code 412} if the precondition fails
+   */
+  static void checkIfMatch(String id, String version) throws UnableToUpdateResourceException {
+    ScimRequestContext context = ScimRequestContext.current();
+    String ifMatch = context != null ? context.getIfMatch() : null;
+    if (ifMatch != null && !matches(ifMatch, version)) {
+      throw new UnableToUpdateResourceException(Response.Status.PRECONDITION_FAILED,
+                                                "Resource '" + id + "' was modified, its current version is '" + version + "'.");
+    }
+  }
+
+  /**
+   * @param header the value of an {@code If-Match} or {@code If-None-Match} header, a list of entity tags or
+   *               {@code *}
+   * @return whether one of the entity tags, compared weakly, or {@code *} matches {@code version}
+   */
+  static boolean matches(String header, String version) {
+    for (String tag : header.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*")) {
+        return true;
+      }
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.length() >= 2 && tag.charAt(0) == '"' && tag.charAt(tag.length() - 1) == '"') {
+        tag = tag.substring(1, tag.length() - 1);
+      }
+      if (tag.equals(version)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,467 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
+import org.apache.directory.scim.spec.protocol.attribute.AttributeReference;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
+import org.apache.directory.scim.spec.protocol.filter.AttributeComparisonExpression;
+import org.apache.directory.scim.spec.protocol.filter.CompareOperator;
+import org.apache.directory.scim.spec.protocol.filter.FilterExpression;
+import org.apache.directory.scim.spec.protocol.filter.GroupExpression;
+import org.apache.directory.scim.spec.protocol.filter.LogicalExpression;
+import org.apache.directory.scim.spec.protocol.filter.LogicalOperator;
+import org.apache.directory.scim.spec.protocol.filter.ValuePathExpression;
+import org.apache.directory.scim.spec.resources.Email;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Applies SCIM PATCH operations directly to a copy of a domain object ({@code ExamplePerson}, {@code ExampleGroup}),
+ * without converting it to SCIM and JSON and back.
+ * <p>
+ * Attributes are registered with a handler that knows how to add, replace and remove their values. Operations without
+ * a path are split into one operation per key of their value, and operations on a complex attribute such as
+ * {@code name} are split into operations on its registered sub-attributes. Multi-valued attributes also accept value
+ * filters on their {@code value} sub-attribute, e.g. {@code members[value eq "x"]}.
+ * <p>
+ * When any operation of a request targets something that has no handler, {@link #apply(Object, List)} returns
+ * {@code null} and the caller falls back to the generic JSON patch in {@link SimplePatchUtil}.
+ */
+final class DomainPatcher<T> {
+
+  private final UnaryOperator<T> copier;
+
+  private final Map<String, AttributeHandler<T>> handlers = new HashMap<>();
+
+  /**
+   * @param copier creates a copy of a resource that can be modified without affecting the original
+   */
+  DomainPatcher(UnaryOperator<T> copier) {
+    this.copier = copier;
+  }
+
+  DomainPatcher<T> attribute(String path, AttributeHandler<T> handler) {
+    handlers.put(key(path), handler);
+    return this;
+  }
+
+  /**
+   * @return a patched copy of {@code original}, or {@code null} if the operations cannot all be applied natively
+   */
+  T apply(T original, List<PatchOperation> operations) throws UnableToUpdateResourceException {
+    T target = copier.apply(original);
+
+    for (PatchOperation operation : operations) {
+      PatchOperationPath path = operation.getPath();
+      boolean applied;
+
+      if (path == null) {
+        // no path, the value contains the attributes to update
+        applied = operation.getValue() instanceof Map && applyAll(target, operation.getOperation(), null, (Map<?, ?>) operation.getValue());
+      } else {
+        ValuePathExpression valuePath = path.getValuePathExpression();
+        AttributeReference reference = valuePath.getAttributePath();
+        String name = reference.getSubAttributeName() != null
+          ? reference.getAttributeName() + "." + reference.getSubAttributeName()
+          : reference.getAttributeName();
+        FilterExpression valueFilter = valuePath.getAttributeExpression();
+
+        applied = (valueFilter == null || reference.getSubAttributeName() == null)
+          && apply(target, operation.getOperation(), name, valueFilter, operation.getValue());
+      }
+
+      if (!applied) {
+        return null;
+      }
+    }
+    return target;
+  }
+
+  private boolean apply(T target, PatchOperation.Type type, String path, FilterExpression valueFilter, Object value) throws UnableToUpdateResourceException {
+    AttributeHandler<T> handler = handlers.get(key(path));
+    if (handler != null) {
+      return handler.apply(target, type, valueFilter, value);
+    }
+    if (valueFilter != null) {
+      return false;
+    }
+
+    // complex attribute: apply the value's entries to the sub-attributes, or remove all sub-attributes
+    if (value instanceof Map) {
+      return applyAll(target, type, path, (Map<?, ?>) value);
+    }
+    if (type == PatchOperation.Type.REMOVE && value == null) {
+      String prefix = key(path) + ".";
+      boolean found = false;
+      for (Map.Entry<String, AttributeHandler<T>> entry : handlers.entrySet()) {
+        if (entry.getKey().startsWith(prefix)) {
+          found = true;
+          if (!entry.getValue().apply(target, type, null, null)) {
+            return false;
+          }
+        }
+      }
+      return found;
+    }
+    return false;
+  }
+
+  private boolean applyAll(T target, PatchOperation.Type type, String parent, Map<?, ?> values) throws UnableToUpdateResourceException {
+    for (Map.Entry<?, ?> entry : values.entrySet()) {
+      String name = String.valueOf(entry.getKey());
+      // strip a schema URN, e.g. urn:ietf:params:scim:schemas:core:2.0:User:userName
+      name = name.substring(name.lastIndexOf(':') + 1);
+      String path = parent != null ? parent + "." + name : name;
+      if (!apply(target, type, path, null, entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String key(String path) {
+    return path.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Applies one operation to one attribute of a domain object.
+   */
+  @FunctionalInterface
+  interface AttributeHandler<T> {
+
+    /**
+     * @param valueFilter the filter of a path such as {@code members[value eq "x"]}, or {@code null}
+     * @return {@code false} if the operation is not supported and the generic JSON patch should be used instead
+     */
+    boolean apply(T target, PatchOperation.Type type, FilterExpression valueFilter, Object value) throws UnableToUpdateResourceException;
+  }
+
+  /**
+   * A single-valued string attribute.
+   */
+  static <T> AttributeHandler<T> string(BiConsumer<T, String> setter) {
+    return (target, type, valueFilter, value) -> {
+      if (valueFilter != null) {
+        return false;
+      }
+      if (type == PatchOperation.Type.REMOVE) {
+        setter.accept(target, null);
+        return true;
+      }
+      if (value == null || value instanceof String) {
+        setter.accept(target, (String) value);
+        return true;
+      }
+      return false;
+    };
+  }
+
+  /**
+   * A single-valued boolean attribute, string values such as {@code "False"} sent by some clients are accepted too.
+   */
+  static <T> AttributeHandler<T> bool(BiConsumer<T, Boolean> setter) {
+    return (target, type, valueFilter, value) -> {
+      if (valueFilter != null || type == PatchOperation.Type.REMOVE) {
+        return false;
+      }
+      if (value instanceof Boolean) {
+        setter.accept(target, (Boolean) value);
+        return true;
+      }
+      if ("true".equalsIgnoreCase(String.valueOf(value)) || "false".equalsIgnoreCase(String.valueOf(value))) {
+        setter.accept(target, Boolean.valueOf(String.valueOf(value)));
+        return true;
+      }
+      return false;
+    };
+  }
+
+  /**
+   * An attribute that cannot be changed, setting it to its current value is accepted as a no-op.
+   */
+  static <T> AttributeHandler<T> immutable(String name, Function<T, String> getter) {
+    return (target, type, valueFilter, value) -> {
+      if (valueFilter == null && type != PatchOperation.Type.REMOVE && Objects.equals(getter.apply(target), value)) {
+        return true;
+      }
+      throw new UnableToUpdateResourceException(Response.Status.BAD_REQUEST, "Attribute '" + name + "' is immutable.");
+    };
+  }
+
+  /**
+   * A multi-valued attribute whose elements are identified by their {@code value} sub-attribute, such as
+   * {@code emails} or {@code members}. Elements in the patch value may be maps, {@link Email}s,
+   * {@link ResourceReference}s or plain strings. A {@code remove} with a value removes only the given elements.
+   *
+   * @param factory creates the collection holding the attribute's values
+   * @param caseExact whether values are compared case-sensitively
+   */
+  static <T, C extends Collection<String>> AttributeHandler<T> values(Function<T, C> getter, BiConsumer<T, C> setter,
+                                                                      Supplier<C> factory, boolean caseExact) {
+    return (target, type, valueFilter, value) -> {
+      List<String> newValues = value != null ? elementValues(value) : Collections.emptyList();
+      if (newValues == null) {
+        return false;
+      }
+
+      Predicate<String> matcher;
+      if (valueFilter != null) {
+        matcher = valueMatcher(valueFilter, caseExact);
+        if (matcher == null || type == PatchOperation.Type.ADD) {
+          return false;
+        }
+      } else if (type == PatchOperation.Type.REMOVE && !newValues.isEmpty()) {
+        matcher = valueMatcher(newValues, caseExact);
+      } else {
+        matcher = null;
+      }
+
+      C current = getter.apply(target);
+      if (matcher != null) {
+        if (current == null) {
+          // nothing to match
+          return true;
+        }
+        if (type == PatchOperation.Type.REMOVE) {
+          current.removeIf(matcher);
+          return true;
+        }
+
+        // replace the matching elements with the new value
+        if (newValues.size() != 1) {
+          return false;
+        }
+        if (current instanceof List) {
+          ((List<String>) current).replaceAll(v -> matcher.test(v) ? newValues.get(0) : v);
+        } else if (current.removeIf(matcher)) {
+          current.add(newValues.get(0));
+        }
+        return true;
+      }
+
+      switch (type) {
+        case ADD:
+          if (current == null) {
+            current = factory.get();
+            setter.accept(target, current);
+          }
+          for (String newValue : newValues) {
+            if (!current.contains(newValue)) {
+              current.add(newValue);
+            }
+          }
+          return true;
+        case REPLACE:
+          C replacement = factory.get();
+          replacement.addAll(newValues);
+          setter.accept(target, replacement);
+          return true;
+        default:
+          setter.accept(target, null);
+          return true;
+      }
+    };
+  }
+
+  /**
+   * Translates operations that only add or remove elements of the multi-valued attribute {@code path} into deltas,
+   * so they can be applied as adds and removes rather than by rebuilding the collection. Supported are {@code add}
+   * and {@code remove} with a list of elements, and {@code remove} with a {@code [value eq "x"]} filter.
+   *
+   * @return one delta per operation, or {@code null} if any operation is not supported
+   */
+  static List<Delta> deltas(String path, List<PatchOperation> operations) {
+    List<Delta> deltas = new ArrayList<>(operations.size());
+    for (PatchOperation operation : operations) {
+      PatchOperationPath operationPath = operation.getPath();
+      if (operationPath == null) {
+        return null;
+      }
+      ValuePathExpression valuePath = operationPath.getValuePathExpression();
+      AttributeReference reference = valuePath.getAttributePath();
+      if (!path.equalsIgnoreCase(reference.getAttributeName()) || reference.getSubAttributeName() != null) {
+        return null;
+      }
+
+      List<String> values;
+      FilterExpression valueFilter = valuePath.getAttributeExpression();
+      if (valueFilter != null) {
+        String value = equalValue(valueFilter);
+        if (value == null || operation.getOperation() != PatchOperation.Type.REMOVE || operation.getValue() != null) {
+          return null;
+        }
+        values = Collections.singletonList(value);
+      } else {
+        values = operation.getValue() != null ? elementValues(operation.getValue()) : null;
+        if (values == null || operation.getOperation() == PatchOperation.Type.REPLACE) {
+          return null;
+        }
+      }
+      deltas.add(new Delta(operation.getOperation() == PatchOperation.Type.ADD, values));
+    }
+    return deltas;
+  }
+
+  /**
+   * Elements to add to or remove from a multi-valued attribute.
+   */
+  static final class Delta {
+
+    private final boolean add;
+
+    private final List<String> values;
+
+    private Delta(boolean add, List<String> values) {
+      this.add = add;
+      this.values = values;
+    }
+
+    boolean isAdd() {
+      return add;
+    }
+
+    List<String> getValues() {
+      return values;
+    }
+  }
+
+  /**
+   * @return the {@code value} of every element, or {@code null} if an element is not understood
+   */
+  private static List<String> elementValues(Object value) {
+    Collection<?> elements = value instanceof Collection ? (Collection<?>) value : Collections.singletonList(value);
+    List<String> values = new ArrayList<>(elements.size());
+    for (Object element : elements) {
+      Object elementValue;
+      if (element instanceof Map) {
+        elementValue = ((Map<?, ?>) element).get("value");
+      } else if (element instanceof ResourceReference) {
+        elementValue = ((ResourceReference) element).getValue();
+      } else if (element instanceof Email) {
+        elementValue = ((Email) element).getValue();
+      } else {
+        elementValue = element;
+      }
+
+      if (!(elementValue instanceof String)) {
+        return null;
+      }
+      values.add((String) elementValue);
+    }
+    return values;
+  }
+
+  private static Predicate<String> valueMatcher(List<String> values, boolean caseExact) {
+    if (caseExact) {
+      return new HashSet<>(values)::contains;
+    }
+    Set<String> normalized = new HashSet<>(values.size());
+    for (String value : values) {
+      normalized.add(value.toLowerCase(Locale.ROOT));
+    }
+    return v -> v != null && normalized.contains(v.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * @return the compared value if {@code expression} is {@code value eq "x"}, otherwise {@code null}
+   */
+  private static String equalValue(FilterExpression expression) {
+    if (!(expression instanceof AttributeComparisonExpression)) {
+      return null;
+    }
+    AttributeComparisonExpression comparison = (AttributeComparisonExpression) expression;
+    AttributeReference reference = comparison.getAttributePath();
+    String attribute = reference.getSubAttributeName() != null ? reference.getSubAttributeName() : reference.getAttributeName();
+    if (comparison.getOperation() != CompareOperator.EQ || !"value".equalsIgnoreCase(attribute)
+        || !(comparison.getCompareValue() instanceof String)) {
+      return null;
+    }
+    return (String) comparison.getCompareValue();
+  }
+
+  /**
+   * Translates a value filter that only refers to the {@code value} sub-attribute into a predicate.
+   * @return the predicate, or {@code null} if the filter is not supported
+   */
+  private static Predicate<String> valueMatcher(FilterExpression expression, boolean caseExact) {
+
+    if (expression instanceof AttributeComparisonExpression) {
+      AttributeComparisonExpression comparison = (AttributeComparisonExpression) expression;
+      AttributeReference reference = comparison.getAttributePath();
+      String attribute = reference.getSubAttributeName() != null ? reference.getSubAttributeName() : reference.getAttributeName();
+      if (!"value".equalsIgnoreCase(attribute) || !(comparison.getCompareValue() instanceof String)) {
+        return null;
+      }
+
+      UnaryOperator<String> normalize = caseExact ? UnaryOperator.identity() : v -> v.toLowerCase(Locale.ROOT);
+      String expected = normalize.apply((String) comparison.getCompareValue());
+      switch (comparison.getOperation()) {
+        case EQ:
+          return v -> v != null && normalize.apply(v).equals(expected);
+        case NE:
+          return v -> v == null || !normalize.apply(v).equals(expected);
+        case CO:
+          return v -> v != null && normalize.apply(v).contains(expected);
+        case SW:
+          return v -> v != null && normalize.apply(v).startsWith(expected);
+        case EW:
+          return v -> v != null && normalize.apply(v).endsWith(expected);
+        default:
+          return null;
+      }
+    }
+
+    if (expression instanceof LogicalExpression) {
+      LogicalExpression logical = (LogicalExpression) expression;
+      Predicate<String> left = valueMatcher(logical.getLeft(), caseExact);
+      Predicate<String> right = valueMatcher(logical.getRight(), caseExact);
+      if (left == null || right == null) {
+        return null;
+      }
+      return logical.getOperator() == LogicalOperator.AND ? left.and(right) : left.or(right);
+    }
+
+    if (expression instanceof GroupExpression) {
+      GroupExpression group = (GroupExpression) expression;
+      Predicate<String> inner = valueMatcher(group.getFilterExpression(), caseExact);
+      return inner == null || !group.isNot() ? inner : inner.negate();
+    }
+
+    return null;
+  }
+}
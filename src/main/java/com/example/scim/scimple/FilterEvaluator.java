@@ -0,0 +1,759 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import com.example.scim.store.AttributeIndex;
+import com.example.scim.store.ResourceStore;
+import org.apache.directory.scim.spec.protocol.attribute.AttributeReference;
+import org.apache.directory.scim.spec.protocol.filter.AttributeComparisonExpression;
+import org.apache.directory.scim.spec.protocol.filter.AttributePresentExpression;
+import org.apache.directory.scim.spec.protocol.filter.CompareOperator;
+import org.apache.directory.scim.spec.protocol.filter.FilterExpression;
+import org.apache.directory.scim.spec.protocol.filter.GroupExpression;
+import org.apache.directory.scim.spec.protocol.filter.LogicalExpression;
+import org.apache.directory.scim.spec.protocol.filter.LogicalOperator;
+import org.apache.directory.scim.spec.protocol.filter.ValuePathExpression;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.apache.directory.scim.spec.protocol.search.SortOrder;
+import org.apache.directory.scim.spec.protocol.search.SortRequest;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ServerErrorException;
+import javax.ws.rs.core.Response;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Evaluates SCIM filter, paging and sort requests against the resources of a {@link ResourceStore}.
+ * <p>
+ * Attributes are registered with an accessor that returns their values for a resource, and optionally with an
+ * {@link AttributeIndex}. Filters are evaluated in two steps: the indexes are used to narrow the expression down to a
+ * set of candidate ids, then every candidate is matched against the full expression. Expressions that cannot be
+ * answered from an index (for example {@code ne}, {@code not(...)} or attributes without an index) fall back to
+ * matching every stored resource.
+ * <p>
+ * String comparisons are case-insensitive. A comparison on a multi-valued attribute matches if any of its values
+ * match; sub-attribute conditions inside a value path ({@code emails[value co "x"]}) are each checked against all of
+ * the attribute's values rather than against the same element.
+ * <p>
+ * Timestamps such as {@code meta.lastModified} are compared as fixed width UTC date-times, whose string order is their
+ * time order, so an ordered index over them keeps the resources in the order they were written and answers
+ * {@code meta.lastModified gt "..."} with the resources written since, in that order. Resources written in the same
+ * millisecond are kept in the order of their ids.
+ */
+final class FilterEvaluator<T> {
+
+  private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT)
+                                                                   .withZone(ZoneOffset.UTC);
+
+  // Separates the value from the id in the keys of an index keyed by both, and sorts before any character of an id.
+  private static final char ID_SEPARATOR = '\u0000';
+
+  // Follows a value in a key that sorts after the keys of every resource holding the value.
+  private static final char AFTER_IDS = '\u0001';
+
+  // An AND whose left side narrows the filter down to this many candidates or less does not look up its right side,
+  // matching the candidates against it is cheaper than the lookup.
+  private static final int FEW_CANDIDATES = 256;
+
+  private final ResourceStore<T> store;
+
+  private final Map<String, Attribute<T>> attributes = new HashMap<>();
+
+  FilterEvaluator(ResourceStore<T> store) {
+    this.store = store;
+  }
+
+  /**
+   * Registers an attribute that can only be filtered by scanning the store.
+   */
+  FilterEvaluator<T> attribute(String path, Function<T, Collection<?>> accessor) {
+    attributes.put(key(path), new Attribute<>(accessor, null, null, false));
+    return this;
+  }
+
+  /**
+   * Registers an attribute backed by a new {@link AttributeIndex} that is kept up to date by the store. The index is
+   * named after the attribute, so it can be restored from store snapshots.
+   */
+  FilterEvaluator<T> indexedAttribute(String path, Function<T, Collection<?>> accessor, boolean ordered, boolean substring) {
+    return indexedAttribute(path, accessor, new AttributeIndex<>(key(path), accessor, ordered, substring));
+  }
+
+  /**
+   * Registers an attribute backed by an {@link AttributeIndex} created by the caller, which is registered with the
+   * store so it is kept up to date.
+   */
+  FilterEvaluator<T> indexedAttribute(String path, Function<T, Collection<?>> accessor, AttributeIndex<T> index) {
+    store.addListener(index);
+    attributes.put(key(path), new Attribute<>(accessor, index, null, false));
+    return this;
+  }
+
+  /**
+   * Registers a timestamp attribute that can only be filtered by scanning the store.
+   * @param millis returns the timestamp of a resource in milliseconds since the epoch, {@code 0} if it has none
+   */
+  FilterEvaluator<T> timestampAttribute(String path, ToLongFunction<T> millis) {
+    attributes.put(key(path), new Attribute<>(timestamps(millis), null, FilterEvaluator::parseTimestamp, false));
+    return this;
+  }
+
+  /**
+   * Registers a timestamp attribute backed by a new ordered {@link AttributeIndex} that is kept up to date by the
+   * store. The index keys every resource by its timestamp followed by its id, so resources sharing a millisecond have
+   * an order a client can resume from, see {@link #parseTimestamp(Object)}. The index is named after the attribute and
+   * its id, so it can be restored from store snapshots.
+   * @param millis returns the timestamp of a resource in milliseconds since the epoch, {@code 0} if it has none
+   * @param idOf returns the id a resource is stored under
+   */
+  FilterEvaluator<T> indexedTimestampAttribute(String path, ToLongFunction<T> millis, Function<T, String> idOf) {
+    Function<T, Collection<?>> accessor = timestamps(millis);
+    Function<T, Collection<?>> keys = resource -> {
+      long value = millis.applyAsLong(resource);
+      return value != 0 ? Collections.singletonList(timestamp(value) + ID_SEPARATOR + idOf.apply(resource)) : Collections.emptyList();
+    };
+    AttributeIndex<T> index = new AttributeIndex<>(key(path) + "+id", keys, true, false);
+    store.addListener(index);
+    attributes.put(key(path), new Attribute<>(accessor, index, FilterEvaluator::parseTimestamp, true));
+    return this;
+  }
+
+  /**
+   * @return the value a timestamp is indexed under
+   */
+  private static String timestamp(long millis) {
+    return TIMESTAMP.format(Instant.ofEpochMilli(millis));
+  }
+
+  private static <T> Function<T, Collection<?>> timestamps(ToLongFunction<T> millis) {
+    return resource -> {
+      long value = millis.applyAsLong(resource);
+      return value != 0 ? Collections.singletonList(timestamp(value)) : Collections.emptyList();
+    };
+  }
+
+  /**
+   * Parses a filter value of a timestamp attribute, an ISO-8601 date-time that is taken to be UTC without an offset,
+   * like the {@code meta} date-times returned to clients. Digits past the millisecond are dropped, as timestamps are
+   * only kept to the millisecond. Resources sharing a millisecond are sorted by their ids, so a client paging through
+   * the changes sorted by the timestamp resumes after the last resource it has seen with
+   * {@code meta.lastModified gt "t" or (meta.lastModified eq "t" and id gt "id")}. A resource written in that
+   * millisecond after the page was read may sort before that id, so the next sync starts again from {@code ge "t"}.
+   */
+  private static Object parseTimestamp(Object value) {
+    try {
+      TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(value.toString(), OffsetDateTime::from, LocalDateTime::from);
+      Instant instant = parsed instanceof OffsetDateTime
+        ? ((OffsetDateTime) parsed).toInstant()
+        : ((LocalDateTime) parsed).toInstant(ZoneOffset.UTC);
+      return TIMESTAMP.format(instant);
+    } catch (DateTimeException e) {
+      throw new ClientErrorException("Invalid date-time '" + value + "', expected e.g. 2011-05-13T04:42:34Z", Response.Status.BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Makes {@code alias} resolve to the already registered attribute {@code path}, e.g. {@code emails} to
+   * {@code emails.value}.
+   */
+  FilterEvaluator<T> alias(String alias, String path) {
+    attributes.put(key(alias), attributes.get(key(path)));
+    return this;
+  }
+
+  /**
+   * Finds the resources matching {@code expression} and returns the requested page of them.
+   * <p>
+   * Only the resources inside the page are collected. Sorting by an attribute with an ordered index walks the index
+   * in order when there is no filter or the filter leaves at least half of the resources as candidates; any other sort
+   * keeps a bounded heap of the first {@code startIndex + count} matching resources. Resources without a value for the
+   * sort attribute are sorted last.
+   *
+   * @param expression the filter to apply, or {@code null} to match every resource
+   * @param pageRequest the page to return, or {@code null} for all matching resources
+   * @param sortRequest the sort order, or {@code null} for the store's iteration order
+   */
+  Page<T> query(FilterExpression expression, PageRequest pageRequest, SortRequest sortRequest) {
+    Page<T> page = new Page<>(pageRequest);
+    AttributeReference sortBy = sortRequest != null ? sortRequest.getSortBy() : null;
+
+    if (sortBy == null) {
+      if (expression == null) {
+        // the total is known up front, so stop as soon as the page is full
+        page.totalResults = store.size();
+        for (T resource : store.values()) {
+          if (page.isFull()) {
+            break;
+          }
+          page.offer(resource);
+        }
+        page.totalResults = Math.max(page.totalResults, page.matched);
+      } else {
+        page.scanned = forEachMatch(expression, page::offer);
+        page.totalResults = page.matched;
+      }
+      return page;
+    }
+
+    boolean ascending = sortRequest.getSortOrder() != SortOrder.DESCENDING;
+    Attribute<T> attribute = resolve(sortBy, null);
+    Set<String> candidates = expression != null ? candidates(expression, null) : null;
+    // a filtered walk of the index visits every indexed resource, which only pays off when most of them are candidates
+    boolean walkIndex = expression == null || (candidates != null && candidates.size() >= store.size() / 2);
+    if (attribute.index != null && attribute.index.isOrdered() && walkIndex) {
+      sortWithIndex(expression, candidates, attribute.index, ascending, page);
+    } else {
+      sortWithHeap(expression, candidates, attribute, ascending, page);
+    }
+    return page;
+  }
+
+  /**
+   * @return the structure of a filter without its values, e.g. {@code username eq and (emails co or active eq)}, so
+   * filters that are evaluated the same way can be told apart from others; {@code none} without a filter
+   */
+  static String shape(FilterExpression expression) {
+    if (expression == null) {
+      return "none";
+    }
+    StringBuilder shape = new StringBuilder();
+    appendShape(expression, shape);
+    return shape.toString();
+  }
+
+  private static void appendShape(FilterExpression expression, StringBuilder shape) {
+    if (expression instanceof AttributeComparisonExpression) {
+      AttributeComparisonExpression comparison = (AttributeComparisonExpression) expression;
+      shape.append(key(path(comparison.getAttributePath())))
+           .append(' ')
+           .append(comparison.getOperation().name().toLowerCase(Locale.ROOT));
+    } else if (expression instanceof LogicalExpression) {
+      LogicalExpression logical = (LogicalExpression) expression;
+      appendShape(logical.getLeft(), shape);
+      shape.append(' ').append(logical.getOperator().name().toLowerCase(Locale.ROOT)).append(' ');
+      appendShape(logical.getRight(), shape);
+    } else if (expression instanceof GroupExpression) {
+      GroupExpression group = (GroupExpression) expression;
+      shape.append(group.isNot() ? "not(" : "(");
+      appendShape(group.getFilterExpression(), shape);
+      shape.append(')');
+    } else if (expression instanceof ValuePathExpression) {
+      ValuePathExpression valuePath = (ValuePathExpression) expression;
+      shape.append(key(valuePath.getAttributePath().getAttributeName())).append('[');
+      appendShape(valuePath.getAttributeExpression(), shape);
+      shape.append(']');
+    } else if (expression instanceof AttributePresentExpression) {
+      shape.append(key(path(((AttributePresentExpression) expression).getAttributePath())))
+           .append(" pr");
+    } else {
+      shape.append(expression.getClass().getSimpleName());
+    }
+  }
+
+  private void sortWithIndex(FilterExpression expression, Set<String> candidates, AttributeIndex<T> index, boolean ascending, Page<T> page) {
+    int expected = expression == null ? store.size() : -1;
+
+    // multi-valued attributes list a resource under several values, it is sorted by the first one reached
+    Set<String> seen = new HashSet<>();
+    for (Set<String> ids : index.postings(ascending).values()) {
+      for (String id : ids) {
+        if (!seen.add(id) || (candidates != null && !candidates.contains(id))) {
+          continue;
+        }
+        T resource = store.get(id);
+        if (resource != null && (expression == null || matches(resource, expression, null))) {
+          page.offer(resource);
+          if (expected >= 0 && page.isFull()) {
+            page.totalResults = Math.max(expected, page.matched);
+            return;
+          }
+        }
+      }
+    }
+
+    // resources without a value are not in the index and go last
+    Consumer<T> unvalued = resource -> {
+      if (index.keysOf(resource).isEmpty()) {
+        page.offer(resource);
+      }
+    };
+    if (expression == null) {
+      store.values().forEach(unvalued);
+    } else {
+      forEachMatch(expression, candidates, unvalued);
+    }
+    page.totalResults = page.matched;
+  }
+
+  private void sortWithHeap(FilterExpression expression, Set<String> candidates, Attribute<T> attribute, boolean ascending, Page<T> page) {
+    Comparator<String> keyOrder = ascending ? Comparator.naturalOrder() : Comparator.reverseOrder();
+    Comparator<Keyed<T>> order = Comparator.comparing(keyed -> keyed.key, Comparator.nullsLast(keyOrder));
+
+    // a max-heap holding the smallest 'bound' resources seen so far
+    long bound = (long) page.offset + page.limit;
+    PriorityQueue<Keyed<T>> heap = new PriorityQueue<>(order.reversed());
+    int[] matched = new int[1];
+
+    Consumer<T> collector = resource -> {
+      matched[0]++;
+      if (bound == 0) {
+        return;
+      }
+      Keyed<T> keyed = new Keyed<>(sortKey(attribute.sortValues(resource), ascending), resource);
+      if (heap.size() < bound) {
+        heap.add(keyed);
+      } else if (order.compare(keyed, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(keyed);
+      }
+    };
+    if (expression == null) {
+      store.values().forEach(collector);
+    } else {
+      page.scanned = forEachMatch(expression, candidates, collector);
+    }
+
+    List<Keyed<T>> sorted = new ArrayList<>(heap);
+    sorted.sort(order);
+    for (Keyed<T> keyed : sorted) {
+      page.offer(keyed.resource);
+    }
+    page.totalResults = matched[0];
+  }
+
+  /**
+   * @return whether every stored resource had to be matched, as the expression could not be answered from an index
+   */
+  private boolean forEachMatch(FilterExpression expression, Consumer<T> action) {
+    return forEachMatch(expression, candidates(expression, null), action);
+  }
+
+  /**
+   * Like {@link #forEachMatch(FilterExpression, Consumer)}, for an expression already narrowed down to
+   * {@code candidates}, or to {@code null} if every stored resource has to be matched.
+   */
+  private boolean forEachMatch(FilterExpression expression, Set<String> candidates, Consumer<T> action) {
+    if (candidates == null) {
+      for (T resource : store.values()) {
+        if (matches(resource, expression, null)) {
+          action.accept(resource);
+        }
+      }
+      return true;
+    }
+    for (String id : candidates) {
+      T resource = store.get(id);
+      if (resource != null && matches(resource, expression, null)) {
+        action.accept(resource);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the value a multi-valued attribute is sorted by: its lowest value when ascending, its highest otherwise.
+   */
+  private static String sortKey(Collection<?> values, boolean ascending) {
+    String result = null;
+    if (values != null) {
+      for (Object value : values) {
+        String key = AttributeIndex.normalize(value);
+        if (key != null && (result == null || (ascending ? key.compareTo(result) < 0 : key.compareTo(result) > 0))) {
+          result = key;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the ids of the resources that may match {@code expression}, or {@code null} if the expression cannot be
+   * narrowed down with the available indexes.
+   */
+  private Set<String> candidates(FilterExpression expression, String parent) {
+
+    if (expression instanceof AttributeComparisonExpression) {
+      AttributeComparisonExpression comparison = (AttributeComparisonExpression) expression;
+      Attribute<T> attribute = resolve(comparison.getAttributePath(), parent);
+      AttributeIndex<T> index = attribute.index;
+      Object value = attribute.parse(comparison.getCompareValue());
+      if (index == null || value == null) {
+        return null;
+      }
+      if (attribute.keyedById) {
+        return candidatesKeyedById(index, comparison.getOperation(), AttributeIndex.normalize(value));
+      }
+
+      switch (comparison.getOperation()) {
+        case EQ:
+          return index.equalTo(value);
+        case SW:
+          return index.isOrdered() ? index.startingWith(value) : null;
+        case GT:
+          return index.isOrdered() ? index.range(value, false, null, false) : null;
+        case GE:
+          return index.isOrdered() ? index.range(value, true, null, false) : null;
+        case LT:
+          return index.isOrdered() ? index.range(null, false, value, false) : null;
+        case LE:
+          return index.isOrdered() ? index.range(null, false, value, true) : null;
+        case CO:
+        case EW:
+          return index.isSubstring() ? index.containing(value) : null;
+        default:
+          return null;
+      }
+    }
+
+    if (expression instanceof LogicalExpression) {
+      LogicalExpression logical = (LogicalExpression) expression;
+      Set<String> left = candidates(logical.getLeft(), parent);
+      if (logical.getOperator() == LogicalOperator.AND && left != null && left.size() <= FEW_CANDIDATES) {
+        return left;
+      }
+      Set<String> right = candidates(logical.getRight(), parent);
+
+      if (logical.getOperator() == LogicalOperator.AND) {
+        if (left == null || right == null) {
+          return left == null ? right : left;
+        }
+        return intersect(left, right);
+      }
+      if (left == null || right == null) {
+        return null;
+      }
+      Set<String> union = new HashSet<>(left);
+      union.addAll(right);
+      return union;
+    }
+
+    if (expression instanceof GroupExpression) {
+      GroupExpression group = (GroupExpression) expression;
+      return group.isNot() ? null : candidates(group.getFilterExpression(), parent);
+    }
+
+    if (expression instanceof ValuePathExpression) {
+      ValuePathExpression valuePath = (ValuePathExpression) expression;
+      return candidates(valuePath.getAttributeExpression(), valuePath.getAttributePath().getAttributeName());
+    }
+
+    if (expression instanceof AttributePresentExpression) {
+      resolve(((AttributePresentExpression) expression).getAttributePath(), parent);
+      return null;
+    }
+
+    throw unsupported("Unsupported filter expression: " + expression);
+  }
+
+  /**
+   * Looks up a comparison in an index keyed by value and id, in which the keys of the resources holding a value sort
+   * after the value and before the value followed by {@link #AFTER_IDS}.
+   */
+  private static Set<String> candidatesKeyedById(AttributeIndex<?> index, CompareOperator operator, String value) {
+    String afterIds = value + AFTER_IDS;
+    switch (operator) {
+      case EQ:
+        return index.range(value, false, afterIds, false);
+      case SW:
+        return index.startingWith(value);
+      case GT:
+        return index.range(afterIds, true, null, false);
+      case GE:
+        return index.range(value, true, null, false);
+      case LT:
+        return index.range(null, false, value, false);
+      case LE:
+        return index.range(null, false, afterIds, false);
+      default:
+        return null;
+    }
+  }
+
+  private boolean matches(T resource, FilterExpression expression, String parent) {
+
+    if (expression instanceof AttributeComparisonExpression) {
+      AttributeComparisonExpression comparison = (AttributeComparisonExpression) expression;
+      Attribute<T> attribute = resolve(comparison.getAttributePath(), parent);
+      return compare(attribute.accessor.apply(resource), comparison.getOperation(), attribute.parse(comparison.getCompareValue()));
+    }
+
+    if (expression instanceof LogicalExpression) {
+      LogicalExpression logical = (LogicalExpression) expression;
+      boolean left = matches(resource, logical.getLeft(), parent);
+      if (logical.getOperator() == LogicalOperator.AND) {
+        return left && matches(resource, logical.getRight(), parent);
+      }
+      return left || matches(resource, logical.getRight(), parent);
+    }
+
+    if (expression instanceof GroupExpression) {
+      GroupExpression group = (GroupExpression) expression;
+      return group.isNot() != matches(resource, group.getFilterExpression(), parent);
+    }
+
+    if (expression instanceof ValuePathExpression) {
+      ValuePathExpression valuePath = (ValuePathExpression) expression;
+      return matches(resource, valuePath.getAttributeExpression(), valuePath.getAttributePath().getAttributeName());
+    }
+
+    if (expression instanceof AttributePresentExpression) {
+      Collection<?> values = resolve(((AttributePresentExpression) expression).getAttributePath(), parent).accessor.apply(resource);
+      if (values != null) {
+        for (Object value : values) {
+          if (value != null && !"".equals(value)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    throw unsupported("Unsupported filter expression: " + expression);
+  }
+
+  private static boolean compare(Collection<?> values, CompareOperator operator, Object compareValue) {
+
+    if (values == null || values.isEmpty()) {
+      // an attribute without a value is never equal to anything
+      return operator == CompareOperator.NE && compareValue != null;
+    }
+
+    if (operator == CompareOperator.NE) {
+      for (Object value : values) {
+        if (compareOne(value, CompareOperator.EQ, compareValue)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    for (Object value : values) {
+      if (compareOne(value, operator, compareValue)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean compareOne(Object value, CompareOperator operator, Object compareValue) {
+    if (value == null || compareValue == null) {
+      return operator == CompareOperator.EQ && value == compareValue;
+    }
+
+    String actual = AttributeIndex.normalize(value);
+    String expected = AttributeIndex.normalize(compareValue);
+
+    if (value instanceof Boolean || compareValue instanceof Boolean) {
+      return operator == CompareOperator.EQ && actual.equals(expected);
+    }
+
+    switch (operator) {
+      case EQ:
+        return actual.equals(expected);
+      case CO:
+        return actual.contains(expected);
+      case SW:
+        return actual.startsWith(expected);
+      case EW:
+        return actual.endsWith(expected);
+      case GT:
+        return actual.compareTo(expected) > 0;
+      case GE:
+        return actual.compareTo(expected) >= 0;
+      case LT:
+        return actual.compareTo(expected) < 0;
+      case LE:
+        return actual.compareTo(expected) <= 0;
+      default:
+        throw unsupported("Unsupported filter operator: " + operator);
+    }
+  }
+
+  private Attribute<T> resolve(AttributeReference reference, String parent) {
+    String path = path(reference);
+
+    // attributes inside a value path may be relative to the enclosing attribute: emails[value eq "x"]
+    if (parent != null && !key(path).startsWith(key(parent) + ".")) {
+      path = parent + "." + path;
+    }
+
+    Attribute<T> attribute = attributes.get(key(path));
+    if (attribute == null) {
+      throw unsupported("Filtering on attribute '" + path + "' is not supported");
+    }
+    return attribute;
+  }
+
+  private static String path(AttributeReference reference) {
+    return reference.getSubAttributeName() != null
+      ? reference.getAttributeName() + "." + reference.getSubAttributeName()
+      : reference.getAttributeName();
+  }
+
+  private static Set<String> intersect(Set<String> left, Set<String> right) {
+    Set<String> smaller = left.size() <= right.size() ? left : right;
+    Set<String> larger = smaller == left ? right : left;
+    if (smaller.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    Set<String> result = new HashSet<>();
+    for (String id : smaller) {
+      if (larger.contains(id)) {
+        result.add(id);
+      }
+    }
+    return result;
+  }
+
+  private static String key(String path) {
+    return path.toLowerCase(Locale.ROOT);
+  }
+
+  private static ServerErrorException unsupported(String message) {
+    return new ServerErrorException(message, Response.Status.NOT_IMPLEMENTED);
+  }
+
+  /**
+   * One page of query results along with the total number of matching resources.
+   */
+  static final class Page<T> {
+
+    private final int offset;
+
+    private final int limit;
+
+    private final List<T> resources = new ArrayList<>();
+
+    private int matched;
+
+    private int totalResults;
+
+    private boolean scanned;
+
+    private Page(PageRequest pageRequest) {
+      Integer startIndex = pageRequest != null ? pageRequest.getStartIndex() : null;
+      Integer count = pageRequest != null ? pageRequest.getCount() : null;
+      this.offset = startIndex != null && startIndex > 1 ? startIndex - 1 : 0;
+      this.limit = count != null ? Math.max(count, 0) : Integer.MAX_VALUE;
+    }
+
+    List<T> getResources() {
+      return resources;
+    }
+
+    int getTotalResults() {
+      return totalResults;
+    }
+
+    /**
+     * @return whether the filter could not be answered from an index, so every stored resource was matched against it
+     */
+    boolean isScanned() {
+      return scanned;
+    }
+
+    private void offer(T resource) {
+      if (matched >= offset && matched - offset < limit) {
+        resources.add(resource);
+      }
+      matched++;
+    }
+
+    private boolean isFull() {
+      return resources.size() >= limit;
+    }
+  }
+
+  private static final class Keyed<T> {
+
+    private final String key;
+
+    private final T resource;
+
+    private Keyed(String key, T resource) {
+      this.key = key;
+      this.resource = resource;
+    }
+  }
+
+  private static final class Attribute<T> {
+
+    private final Function<T, Collection<?>> accessor;
+
+    private final AttributeIndex<T> index;
+
+    // converts filter values to the form of the attribute's values, or null to compare them as they are
+    private final Function<Object, Object> parser;
+
+    // whether the index keys a resource by its value followed by its id rather than by its value alone
+    private final boolean keyedById;
+
+    // the last filter value parsed and its result, as a filter is matched against many resources
+    private volatile Object[] parsed;
+
+    private Attribute(Function<T, Collection<?>> accessor, AttributeIndex<T> index, Function<Object, Object> parser, boolean keyedById) {
+      this.accessor = accessor;
+      this.index = index;
+      this.parser = parser;
+      this.keyedById = keyedById;
+    }
+
+    /**
+     * @return the values a resource is sorted by, which for an index keyed by id break ties between equal values
+     */
+    private Collection<?> sortValues(T resource) {
+      return keyedById ? index.keysOf(resource) : accessor.apply(resource);
+    }
+
+    private Object parse(Object value) {
+      if (parser == null || value == null) {
+        return value;
+      }
+      Object[] last = parsed;
+      if (last != null && last[0].equals(value)) {
+        return last[1];
+      }
+      Object result = parser.apply(value);
+      parsed = new Object[] {value, result};
+      return result;
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.store.AttributeIndex;
+import com.example.scim.store.IdSet;
+import com.example.scim.store.ResourceStore;
+import com.example.scim.store.StoreListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Direct and transitive memberships of groups, whose members may be users or other groups.
+ * <p>
+ * Transitive closures are memoized in both directions: the groups a user or group is in, directly or through nested
+ * groups, and the users and groups a group contains. Each closure is remembered by the groups it walked through, so
+ * a change to the members of a group only drops the closures that depended on that group rather than all of them.
+ * Dropping a closure also forgets it in every group it walked through. At most {@code maxClosures} closures are kept
+ * in each direction, further ones evict arbitrary others, so users that are looked up once or deleted do not
+ * accumulate. Cycles between groups are allowed, a group is never part of its own closure.
+ * <p>
+ * Stored groups are read while walking, without locks. A closure computed while a membership changed is returned but
+ * not kept, so a memoized closure is never older than the last membership change.
+ */
+class GroupMemberships implements StoreListener<ExampleGroup> {
+
+  /**
+   * The number of closures kept in each direction by default.
+   */
+  static final int MAX_CLOSURES = 100_000;
+
+  private final ResourceStore<ExampleGroup> groups;
+
+  private final AttributeIndex<ExampleGroup> memberIndex;
+
+  private final int maxClosures;
+
+  // the groups containing a member, and the members of a group
+  private final Closures ancestors = new Closures();
+
+  private final Closures descendants = new Closures();
+
+  private final AtomicLong changes = new AtomicLong();
+
+  /**
+   * @param groups the store holding the groups
+   * @param memberIndex the index from member id to the ids of the groups containing it, which must be updated before
+   * this listener is notified of a write
+   */
+  GroupMemberships(ResourceStore<ExampleGroup> groups, AttributeIndex<ExampleGroup> memberIndex) {
+    this(groups, memberIndex, MAX_CLOSURES);
+  }
+
+  /**
+   * @param maxClosures the number of closures kept in each direction
+   */
+  GroupMemberships(ResourceStore<ExampleGroup> groups, AttributeIndex<ExampleGroup> memberIndex, int maxClosures) {
+    this.groups = groups;
+    this.memberIndex = memberIndex;
+    this.maxClosures = maxClosures;
+  }
+
+  /**
+   * @return the ids of the groups {@code id} is a direct member of
+   */
+  Set<String> groupsOf(String id) {
+    // the index ignores case, member ids do not
+    Set<String> candidates = memberIndex.equalTo(id);
+    Set<String> groupIds = new HashSet<>(candidates.size() * 2);
+    for (String groupId : candidates) {
+      ExampleGroup group = groups.get(groupId);
+      if (group != null && group.getMemberIds() != null && group.getMemberIds().contains(id)) {
+        groupIds.add(groupId);
+      }
+    }
+    return groupIds;
+  }
+
+  /**
+   * @return the ids of the groups {@code id} is a member of, directly or through nested groups
+   */
+  Set<String> effectiveGroupsOf(String id) {
+    return closure(id, ancestors, this::groupsOf);
+  }
+
+  /**
+   * @return the ids of the users and groups that are members of the group {@code groupId}, directly or through
+   * nested groups
+   */
+  Set<String> effectiveMembersOf(String groupId) {
+    return closure(groupId, descendants, this::membersOf);
+  }
+
+  /**
+   * Drops the closures affected by members added to or removed from a group. Called after the change.
+   */
+  private void membersChanged(String groupId, Collection<String> memberIds) {
+    changes.incrementAndGet();
+    descendants.invalidate(groupId);
+    for (String memberId : memberIds) {
+      ancestors.invalidate(memberId);
+    }
+  }
+
+  @Override
+  public void onWrite(String id, ExampleGroup previous, ExampleGroup current) {
+    Set<String> before = memberIds(previous);
+    Set<String> after = memberIds(current);
+    Set<String> changed = new HashSet<>();
+    if (before instanceof IdSet && after instanceof IdSet) {
+      IdSet.diff((IdSet) before, (IdSet) after, changed::add, changed::add);
+    } else {
+      for (String memberId : before) {
+        if (!after.contains(memberId)) {
+          changed.add(memberId);
+        }
+      }
+      for (String memberId : after) {
+        if (!before.contains(memberId)) {
+          changed.add(memberId);
+        }
+      }
+    }
+    membersChanged(id, changed);
+
+    if (previous == null || current == null) {
+      // a member of a group that was created or removed now has, or no longer has, members of its own
+      for (String parentId : groupsOf(id)) {
+        descendants.invalidate(parentId);
+      }
+    }
+  }
+
+  @Override
+  public boolean isInitializedFromStore() {
+    return false;
+  }
+
+  private Set<String> membersOf(String groupId) {
+    ExampleGroup group = groups.get(groupId);
+    return group != null ? memberIds(group) : null;
+  }
+
+  private Set<String> closure(String id, Closures closures, Function<String, Set<String>> next) {
+    Closure memoized = closures.memo.get(id);
+    if (memoized != null) {
+      return memoized.members;
+    }
+
+    long changesBefore = changes.get();
+    Set<String> reached = new HashSet<>();
+    List<String> walked = new ArrayList<>();
+    Deque<String> pending = new ArrayDeque<>();
+    pending.add(id);
+    while (!pending.isEmpty()) {
+      String current = pending.poll();
+      Set<String> adjacent = next.apply(current);
+      if (adjacent == null && !current.equals(id)) {
+        // not a group, nothing below it to depend on
+        continue;
+      }
+      walked.add(current);
+      if (adjacent != null) {
+        for (String adjacentId : adjacent) {
+          if (!adjacentId.equals(id) && reached.add(adjacentId)) {
+            pending.add(adjacentId);
+          }
+        }
+      }
+    }
+
+    Closure closure = new Closure(id, Collections.unmodifiableSet(reached), walked);
+    closures.put(closure);
+    if (changes.get() != changesBefore) {
+      // a membership changed while walking, its invalidation may have run before this closure was stored
+      closures.drop(closure);
+    } else if (closures.memo.size() > maxClosures) {
+      closures.evictOtherThan(id);
+    }
+    return closure.members;
+  }
+
+  private static Set<String> memberIds(ExampleGroup group) {
+    return group != null && group.getMemberIds() != null ? group.getMemberIds() : Collections.emptySet();
+  }
+
+  /**
+   * The memoized closures of one direction, and for every id walked through the closures that depend on it. A closure
+   * is registered with the ids it walked before it is memoized, and forgotten by them when it is dropped.
+   */
+  private static final class Closures {
+
+    private final ConcurrentMap<String, Closure> memo = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<Closure>> dependents = new ConcurrentHashMap<>();
+
+    void put(Closure closure) {
+      for (String walkedId : closure.walked) {
+        // changed through compute only, so a set emptied and removed concurrently is never added to
+        dependents.compute(walkedId, (key, closures) -> {
+          Set<Closure> updated = closures != null ? closures : ConcurrentHashMap.newKeySet();
+          updated.add(closure);
+          return updated;
+        });
+      }
+      Closure replaced = memo.put(closure.id, closure);
+      if (replaced != null && replaced != closure) {
+        forget(replaced);
+      }
+    }
+
+    void drop(Closure closure) {
+      memo.remove(closure.id, closure);
+      forget(closure);
+    }
+
+    /**
+     * Drops the closures that walked through {@code id}.
+     */
+    void invalidate(String id) {
+      Set<Closure> stale = dependents.remove(id);
+      if (stale != null) {
+        stale.forEach(this::drop);
+      }
+    }
+
+    void evictOtherThan(String id) {
+      for (Closure closure : memo.values()) {
+        if (!closure.id.equals(id)) {
+          drop(closure);
+          return;
+        }
+      }
+    }
+
+    private void forget(Closure closure) {
+      for (String walkedId : closure.walked) {
+        dependents.computeIfPresent(walkedId, (key, closures) -> {
+          closures.remove(closure);
+          return closures.isEmpty() ? null : closures;
+        });
+      }
+    }
+  }
+
+  private static final class Closure {
+
+    private final String id;
+
+    private final Set<String> members;
+
+    private final List<String> walked;
+
+    private Closure(String id, Set<String> members, List<String> walked) {
+      this.id = id;
+      this.members = members;
+      this.walked = walked;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import org.apache.directory.scim.spec.schema.ResourceReference;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Effective memberships, resolving nested groups on the server so clients need not walk them one request at a time.
+ * {@code GET /Memberships/Users/{id}} lists the groups a user is a member of, and {@code GET /Memberships/Groups/{id}}
+ * the users and groups a group contains, each directly or through nested groups. Every entry has its display name and
+ * its {@code type}, {@code direct} or {@code indirect}, in a SCIM list response.
+ */
+@Path("Memberships")
+@Dependent
+public class MembershipResource {
+
+  private static final String LIST_RESPONSE_SCHEMA = "urn:ietf:params:scim:api:messages:2.0:ListResponse";
+
+  private final ScimUserProvider userProvider;
+
+  private final ScimGroupProvider groupProvider;
+
+  @Inject
+  public MembershipResource(ScimUserProvider userProvider, ScimGroupProvider groupProvider) {
+    this.userProvider = userProvider;
+    this.groupProvider = groupProvider;
+  }
+
+  @GET
+  @Path("Users/{id}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getEffectiveGroups(@PathParam("id") String id) {
+    if (userProvider.getVersion(id) == null) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+    return response(groupProvider.getEffectiveGroups(id));
+  }
+
+  @GET
+  @Path("Groups/{id}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getEffectiveMembers(@PathParam("id") String id) {
+    List<ResourceReference> members = groupProvider.getEffectiveMembers(id);
+    if (members == null) {
+      return Response.status(Response.Status.NOT_FOUND).build();
+    }
+    return response(members);
+  }
+
+  private static Response response(List<ResourceReference> references) {
+    Map<String, Object> listResponse = new LinkedHashMap<>();
+    listResponse.put("schemas", Collections.singletonList(LIST_RESPONSE_SCHEMA));
+    listResponse.put("totalResults", references.size());
+    listResponse.put("Resources", references);
+    StreamingOutput body = out -> SimplePatchUtil.OBJECT_MAPPER.writeValue(out, listResponse);
+    return Response.ok(body, MediaType.APPLICATION_JSON_TYPE).build();
+  }
+}
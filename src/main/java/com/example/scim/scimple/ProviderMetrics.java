@@ -0,0 +1,197 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.scimple;
+
+import com.example.scim.store.ResourceStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.directory.scim.spec.protocol.filter.FilterExpression;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and distributions of the operations of one provider, recorded to a Micrometer {@link MeterRegistry}:
+ * <ul>
+ *   <li>{@code scim.operations}: duration of every provider operation, by operation and outcome, with a histogram so
+ *   percentiles can be computed by the monitoring system</li>
+ *   <li>{@code scim.find.filters}: duration of searches by the shape of their filter, see
+ *   {@link FilterEvaluator#shape(FilterExpression)}</li>
+ *   <li>{@code scim.find.results}: number of resources returned by a search</li>
+ *   <li>{@code scim.conversions}: time spent converting stored resources to SCIM for a response</li>
+ *   <li>{@code scim.patches}: duration of PATCH requests, applied natively or as a JSON patch by
+ *   {@link SimplePatchUtil}, and {@code scim.patch.operations} their number of operations</li>
+ *   <li>{@code scim.resources}: number of stored resources</li>
+ * </ul>
+ * All meters are tagged with the resource type and looked up once, so recording only updates counters. Requests
+ * going through the {@link RequestProfiler} also get the operations added to their {@link RequestProfile}.
+ */
+public final class ProviderMetrics {
+
+  /**
+   * Number of distinct filter shapes timed separately, searches with any further shape are timed as {@code other}.
+   */
+  static final int MAX_FILTER_SHAPES = 100;
+
+  enum Operation {
+    CREATE, CREATE_ALL, GET, UPDATE, DELETE, FIND
+  }
+
+  private final MeterRegistry registry;
+
+  private final String resourceType;
+
+  // by operation ordinal, successful then failed
+  private final Timer[][] operations = new Timer[Operation.values().length][2];
+
+  private final ConcurrentMap<String, Timer> filters = new ConcurrentHashMap<>();
+
+  private final DistributionSummary findResults;
+
+  private final Timer conversions;
+
+  private final Timer nativePatches;
+
+  private final Timer jsonPatches;
+
+  private final DistributionSummary patchOperations;
+
+  /**
+   * @param registry the registry to record to
+   * @param resourceType the resource type the meters are tagged with, e.g. {@code User}
+   * @param store the store whose size is reported
+   */
+  public ProviderMetrics(MeterRegistry registry, String resourceType, ResourceStore<?> store) {
+    this.registry = registry;
+    this.resourceType = resourceType;
+
+    for (Operation operation : Operation.values()) {
+      for (int failed = 0; failed < 2; failed++) {
+        operations[operation.ordinal()][failed] = Timer.builder("scim.operations")
+          .tags("resourceType", resourceType, "operation", tag(operation),
+                "outcome", failed == 0 ? "success" : "failure")
+          .publishPercentileHistogram()
+          .register(registry);
+      }
+    }
+    findResults = DistributionSummary.builder("scim.find.results")
+      .tags("resourceType", resourceType)
+      .sla(1, 10, 100, 1000, 10_000)
+      .register(registry);
+    conversions = Timer.builder("scim.conversions").tags("resourceType", resourceType).register(registry);
+    nativePatches = Timer.builder("scim.patches").tags("resourceType", resourceType, "method", "native").register(registry);
+    jsonPatches = Timer.builder("scim.patches").tags("resourceType", resourceType, "method", "json").register(registry);
+    patchOperations = DistributionSummary.builder("scim.patch.operations")
+      .tags("resourceType", resourceType)
+      .sla(1, 2, 5, 10, 100)
+      .register(registry);
+    Gauge.builder("scim.resources", store, ResourceStore::size).tags("resourceType", resourceType).register(registry);
+  }
+
+  /**
+   * @return the start time of an operation, to pass to one of the {@code record} methods
+   */
+  static long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * @return the name of an operation in tags and profiles, e.g. {@code create_all}
+   */
+  static String tag(Operation operation) {
+    return operation.name().toLowerCase(Locale.ROOT);
+  }
+
+  void record(Operation operation, long start, boolean success) {
+    long duration = System.nanoTime() - start;
+    operations[operation.ordinal()][success ? 0 : 1].record(duration, TimeUnit.NANOSECONDS);
+    RequestProfile profile = RequestProfiler.current();
+    if (profile != null) {
+      profile.provider(resourceType, operation, duration);
+    }
+  }
+
+  /**
+   * Times {@code call} as {@code operation}, which failed if it threw.
+   */
+  <R, E extends Exception> R time(Operation operation, Call<R, E> call) throws E {
+    long start = start();
+    boolean success = false;
+    try {
+      R result = call.call();
+      success = true;
+      return result;
+    } finally {
+      record(operation, start, success);
+    }
+  }
+
+  void recordFind(FilterExpression filter, PageRequest pageRequest, FilterEvaluator.Page<?> page, long start) {
+    long duration = System.nanoTime() - start;
+    String shape = FilterEvaluator.shape(filter);
+    int results = page.getResources().size();
+    operations[Operation.FIND.ordinal()][0].record(duration, TimeUnit.NANOSECONDS);
+    filterTimer(shape).record(duration, TimeUnit.NANOSECONDS);
+    findResults.record(results);
+
+    RequestProfile profile = RequestProfiler.current();
+    if (profile != null) {
+      profile.provider(resourceType, Operation.FIND, duration);
+      profile.find(shape, pageRequest, results, page.getTotalResults(), page.isScanned());
+    }
+  }
+
+  void recordConversion(long start) {
+    long duration = System.nanoTime() - start;
+    conversions.record(duration, TimeUnit.NANOSECONDS);
+    RequestProfile profile = RequestProfiler.current();
+    if (profile != null) {
+      profile.conversion(duration);
+    }
+  }
+
+  void recordPatch(boolean applied, int operationCount, long start) {
+    (applied ? nativePatches : jsonPatches).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    patchOperations.record(operationCount);
+  }
+
+  private Timer filterTimer(String shape) {
+    Timer timer = filters.get(shape);
+    if (timer == null) {
+      // shapes come from clients, so their number is bounded to keep the number of time series bounded
+      String tag = filters.size() < MAX_FILTER_SHAPES ? shape : "other";
+      timer = Timer.builder("scim.find.filters").tags("resourceType", resourceType, "filter", tag).register(registry);
+      if (tag.equals(shape)) {
+        filters.putIfAbsent(shape, timer);
+      }
+    }
+    return timer;
+  }
+
+  @FunctionalInterface
+  interface Call<R, E extends Exception> {
+    R call() throws E;
+  }
+}
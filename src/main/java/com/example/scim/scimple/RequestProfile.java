@@ -0,0 +1,219 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of one SCIM request went, collected by the {@link RequestProfiler} while the request is processed:
+ * <ul>
+ *   <li>auth: from the request reaching the servlet container until it reaches JAX-RS, which is mostly
+ *   authentication</li>
+ *   <li>provider: time spent in the providers, excluding conversion</li>
+ *   <li>conversion: time spent converting stored resources to SCIM</li>
+ *   <li>serialization: time spent writing the response body</li>
+ * </ul>
+ * Searches also record the shape of their filter (see {@link FilterEvaluator#shape}), the requested page, the number
+ * of results and whether the filter could be answered from an index.
+ * <p>
+ * A profile is only written by the thread processing its request, and only read once the request is complete.
+ */
+public final class RequestProfile {
+
+  private final long timestamp = System.currentTimeMillis();
+
+  private final long start = System.nanoTime();
+
+  private final String method;
+
+  private final String path;
+
+  private long authNanos;
+
+  private long providerNanos;
+
+  private long conversionNanos;
+
+  private long serializationNanos;
+
+  private long totalNanos;
+
+  private int status;
+
+  private String resourceType;
+
+  private String operation;
+
+  private String filter;
+
+  private Integer startIndex;
+
+  private Integer count;
+
+  private Integer results;
+
+  private Integer totalResults;
+
+  private boolean scanned;
+
+  RequestProfile(String method, String path) {
+    this.method = method;
+    this.path = path;
+  }
+
+  public Instant getTimestamp() {
+    return Instant.ofEpochMilli(timestamp);
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the type of the resources of the first provider operation of the request, e.g. {@code User}
+   */
+  public String getResourceType() {
+    return resourceType;
+  }
+
+  /**
+   * @return the first provider operation of the request, e.g. {@code find}
+   */
+  public String getOperation() {
+    return operation;
+  }
+
+  /**
+   * @return the shape of the filter of a search, {@code none} for searches without a filter
+   */
+  public String getFilter() {
+    return filter;
+  }
+
+  public Integer getStartIndex() {
+    return startIndex;
+  }
+
+  public Integer getCount() {
+    return count;
+  }
+
+  /**
+   * @return the number of resources a search returned
+   */
+  public Integer getResults() {
+    return results;
+  }
+
+  /**
+   * @return the number of resources matching the filter of a search
+   */
+  public Integer getTotalResults() {
+    return totalResults;
+  }
+
+  /**
+   * @return whether a search matched every stored resource against its filter, as no index could answer it
+   */
+  public boolean isScanned() {
+    return scanned;
+  }
+
+  public double getTotalMillis() {
+    return millis(totalNanos);
+  }
+
+  public double getAuthMillis() {
+    return millis(authNanos);
+  }
+
+  public double getProviderMillis() {
+    return millis(providerNanos - conversionNanos);
+  }
+
+  public double getConversionMillis() {
+    return millis(conversionNanos);
+  }
+
+  public double getSerializationMillis() {
+    return millis(serializationNanos);
+  }
+
+  long getTotalNanos() {
+    return totalNanos;
+  }
+
+  void authenticated() {
+    if (authNanos == 0) {
+      authNanos = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Adds the time of a provider operation, which includes the time spent converting its resources.
+   */
+  void provider(String resourceType, ProviderMetrics.Operation operation, long nanos) {
+    if (this.operation == null) {
+      this.resourceType = resourceType;
+      this.operation = ProviderMetrics.tag(operation);
+    }
+    providerNanos += nanos;
+  }
+
+  void find(String filter, PageRequest pageRequest, int results, int totalResults, boolean scanned) {
+    if (this.filter == null) {
+      this.filter = filter;
+      this.startIndex = pageRequest != null ? pageRequest.getStartIndex() : null;
+      this.count = pageRequest != null ? pageRequest.getCount() : null;
+      this.results = results;
+      this.totalResults = totalResults;
+      this.scanned = scanned;
+    }
+  }
+
+  void conversion(long nanos) {
+    conversionNanos += nanos;
+  }
+
+  void serialization(long nanos) {
+    serializationNanos += nanos;
+  }
+
+  void finish(int status) {
+    this.status = status;
+    this.totalNanos = System.nanoTime() - start;
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
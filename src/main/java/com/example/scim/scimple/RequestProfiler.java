@@ -0,0 +1,270 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps {@link RequestProfile profiles} of a sample of the SCIM requests, and of every slow request, in a ring buffer
+ * of fixed capacity, so the filters and pages behind latency spikes can be looked up after the fact.
+ * <p>
+ * The profiler is a servlet filter placed in front of authentication. Every request gets a profile, which only costs a
+ * few clock reads, but only one in {@code sampleRate} requests and the requests slower than the threshold are kept,
+ * replacing the oldest kept profile once the buffer is full. The providers and JAX-RS filters running on the request
+ * thread add to the profile of the current request, see {@link #current()}.
+ */
+public final class RequestProfiler implements Filter {
+
+  private static final ThreadLocal<RequestProfile> CURRENT = new ThreadLocal<>();
+
+  private final AtomicReferenceArray<RequestProfile> profiles;
+
+  // number of profiles ever kept, the next one goes to the slot at this position modulo the capacity
+  private final AtomicLong kept = new AtomicLong();
+
+  private final AtomicLong requests = new AtomicLong();
+
+  private final int sampleRate;
+
+  private final long slowNanos;
+
+  /**
+   * @param capacity the number of profiles kept
+   * @param sampleRate keeps the profile of one in this many requests, {@code 0} to only keep slow requests
+   * @param slowMillis always keeps the profile of requests taking at least this long, {@code 0} to only keep samples
+   */
+  public RequestProfiler(int capacity, int sampleRate, long slowMillis) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.profiles = new AtomicReferenceArray<>(capacity);
+    this.sampleRate = sampleRate;
+    this.slowNanos = slowMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowMillis) : Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the profile of the request processed by the current thread, or {@code null} if it is not profiled
+   */
+  static RequestProfile current() {
+    return CURRENT.get();
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    // NOOP
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+    if (!(request instanceof HttpServletRequest) || (sampleRate <= 0 && slowNanos == Long.MAX_VALUE)) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    RequestProfile profile = new RequestProfile(httpRequest.getMethod(), httpRequest.getRequestURI().substring(httpRequest.getContextPath().length()));
+    CURRENT.set(profile);
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      CURRENT.remove();
+      if (request.isAsyncStarted()) {
+        // suspended requests, such as asynchronous long-polls, are answered later on another thread
+        request.getAsyncContext().addListener(new Completion(profile));
+      } else {
+        finish(profile, response);
+      }
+    }
+  }
+
+  private void finish(RequestProfile profile, ServletResponse response) {
+    profile.finish(((HttpServletResponse) response).getStatus());
+    add(profile);
+  }
+
+  @Override
+  public void destroy() {
+    // NOOP
+  }
+
+  /**
+   * Keeps a completed profile if it is sampled or slow.
+   */
+  void add(RequestProfile profile) {
+    boolean sampled = sampleRate > 0 && requests.getAndIncrement() % sampleRate == 0;
+    if (sampled || profile.getTotalNanos() >= slowNanos) {
+      profiles.set((int) (kept.getAndIncrement() % profiles.length()), profile);
+    }
+  }
+
+  /**
+   * @return the kept profiles, the most recent first
+   */
+  public List<RequestProfile> getProfiles() {
+    int capacity = profiles.length();
+    long last = kept.get();
+    List<RequestProfile> result = new ArrayList<>((int) Math.min(last, capacity));
+    for (long i = last - 1; i >= 0 && i >= last - capacity; i--) {
+      // profiles kept meanwhile may replace the oldest ones, so the last few may be out of order
+      RequestProfile profile = profiles.get((int) (i % capacity));
+      if (profile != null) {
+        result.add(profile);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Groups the profiles of searches by resource type and filter shape.
+   * @return one summary per filter shape, the shapes taking the most time in total first
+   */
+  public static List<FilterSummary> summarize(List<RequestProfile> profiles) {
+    Map<String, FilterSummary> summaries = new HashMap<>();
+    for (RequestProfile profile : profiles) {
+      if (profile.getFilter() != null) {
+        summaries.computeIfAbsent(profile.getResourceType() + ' ' + profile.getFilter(),
+                                  key -> new FilterSummary(profile.getResourceType(), profile.getFilter()))
+                 .add(profile);
+      }
+    }
+    List<FilterSummary> result = new ArrayList<>(summaries.values());
+    result.sort(Comparator.comparingDouble(FilterSummary::getTotalMillis).reversed());
+    return result;
+  }
+
+  /**
+   * Finishes the profile of a suspended request once it is answered.
+   */
+  private final class Completion implements AsyncListener {
+
+    private final RequestProfile profile;
+
+    private Completion(RequestProfile profile) {
+      this.profile = profile;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      finish(profile, event.getSuppliedResponse());
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      // NOOP, completed afterwards
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      // NOOP, completed afterwards
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // NOOP
+    }
+  }
+
+  /**
+   * The searches of one filter shape among a set of profiles.
+   */
+  public static final class FilterSummary {
+
+    private final String resourceType;
+
+    private final String filter;
+
+    private int requests;
+
+    private int scanned;
+
+    private long results;
+
+    private double totalMillis;
+
+    private double maxMillis;
+
+    private FilterSummary(String resourceType, String filter) {
+      this.resourceType = resourceType;
+      this.filter = filter;
+    }
+
+    private void add(RequestProfile profile) {
+      requests++;
+      scanned += profile.isScanned() ? 1 : 0;
+      results += profile.getResults();
+      totalMillis += profile.getTotalMillis();
+      maxMillis = Math.max(maxMillis, profile.getTotalMillis());
+    }
+
+    public String getResourceType() {
+      return resourceType;
+    }
+
+    public String getFilter() {
+      return filter;
+    }
+
+    public int getRequests() {
+      return requests;
+    }
+
+    /**
+     * @return the number of the searches that matched every stored resource, as no index could answer the filter
+     */
+    public int getScanned() {
+      return scanned;
+    }
+
+    public double getMeanResults() {
+      return results / (double) requests;
+    }
+
+    public double getTotalMillis() {
+      return totalMillis;
+    }
+
+    public double getMeanMillis() {
+      return totalMillis / requests;
+    }
+
+    public double getMaxMillis() {
+      return maxMillis;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.Dependent;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Marks the end of authentication and times the serialization of the response in the {@link RequestProfile} of the
+ * current request.
+ * <p>
+ * Runs before the other filters, so they do not count as authentication, and around the other interceptors, so
+ * serialization includes the response cache copying the body. Streamed responses, such as exports, do all their work
+ * while being serialized.
+ */
+@Provider
+@Dependent
+@Priority(Priorities.AUTHENTICATION)
+public class RequestProfilerFilter implements ContainerRequestFilter, WriterInterceptor {
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    RequestProfile profile = RequestProfiler.current();
+    if (profile != null) {
+      profile.authenticated();
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+    RequestProfile profile = RequestProfiler.current();
+    if (profile == null) {
+      context.proceed();
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      context.proceed();
+    } finally {
+      profile.serialization(System.nanoTime() - start);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
+
+/**
+ * Computes the next version of a stored resource for an update request.
+ *
+ * @param <T> the stored resource type
+ */
+@FunctionalInterface
+interface ResourceUpdater<T> {
+
+  /**
+   * @param current the stored resource
+   * @return the resource to store, or {@code null} if the update cannot be applied this way
+   */
+  T apply(T current) throws UnableToUpdateResourceException;
+}
@@ -0,0 +1,446 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import com.example.scim.store.StoreListener;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Size bounded cache of serialized {@code GET /Users/{id}} and {@code GET /Groups/{id}} responses, filled and served
+ * by {@link ResponseCacheFilter}, so repeated reads of a resource skip the provider, the conversion to SCIM and the
+ * JSON serialization.
+ * <p>
+ * Responses are cached under the resource type and id, and dropped by the store listeners returned from
+ * {@link #invalidator(String)} whenever their resource is written, or by those from
+ * {@link #invalidator(String, Function)} whenever a resource they describe is written, such as a member of a group. A response built while its resource was written
+ * could describe the old version, so it is only stored if no write of that id happened since the request began, see
+ * {@link #generation(String)}.
+ * <p>
+ * The cache is split into segments, each holding its share of the byte budget, with TinyLFU admission in front of a
+ * segmented LRU. Responses start out on probation and are protected once they are read from the cache; protected
+ * ones take up at most 80% of the segment, the least recently used of them go back on probation. Every lookup is
+ * counted in a small frequency sketch, and a new response only replaces the least recently used responses on
+ * probation, or protected ones if none are left, if it has been asked for at least as often as each of them.
+ * Responses read once, such as those of a client walking every user, therefore only displace each other rather than
+ * flushing the popular ones. The counts are halved periodically, so responses that are no longer read lose their
+ * advantage. Unlike W-TinyLFU there is no admission window, a newly popular response is admitted from its second or
+ * third lookup.
+ */
+public class ResponseCache {
+
+  private static final int SEGMENTS = 16;
+
+  // Number of write counters, ids sharing a counter only cost each other the occasional uncached response.
+  private static final int GENERATIONS = 1024;
+
+  // Approximate per entry overhead of the key, the headers and the map entry.
+  private static final int ENTRY_OVERHEAD = 256;
+
+  // Typical size of a cached response, used to size the frequency sketches.
+  private static final int TYPICAL_ENTRY_SIZE = 1024;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+
+  private final boolean enabled;
+
+  /**
+   * @param maxBytes the maximum total size of the cached responses, {@code 0} to cache none
+   */
+  public ResponseCache(long maxBytes) {
+    this.enabled = maxBytes > 0;
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(Math.max(1, maxBytes / SEGMENTS));
+    }
+  }
+
+  /**
+   * @return whether any response can be cached, otherwise requests need not be looked up in the cache
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param resourceType the endpoint of the resource, e.g. {@code Users}
+   * @param id the id of the resource
+   * @return the key of the resource's cached response
+   */
+  public static String key(String resourceType, String id) {
+    return resourceType + '/' + id;
+  }
+
+  /**
+   * @return a listener invalidating the cached responses of {@code resourceType} when the store holding them changes
+   */
+  public <T> StoreListener<T> invalidator(String resourceType) {
+    return new StoreListener<T>() {
+      @Override
+      public void onWrite(String id, T previous, T current) {
+        invalidate(key(resourceType, id));
+      }
+
+      @Override
+      public boolean isInitializedFromStore() {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @param resourceType the endpoint of the cached responses, e.g. {@code Groups}
+   * @param describing the ids of the cached responses that describe a resource, e.g. the groups a user is a member of
+   * @return a listener invalidating the cached responses of {@code resourceType} that describe resources of the store
+   * it is added to, when those resources change
+   */
+  public <T> StoreListener<T> invalidator(String resourceType, Function<String, ? extends Collection<String>> describing) {
+    return new StoreListener<T>() {
+      @Override
+      public void onWrite(String id, T previous, T current) {
+        for (String describingId : describing.apply(id)) {
+          invalidate(key(resourceType, describingId));
+        }
+      }
+
+      @Override
+      public boolean isInitializedFromStore() {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Looks up the cached response of a key, counting the lookup towards the key's admission whether it hits or not.
+   */
+  public CachedResponse get(String key) {
+    int hash = spread(key);
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.frequencies.increment(hash);
+      return segment.get(key);
+    }
+  }
+
+  /**
+   * @return a counter of the writes of {@code key}, to be read before the response is built and passed to
+   * {@link #put(String, long, CachedResponse)}
+   */
+  public long generation(String key) {
+    return generations.get(generationFor(key));
+  }
+
+  /**
+   * Caches a response unless its resource was written since {@code generation} was read, or the segment is full and
+   * the responses it would evict were asked for more often.
+   * @return whether the response was cached
+   */
+  public boolean put(String key, long generation, CachedResponse response) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      // invalidate() counts the write before it takes the segment lock, so once this check passes under the lock any
+      // later invalidation removes the entry
+      if (generations.get(generationFor(key)) != generation || response.size() > segment.maxBytes) {
+        return false;
+      }
+      return segment.add(key, spread(key), response);
+    }
+  }
+
+  public void invalidate(String key) {
+    generations.incrementAndGet(generationFor(key));
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.discard(key);
+    }
+  }
+
+  /**
+   * @return the total size of the cached responses
+   */
+  public long bytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        bytes += segment.bytes;
+      }
+    }
+    return bytes;
+  }
+
+  private Segment segmentFor(String key) {
+    return segments[spread(key) & (SEGMENTS - 1)];
+  }
+
+  private int generationFor(String key) {
+    return (spread(key) >>> 4) & (GENERATIONS - 1);
+  }
+
+  private static int spread(String key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * A serialized response with the headers describing it.
+   */
+  public static final class CachedResponse {
+
+    private final byte[] body;
+
+    private final MediaType mediaType;
+
+    private final Map<String, Object> headers;
+
+    private final URI baseUri;
+
+    /**
+     * @param body the serialized entity
+     * @param mediaType the media type it was serialized as
+     * @param headers headers describing the entity, such as its location and entity tag
+     * @param baseUri the base URI of the request, which the location of the resource is relative to
+     */
+    public CachedResponse(byte[] body, MediaType mediaType, Map<String, Object> headers, URI baseUri) {
+      this.body = body;
+      this.mediaType = mediaType;
+      this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+      this.baseUri = baseUri;
+    }
+
+    /**
+     * @return whether this response can answer a request with the given base URI accepting the given media types
+     */
+    public boolean matches(URI requestBaseUri, List<MediaType> acceptableMediaTypes) {
+      if (!baseUri.equals(requestBaseUri)) {
+        return false;
+      }
+      for (MediaType acceptable : acceptableMediaTypes) {
+        if (acceptable.isCompatible(mediaType)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public Response toResponse() {
+      Response.ResponseBuilder response = Response.ok(body, mediaType);
+      for (Map.Entry<String, Object> header : headers.entrySet()) {
+        response.header(header.getKey(), header.getValue());
+      }
+      return response.build();
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+
+    long size() {
+      return body.length + ENTRY_OVERHEAD;
+    }
+  }
+
+  private static final class Segment {
+
+    // responses not read from the cache since they were added, and those that were, both least recently used first
+    private final LinkedHashMap<String, CachedResponse> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, CachedResponse> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch frequencies;
+
+    private final long maxBytes;
+
+    private final long maxProtectedBytes;
+
+    private long bytes;
+
+    private long protectedBytes;
+
+    private Segment(long maxBytes) {
+      this.maxBytes = maxBytes;
+      this.maxProtectedBytes = maxBytes / 5 * 4;
+      // four counters per row for every response the segment can hold keep collisions with other keys rare
+      this.frequencies = new FrequencySketch((int) Math.min(1 << 18, 4 * (maxBytes / TYPICAL_ENTRY_SIZE)));
+    }
+
+    private CachedResponse get(String key) {
+      CachedResponse response = protectedEntries.get(key);
+      if (response != null) {
+        return response;
+      }
+      response = probation.remove(key);
+      if (response != null) {
+        protectedEntries.put(key, response);
+        protectedBytes += response.size();
+        Iterator<Map.Entry<String, CachedResponse>> eldest = protectedEntries.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && eldest.hasNext()) {
+          Map.Entry<String, CachedResponse> demoted = eldest.next();
+          eldest.remove();
+          protectedBytes -= demoted.getValue().size();
+          probation.put(demoted.getKey(), demoted.getValue());
+        }
+      }
+      return response;
+    }
+
+    private boolean add(String key, int hash, CachedResponse response) {
+      discard(key);
+
+      if (bytes + response.size() > maxBytes) {
+        if (!admits(frequencies.frequency(hash), bytes + response.size() - maxBytes)) {
+          return false;
+        }
+        evict(probation, response.size(), false);
+        evict(protectedEntries, response.size(), true);
+      }
+
+      probation.put(key, response);
+      bytes += response.size();
+      return true;
+    }
+
+    /**
+     * @return whether none of the responses that would have to go to free {@code needed} bytes, the least recently used
+     * on probation first, was asked for more often than {@code frequency}
+     */
+    private boolean admits(int frequency, long needed) {
+      for (Map<String, CachedResponse> entries : Arrays.asList(probation, protectedEntries)) {
+        for (Map.Entry<String, CachedResponse> victim : entries.entrySet()) {
+          if (needed <= 0) {
+            return true;
+          }
+          if (frequencies.frequency(spread(victim.getKey())) > frequency) {
+            return false;
+          }
+          needed -= victim.getValue().size();
+        }
+      }
+      return true;
+    }
+
+    private void evict(Map<String, CachedResponse> entries, long incoming, boolean isProtected) {
+      Iterator<CachedResponse> eldest = entries.values().iterator();
+      while (bytes + incoming > maxBytes && eldest.hasNext()) {
+        long size = eldest.next().size();
+        eldest.remove();
+        bytes -= size;
+        if (isProtected) {
+          protectedBytes -= size;
+        }
+      }
+    }
+
+    private void discard(String key) {
+      CachedResponse removed = probation.remove(key);
+      if (removed == null) {
+        removed = protectedEntries.remove(key);
+        if (removed != null) {
+          protectedBytes -= removed.size();
+        }
+      }
+      if (removed != null) {
+        bytes -= removed.size();
+      }
+    }
+  }
+
+  /**
+   * Approximate lookup counts of keys: a count-min sketch of four rows of 4-bit counters saturating at 15, packed
+   * sixteen to a {@code long}, all halved once ten times as many lookups as there are counters per row have been
+   * counted, so the counts follow recent popularity. Guarded by the lock of its segment.
+   */
+  private static final class FrequencySketch {
+
+    private static final int ROWS = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    // counter i is bits 4 * (i % 16) to 4 * (i % 16) + 3 of word i / 16
+    private final long[] counters;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    private FrequencySketch(int counters) {
+      int width = Integer.highestOneBit(Math.max(16, counters - 1) << 1);
+      this.counters = new long[ROWS * width / 16];
+      this.mask = width - 1;
+      this.sampleSize = 10 * width;
+    }
+
+    private void increment(int hash) {
+      boolean added = false;
+      for (int row = 0; row < ROWS; row++) {
+        int index = index(hash, row);
+        if (count(index) < MAX_COUNT) {
+          counters[index >>> 4] += 1L << shift(index);
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        for (int i = 0; i < counters.length; i++) {
+          // halves every counter of the word, the mask drops the bit shifted in from the counter above
+          counters[i] = (counters[i] >>> 1) & 0x7777777777777777L;
+        }
+        additions /= 2;
+      }
+    }
+
+    private int frequency(int hash) {
+      int frequency = MAX_COUNT;
+      for (int row = 0; row < ROWS; row++) {
+        frequency = Math.min(frequency, count(index(hash, row)));
+      }
+      return frequency;
+    }
+
+    private int count(int index) {
+      return (int) (counters[index >>> 4] >>> shift(index)) & MAX_COUNT;
+    }
+
+    private static int shift(int index) {
+      return (index & 15) << 2;
+    }
+
+    private int index(int hash, int row) {
+      int h = hash * SEEDS[row];
+      h ^= h >>> 16;
+      return row * (mask + 1) + (h & mask);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers {@code GET /Users/{id}} and {@code GET /Groups/{id}} from the {@link ResponseCache} when it holds the
+ * response, and otherwise stores the response SCIMple serializes for the request.
+ * <p>
+ * Only plain reads are cached: requests selecting attributes or sending preconditions are always passed on to
+ * SCIMple, as are all responses other than {@code 200 OK}.
+ */
+@Provider
+@Dependent
+public class ResponseCacheFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+  private static final Pattern CACHEABLE_PATH = Pattern.compile("/?(Users|Groups)/([^/]+)");
+
+  // the response headers stored along with the body
+  private static final String[] CACHED_HEADERS = {HttpHeaders.LOCATION, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED};
+
+  private static final String KEY = ResponseCacheFilter.class.getName() + ".key";
+
+  private static final String GENERATION = ResponseCacheFilter.class.getName() + ".generation";
+
+  private static final String BASE_URI = ResponseCacheFilter.class.getName() + ".baseUri";
+
+  private final ResponseCache cache;
+
+  @Inject
+  public ResponseCacheFilter(ResponseCache cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request) {
+    if (!HttpMethod.GET.equals(request.getMethod())
+        || request.getHeaderString(HttpHeaders.IF_NONE_MATCH) != null
+        || request.getHeaderString(HttpHeaders.IF_MATCH) != null) {
+      return;
+    }
+    UriInfo uriInfo = request.getUriInfo();
+    if (!uriInfo.getQueryParameters().isEmpty()) {
+      return;
+    }
+    Matcher matcher = CACHEABLE_PATH.matcher(uriInfo.getPath());
+    if (!matcher.matches()) {
+      return;
+    }
+
+    String key = ResponseCache.key(matcher.group(1), matcher.group(2));
+    ResponseCache.CachedResponse cached = cache.get(key);
+    if (cached != null && cached.matches(uriInfo.getBaseUri(), request.getAcceptableMediaTypes())) {
+      request.abortWith(cached.toResponse());
+      return;
+    }
+
+    request.setProperty(KEY, key);
+    request.setProperty(GENERATION, cache.generation(key));
+    request.setProperty(BASE_URI, uriInfo.getBaseUri());
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+    if (response.getStatus() != Response.Status.OK.getStatusCode() || !response.hasEntity()) {
+      request.removeProperty(KEY);
+    }
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+    String key = (String) context.getProperty(KEY);
+    if (key == null) {
+      context.proceed();
+      return;
+    }
+
+    OutputStream out = context.getOutputStream();
+    ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    context.setOutputStream(body);
+    try {
+      context.proceed();
+    } finally {
+      context.setOutputStream(out);
+    }
+    body.writeTo(out);
+
+    MultivaluedMap<String, Object> headers = context.getHeaders();
+    Map<String, Object> cachedHeaders = new LinkedHashMap<>();
+    for (String header : CACHED_HEADERS) {
+      Object value = headers.getFirst(header);
+      if (value != null) {
+        cachedHeaders.put(header, value);
+      }
+    }
+    cache.put(key, (Long) context.getProperty(GENERATION),
+              new ResponseCache.CachedResponse(body.toByteArray(), context.getMediaType(), cachedHeaders, (URI) context.getProperty(BASE_URI)));
+  }
+}
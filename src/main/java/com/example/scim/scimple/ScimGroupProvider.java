@@ -21,77 +21,435 @@ package com.example.scim.scimple;
 
 import com.example.scim.model.ExampleGroup;
 import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.store.AttributeIndex;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.IdSet;
+import com.example.scim.store.ResourceStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import org.apache.directory.scim.server.exception.UnableToCreateResourceException;
 import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
 import org.apache.directory.scim.server.provider.Provider;
 import org.apache.directory.scim.server.provider.UpdateRequest;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.filter.FilterExpression;
 import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
 import org.apache.directory.scim.spec.protocol.search.Filter;
 import org.apache.directory.scim.spec.protocol.search.PageRequest;
 import org.apache.directory.scim.spec.protocol.search.SortRequest;
 import org.apache.directory.scim.spec.resources.ScimExtension;
 import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.schema.ResourceReference;
 
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 /**
  * Example SCIM Provider which will map a custom domain model {@link ExampleGroup} to/from SCIM objects.
  */
 public class ScimGroupProvider implements Provider<ScimGroup> {
 
-  private Map<String, ExampleGroup> groups = new HashMap<>();
-  
+  // Applies PATCH operations directly to a copy of the stored group, operations on any other attribute go through
+  // SimplePatchUtil instead.
+  private static final DomainPatcher<ExampleGroup> PATCHER = new DomainPatcher<>(ExampleGroup::copy)
+    .attribute("id", DomainPatcher.immutable("id", ExampleGroup::getId))
+    .attribute("displayName", DomainPatcher.string(ExampleGroup::setDescription))
+    .attribute("members", DomainPatcher.values(ExampleGroup::getMemberIds, ExampleGroup::setMemberIds, ExampleGroup::newMemberSet, true));
+
+  private final ResourceStore<ExampleGroup> groups;
+
+  // Reverse index from member id to the ids of the groups containing it, so `members[value eq "x"]` only touches the
+  // groups of member x. Shared with the memberships, which look up the groups of a member through it.
+  private final AttributeIndex<ExampleGroup> memberIndex = new AttributeIndex<>("members.value", ExampleGroup::getMemberIds, false, false);
+
+  private final FilterEvaluator<ExampleGroup> filters;
+
+  private final GroupMemberships memberships;
+
+  private final ScimUserProvider users;
+
+  private final ProviderMetrics metrics;
+
+  // The time of a write in milliseconds since the epoch.
+  private final LongSupplier clock;
+
+  public ScimGroupProvider() {
+    this(new ConcurrentResourceStore<>());
+  }
+
+  /**
+   * @param groups the store holding the groups
+   */
+  public ScimGroupProvider(ResourceStore<ExampleGroup> groups) {
+    this(groups, null);
+  }
+
+  /**
+   * @param groups the store holding the groups
+   * @param users the users that may be members of groups, used to describe them, or {@code null} to only describe
+   * members that are groups
+   */
+  public ScimGroupProvider(ResourceStore<ExampleGroup> groups, ScimUserProvider users) {
+    // a composite registry without registries records nothing
+    this(groups, users, new CompositeMeterRegistry());
+  }
+
+  /**
+   * @param groups the store holding the groups
+   * @param users the users that may be members of groups, used to describe them, or {@code null} to only describe
+   * members that are groups
+   * @param registry the registry the {@link ProviderMetrics} of the groups are recorded to
+   */
+  public ScimGroupProvider(ResourceStore<ExampleGroup> groups, ScimUserProvider users, MeterRegistry registry) {
+    this(groups, users, registry, System::currentTimeMillis);
+  }
+
+  /**
+   * @param groups the store holding the groups
+   * @param users the users that may be members of groups, used to describe them, or {@code null} to only describe
+   * members that are groups
+   * @param registry the registry the {@link ProviderMetrics} of the groups are recorded to
+   * @param clock returns the time of a write in milliseconds since the epoch
+   */
+  public ScimGroupProvider(ResourceStore<ExampleGroup> groups, ScimUserProvider users, MeterRegistry registry, LongSupplier clock) {
+    this.groups = groups;
+    this.users = users;
+    this.clock = clock;
+    this.metrics = new ProviderMetrics(registry, "Group", groups);
+    this.filters = new FilterEvaluator<>(groups)
+      .indexedAttribute("id", group -> single(group.getId()), true, false)
+      .indexedAttribute("displayName", group -> single(group.getDescription()), true, true)
+      .indexedAttribute("members.value", ExampleGroup::getMemberIds, memberIndex)
+      .alias("members", "members.value")
+      .timestampAttribute("meta.created", ExampleGroup::getCreated)
+      .indexedTimestampAttribute("meta.lastModified", ExampleGroup::getLastModified, ExampleGroup::getId);
+
+    // registered after the member index, which it reads while handling a write
+    this.memberships = new GroupMemberships(groups, memberIndex);
+    groups.addListener(memberships);
+  }
+
   @Override
   public ScimGroup create(ScimGroup group) throws UnableToCreateResourceException {
+    return metrics.time(ProviderMetrics.Operation.CREATE, () -> createGroup(group));
+  }
+
+  private ScimGroup createGroup(ScimGroup group) throws UnableToCreateResourceException {
     String resourceId = group.getId() != null ? group.getId() : UUID.randomUUID().toString();
 
+    group.setId(resourceId);
+
+    ExampleGroup exampleGroup = ScimTypeConverter.fromScim(group).versionAfter(null, clock.getAsLong()).compact();
+
     // SCIM spec does NOT allow for updating existing objects via create (POST).
-    if (groups.containsKey(resourceId)) {
-      throw new UnableToCreateResourceException(Response.Status.CONFLICT, "User already exists.");
+    if (!groups.create(resourceId, exampleGroup)) {
+      throw new UnableToCreateResourceException(Response.Status.CONFLICT, "Group already exists.");
     }
 
-    group.setId(resourceId);
-    groups.put(resourceId, ScimTypeConverter.fromScim(group));
+    return toScim(exampleGroup);
+  }
 
-    return group;
+  /**
+   * Creates groups like {@link #create(ScimGroup)}, but stores them in one batch and does not convert them back to
+   * SCIM. Used to import groups in bulk, see {@link BulkImporter}.
+   * @return one entry per group, {@code null} if it was created, otherwise the reason it was not
+   */
+  public List<UnableToCreateResourceException> createAll(List<ScimGroup> scimGroups) {
+    return metrics.time(ProviderMetrics.Operation.CREATE_ALL, () -> createGroups(scimGroups));
+  }
+
+  private List<UnableToCreateResourceException> createGroups(List<ScimGroup> scimGroups) {
+    long now = clock.getAsLong();
+    List<UnableToCreateResourceException> failures = new ArrayList<>(Collections.nCopies(scimGroups.size(), null));
+    Map<String, ExampleGroup> batch = new LinkedHashMap<>(scimGroups.size() * 4 / 3 + 1);
+    Map<String, Integer> positions = new HashMap<>(scimGroups.size() * 4 / 3 + 1);
+
+    for (int i = 0; i < scimGroups.size(); i++) {
+      ScimGroup group = scimGroups.get(i);
+      String id = group.getId() != null ? group.getId() : UUID.randomUUID().toString();
+      if (positions.putIfAbsent(id, i) != null) {
+        failures.set(i, new UnableToCreateResourceException(Response.Status.CONFLICT, "Group already exists."));
+        continue;
+      }
+      group.setId(id);
+      batch.put(id, ScimTypeConverter.fromScim(group).versionAfter(null, now).compact());
+    }
+
+    for (String id : groups.createAll(batch)) {
+      failures.set(positions.get(id), new UnableToCreateResourceException(Response.Status.CONFLICT, "Group already exists."));
+    }
+    return failures;
   }
 
   @Override
   public ScimGroup update(UpdateRequest<ScimGroup> updateRequest) throws UnableToUpdateResourceException {
+    return update(updateRequest, AttributeProjectionFilter.current());
+  }
+
+  /**
+   * @param projection the attributes of the updated group to convert, members are neither converted nor described
+   *                   unless requested
+   */
+  public ScimGroup update(UpdateRequest<ScimGroup> updateRequest, AttributeProjection projection) throws UnableToUpdateResourceException {
+    return metrics.time(ProviderMetrics.Operation.UPDATE, () -> updateGroup(updateRequest, projection));
+  }
+
+  private ScimGroup updateGroup(UpdateRequest<ScimGroup> updateRequest, AttributeProjection projection) throws UnableToUpdateResourceException {
 
     String id = updateRequest.getId();
+    long start = ProviderMetrics.start();
+
+    List<PatchOperation> operations = updateRequest.getPatchOperations();
+    boolean patch = operations != null && !operations.isEmpty();
+    if (patch) {
+      List<DomainPatcher.Delta> deltas = DomainPatcher.deltas("members", operations);
+      if (deltas != null) {
+        ExampleGroup patched = update(id, current -> applyMemberDeltas(current, deltas));
+        metrics.recordPatch(true, operations.size(), start);
+        return toScim(patched, projection);
+      }
+
+      ExampleGroup patched = update(id, current -> PATCHER.apply(current, operations));
+      if (patched != null) {
+        metrics.recordPatch(true, operations.size(), start);
+        return toScim(patched, projection);
+      }
+    }
+
     ScimGroup group = SimplePatchUtil.resourceFromUpdateRequest(updateRequest, ScimGroup.class);
+    ExampleGroup updated = update(id, current -> ScimTypeConverter.fromScim(group));
+    if (patch) {
+      metrics.recordPatch(false, operations.size(), start);
+    }
+    return toScim(updated, projection);
+  }
 
-    // remove the old object if the id has changed
-    if (!id.equals(updateRequest.getId())) {
-        groups.remove(id);
+  /**
+   * Adds and removes members on a copy of the stored group, which is stored as its next version. The copy shares the
+   * member set of the stored group but for the ids that changed, so patching a single member of a large group takes
+   * constant time, and readers never see a partly applied patch.
+   */
+  private static ExampleGroup applyMemberDeltas(ExampleGroup group, List<DomainPatcher.Delta> deltas) {
+    IdSet members = IdSet.of(group.getMemberIds());
+    for (DomainPatcher.Delta delta : deltas) {
+      members = delta.isAdd() ? members.plusAll(delta.getValues()) : members.minusAll(delta.getValues());
+    }
+    return group.withMemberIds(members);
+  }
+
+  /**
+   * Stores the result of {@code updater} as the next version of the group, after checking the request's
+   * {@code If-Match} precondition against the stored version. This runs under the group's write lock, so the
+   * precondition and the write are atomic.
+   * @return the stored group, or {@code null} if the updater could not apply the update
+   */
+  private ExampleGroup update(String id, ResourceUpdater<ExampleGroup> updater) throws UnableToUpdateResourceException {
+    AtomicReference<ExampleGroup> updated = new AtomicReference<>();
+    AtomicReference<UnableToUpdateResourceException> failure = new AtomicReference<>();
+
+    ExampleGroup stored = groups.update(id, current -> {
+      try {
+        ConditionalRequestFilter.checkIfMatch(id, ScimTypeConverter.version(current));
+        ExampleGroup next = updater.apply(current);
+        if (next != null) {
+          updated.set(next.versionAfter(current, clock.getAsLong()).compact());
+        }
+      } catch (UnableToUpdateResourceException e) {
+        failure.set(e);
+      }
+      // a failed precondition or an update that could not be applied leaves the stored resource untouched
+      return updated.get();
+    });
+
+    if (stored == null) {
+      throw new UnableToUpdateResourceException(Response.Status.NOT_FOUND, "Group '" + id + "' does not exist.");
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    return updated.get();
+  }
+
+  /**
+   * @return every group, converted to SCIM one at a time while iterating so exports of any size need no more
+   * memory than a single group. Weakly consistent like {@link ResourceStore#values()}. Used to export groups in
+   * bulk, see {@link BulkExporter}.
+   */
+  public Iterable<ScimGroup> export() {
+    return BulkExporter.converting(groups.values(), ScimTypeConverter::toScim);
+  }
+
+  /**
+   * @return the current version of the group, as exposed in {@code meta.version}, or {@code null} if the group does
+   * not exist
+   */
+  public String getVersion(String id) {
+    return ScimTypeConverter.version(groups.get(id));
+  }
+
+  /**
+   * @return the ids of the direct members of the group, without converting them, or an empty set if the group does
+   * not exist or has no members
+   */
+  public Set<String> getMemberIds(String groupId) {
+    ExampleGroup group = groups.get(groupId);
+    return group != null && group.getMemberIds() != null ? Collections.unmodifiableSet(group.getMemberIds()) : Collections.emptySet();
+  }
+
+  /**
+   * @return the ids of the groups {@code memberId} is a direct member of, where {@code memberId} is the id of a user
+   * or of a group
+   */
+  public Set<String> getGroupIds(String memberId) {
+    return memberships.groupsOf(memberId);
+  }
+
+  /**
+   * @return the groups {@code memberId} is a member of, directly or through nested groups, with their type telling
+   * the two apart. Closures are memoized, see {@link GroupMemberships}.
+   */
+  public List<ResourceReference> getEffectiveGroups(String memberId) {
+    return references(memberships.effectiveGroupsOf(memberId), memberships.groupsOf(memberId));
+  }
+
+  /**
+   * @return the users and groups that are members of the group, directly or through nested groups, with their type
+   * telling the two apart, or {@code null} if the group does not exist
+   */
+  public List<ResourceReference> getEffectiveMembers(String groupId) {
+    ExampleGroup group = groups.get(groupId);
+    if (group == null) {
+      return null;
+    }
+    Set<String> direct = group.getMemberIds() != null ? group.getMemberIds() : Collections.emptySet();
+    return references(memberships.effectiveMembersOf(groupId), direct);
+  }
+
+  private List<ResourceReference> references(Set<String> ids, Set<String> direct) {
+    List<ResourceReference> references = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      ResourceReference reference = new ResourceReference();
+      reference.setValue(id);
+      reference.setType(direct.contains(id) ? ResourceReference.ReferenceType.DIRECT : ResourceReference.ReferenceType.INDIRECT);
+      references.add(reference);
+    }
+    describe(references);
+    return references;
+  }
+
+  private ScimGroup toScim(ExampleGroup group) {
+    return toScim(group, AttributeProjection.ALL);
+  }
+
+  private ScimGroup toScim(ExampleGroup group, AttributeProjection projection) {
+    ScimGroup scimGroup = ScimTypeConverter.toScim(group, projection);
+    if (scimGroup != null && scimGroup.getMembers() != null) {
+      describe(scimGroup.getMembers());
+    }
+    return scimGroup;
+  }
+
+  /**
+   * Fills in the display name and the reference of users and groups, looking up all the users at once. References
+   * are relative to the SCIM endpoint, e.g. {@code Users/bjensen}. Display names are read at the time of the request,
+   * renaming a member does not change the version of the groups it is in.
+   */
+  private void describe(List<ResourceReference> references) {
+    Set<String> userIds = new HashSet<>();
+    for (ResourceReference reference : references) {
+      String id = reference.getValue();
+      ExampleGroup group = id != null ? groups.get(id) : null;
+      if (group != null) {
+        reference.setRef("Groups/" + id);
+        reference.setDisplay(group.getDescription());
+      } else if (id != null) {
+        userIds.add(id);
+      }
+    }
+    if (users == null || userIds.isEmpty()) {
+      return;
+    }
+
+    Map<String, String> displayNames = users.getDisplayNames(userIds);
+    for (ResourceReference reference : references) {
+      String displayName = displayNames.get(reference.getValue());
+      if (displayName != null && reference.getRef() == null) {
+        reference.setRef("Users/" + reference.getValue());
+        reference.setDisplay(displayName);
+      }
     }
-    groups.put(id, ScimTypeConverter.fromScim(group));
-    return group;
   }
 
   @Override
   public ScimGroup get(String id) {
-    return ScimTypeConverter.toScim(groups.get(id));
+    return get(id, AttributeProjectionFilter.current());
+  }
+
+  /**
+   * @param projection the attributes to convert, members are neither converted nor described unless requested
+   */
+  public ScimGroup get(String id, AttributeProjection projection) {
+    long start = ProviderMetrics.start();
+    ScimGroup group = toScim(groups.get(id), projection);
+    metrics.record(ProviderMetrics.Operation.GET, start, true);
+    return group;
   }
 
   @Override
   public void delete(String id) {
+    long start = ProviderMetrics.start();
     groups.remove(id);
+    metrics.record(ProviderMetrics.Operation.DELETE, start, true);
   }
 
   @Override
   public FilterResponse<ScimGroup> find(Filter filter, PageRequest pageRequest, SortRequest sortRequest) {
-    return new FilterResponse<>(groups.values().stream()
-                                               .map(ScimTypeConverter::toScim)
-                                               .collect(Collectors.toList()),
-                                pageRequest, groups.size());
+    return find(filter, pageRequest, sortRequest, AttributeProjectionFilter.current());
+  }
+
+  /**
+   * @param projection the attributes to convert, the filter and the sort order may use any attribute
+   */
+  public FilterResponse<ScimGroup> find(Filter filter, PageRequest pageRequest, SortRequest sortRequest, AttributeProjection projection) {
+    long start = ProviderMetrics.start();
+    FilterExpression expression = filter != null ? filter.getExpression() : null;
+
+    // if there is no filter return all groups, only the requested page is converted
+    FilterEvaluator.Page<ExampleGroup> page;
+    try {
+      page = filters.query(expression, pageRequest, sortRequest);
+    } catch (RuntimeException e) {
+      metrics.record(ProviderMetrics.Operation.FIND, start, false);
+      throw e;
+    }
+
+    long conversionStart = ProviderMetrics.start();
+    List<ExampleGroup> resources = page.getResources();
+    List<ScimGroup> scimGroups = new ArrayList<>(resources.size());
+    List<ResourceReference> members = new ArrayList<>();
+    for (ExampleGroup group : resources) {
+      ScimGroup scimGroup = ScimTypeConverter.toScim(group, projection);
+      if (scimGroup.getMembers() != null) {
+        members.addAll(scimGroup.getMembers());
+      }
+      scimGroups.add(scimGroup);
+    }
+    // the members of the whole page are described at once
+    describe(members);
+    metrics.recordConversion(conversionStart);
+    metrics.recordFind(expression, pageRequest, page, start);
+    return new FilterResponse<>(scimGroups, pageRequest, page.getTotalResults());
   }
 
   @Override
@@ -99,4 +457,7 @@ public class ScimGroupProvider implements Provider<ScimGroup> {
     return Collections.emptyList();
   }
 
+  private static Collection<?> single(Object value) {
+    return value != null ? Collections.singletonList(value) : Collections.emptyList();
+  }
 }
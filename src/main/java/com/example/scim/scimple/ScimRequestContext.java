@@ -0,0 +1,85 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+/**
+ * What the JAX-RS filters learn from the SCIM request being processed and hand on to the providers: its
+ * {@code If-Match} header, see {@link ConditionalRequestFilter}, and the attributes it asks for, see
+ * {@link AttributeProjectionFilter}.
+ * <p>
+ * SCIMple calls the providers on the request thread, so the context of the current request is kept in a thread
+ * local. {@link ScimRequestContextFilter} opens it before the request reaches JAX-RS and closes it once the request is
+ * processed, whether or not it failed, so nothing is left behind for the next request on the thread.
+ */
+public final class ScimRequestContext implements AutoCloseable {
+
+  private static final ThreadLocal<ScimRequestContext> CURRENT = new ThreadLocal<>();
+
+  private String ifMatch;
+
+  private AttributeProjection projection = AttributeProjection.ALL;
+
+  private ScimRequestContext() {
+  }
+
+  /**
+   * Opens the context of a request processed by the current thread, replacing any context left open.
+   */
+  public static ScimRequestContext open() {
+    ScimRequestContext context = new ScimRequestContext();
+    CURRENT.set(context);
+    return context;
+  }
+
+  /**
+   * @return the context of the request processed by the current thread, or {@code null} outside of requests
+   */
+  static ScimRequestContext current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * @return the {@code If-Match} header of a {@code PUT} or {@code PATCH}, {@code null} if there is none
+   */
+  String getIfMatch() {
+    return ifMatch;
+  }
+
+  void setIfMatch(String ifMatch) {
+    this.ifMatch = ifMatch;
+  }
+
+  /**
+   * @return the attributes requested by a {@code GET}, {@link AttributeProjection#ALL} unless it asked for fewer
+   */
+  AttributeProjection getProjection() {
+    return projection;
+  }
+
+  void setProjection(AttributeProjection projection) {
+    this.projection = projection;
+  }
+
+  @Override
+  public void close() {
+    CURRENT.remove();
+  }
+}
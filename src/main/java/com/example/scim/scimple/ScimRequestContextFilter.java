@@ -0,0 +1,56 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.scimple;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * Opens a {@link ScimRequestContext} around every SCIM request, for the JAX-RS filters to fill in and the providers
+ * to read, and closes it when the request is processed, including when it fails before or after reaching JAX-RS.
+ */
+public final class ScimRequestContextFilter implements Filter {
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    // NOOP
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+    ScimRequestContext context = ScimRequestContext.open();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      context.close();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    // NOOP
+  }
+}
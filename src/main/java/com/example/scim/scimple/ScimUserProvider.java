@@ -22,12 +22,17 @@ package com.example.scim.scimple;
 import com.example.scim.model.ExampleAddress;
 import com.example.scim.model.ExamplePerson;
 import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.model.StringDictionary;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+import com.example.scim.store.ViewCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import org.apache.directory.scim.server.exception.UnableToCreateResourceException;
 import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
 import org.apache.directory.scim.server.provider.Provider;
 import org.apache.directory.scim.server.provider.UpdateRequest;
-import org.apache.directory.scim.spec.protocol.filter.AttributeComparisonExpression;
-import org.apache.directory.scim.spec.protocol.filter.CompareOperator;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
 import org.apache.directory.scim.spec.protocol.filter.FilterExpression;
 import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
 import org.apache.directory.scim.spec.protocol.search.Filter;
@@ -37,90 +42,344 @@ import org.apache.directory.scim.spec.resources.ScimExtension;
 import org.apache.directory.scim.spec.resources.ScimGroup;
 import org.apache.directory.scim.spec.resources.ScimUser;
 
-import javax.ws.rs.ServerErrorException;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 /**
  * Example SCIM Provider which will map a custom domain model {@link ExamplePerson} to/from SCIM objects.
  */
 public class ScimUserProvider implements Provider<ScimUser> {
 
-  private Map<String, ExamplePerson> people = new HashMap<>();
+  // Applies PATCH operations directly to a copy of the stored person, operations on any other attribute go through
+  // SimplePatchUtil instead.
+  private static final DomainPatcher<ExamplePerson> PATCHER = new DomainPatcher<>(ExamplePerson::copy)
+    .attribute("id", DomainPatcher.immutable("id", ExamplePerson::getUsername))
+    .attribute("name.givenName", DomainPatcher.string(ExamplePerson::setFirstName))
+    .attribute("name.middleName", DomainPatcher.string(ExamplePerson::setMiddleName))
+    .attribute("name.familyName", DomainPatcher.string(ExamplePerson::setLastName))
+    .attribute("emails", DomainPatcher.values(ExamplePerson::getEmails, ExamplePerson::setEmails, ArrayList::new, false))
+    .attribute("active", DomainPatcher.bool(ExamplePerson::setActive));
+
+  // Number of users whose SCIM representation is kept, a SCIM user takes about as much memory as the stored person.
+  private static final int VIEW_CACHE_SIZE = 10_000;
+
+  // Number of distinct names and address locations shared between stored users by default, enough for the names and
+  // cities of a large population while the mostly unique ones are kept out.
+  private static final int DICTIONARY_SIZE = 200_000;
+
+  // Names and locations longer than this are unlikely to repeat.
+  private static final int DICTIONARY_MAX_LENGTH = 64;
+
+  private final ResourceStore<ExamplePerson> people;
+
+  private final FilterEvaluator<ExamplePerson> filters;
+
+  // The SCIM representation of recently read users. Every get and find request gets a copy of its own, which SCIMple
+  // may modify while it prepares the response. Copying a user allocates about half as much as converting it.
+  private final ViewCache<ExamplePerson, ScimUser> views = new ViewCache<>(VIEW_CACHE_SIZE, ScimTypeConverter::toScim, ScimTypeConverter::copy);
+
+  private final ProviderMetrics metrics;
+
+  // The strings shared between the users of this provider's store, see ExamplePerson.compact.
+  private final StringDictionary strings;
+
+  // The time of a write in milliseconds since the epoch.
+  private final LongSupplier clock;
 
   public ScimUserProvider() {
+    this(new ConcurrentResourceStore<>());
+  }
+
+  /**
+   * @param people the store holding the users, a sample user is added to it when it is empty
+   */
+  public ScimUserProvider(ResourceStore<ExamplePerson> people) {
+    // a composite registry without registries records nothing
+    this(people, new CompositeMeterRegistry());
+  }
+
+  /**
+   * @param people the store holding the users, a sample user is added to it when it is empty
+   * @param registry the registry the {@link ProviderMetrics} of the users are recorded to
+   */
+  public ScimUserProvider(ResourceStore<ExamplePerson> people, MeterRegistry registry) {
+    this(people, registry, DICTIONARY_SIZE);
+  }
+
+  /**
+   * @param people the store holding the users, a sample user is added to it when it is empty
+   * @param registry the registry the {@link ProviderMetrics} of the users are recorded to
+   * @param dictionarySize the most distinct names and address locations shared between the stored users
+   */
+  public ScimUserProvider(ResourceStore<ExamplePerson> people, MeterRegistry registry, int dictionarySize) {
+    this(people, registry, dictionarySize, System::currentTimeMillis);
+  }
+
+  /**
+   * @param people the store holding the users, a sample user is added to it when it is empty
+   * @param registry the registry the {@link ProviderMetrics} of the users are recorded to
+   * @param dictionarySize the most distinct names and address locations shared between the stored users
+   * @param clock returns the time of a write in milliseconds since the epoch
+   */
+  public ScimUserProvider(ResourceStore<ExamplePerson> people, MeterRegistry registry, int dictionarySize, LongSupplier clock) {
+    this.people = people;
+    this.clock = clock;
+    this.strings = new StringDictionary(dictionarySize, DICTIONARY_MAX_LENGTH);
+    this.metrics = new ProviderMetrics(registry, "User", people);
+    people.addListener(views);
+
+    // Translates SCIM filters into lookups against secondary indexes, for a real user store you would translate the
+    // filter into a JPA or other user store query instead.
+    this.filters = new FilterEvaluator<>(people)
+      .indexedAttribute("userName", person -> single(person.getUsername()), true, true)
+      .alias("id", "userName")
+      .indexedAttribute("name.givenName", person -> single(person.getFirstName()), true, false)
+      .attribute("name.middleName", person -> single(person.getMiddleName()))
+      .indexedAttribute("name.familyName", person -> single(person.getLastName()), true, false)
+      .attribute("name.formatted", person -> single(person.getLastName() + ", " + person.getFirstName()))
+      .alias("displayName", "name.formatted")
+      .indexedAttribute("emails.value", ExamplePerson::getEmails, true, true)
+      .alias("emails", "emails.value")
+      .indexedAttribute("active", person -> single(person.isActive()), false, false)
+      .attribute("addresses.streetAddress", person -> addresses(person, ExampleAddress::getStreet))
+      .attribute("addresses.locality", person -> addresses(person, ExampleAddress::getCity))
+      .attribute("addresses.region", person -> addresses(person, ExampleAddress::getState))
+      .attribute("addresses.postalCode", person -> addresses(person, ExampleAddress::getZip))
+      .attribute("addresses.country", person -> addresses(person, ExampleAddress::getCountry))
+      .timestampAttribute("meta.created", ExamplePerson::getCreated)
+      .indexedTimestampAttribute("meta.lastModified", ExamplePerson::getLastModified, ExamplePerson::getUsername);
 
-    ExamplePerson person = new ExamplePerson()
-            .setUsername("e1@example.com")
-            .setFirstName("El")
-            .setLastName("Coder")
-            .setEmails(Collections.singletonList("e1@example.com"))
-            .setAddresses(Collections.singletonList(new ExampleAddress()
-                .setStreet("101 Main St.")
-                .setCity("Springfield")
-                .setState("ME")
-                .setZip("012345")
-                .setCountry("US")));
+    if (people.size() == 0) {
+      ExamplePerson person = new ExamplePerson()
+              .setUsername("e1@example.com")
+              .setFirstName("El")
+              .setLastName("Coder")
+              .setEmails(Collections.singletonList("e1@example.com"))
+              .setAddresses(Collections.singletonList(new ExampleAddress()
+                  .setStreet("101 Main St.")
+                  .setCity("Springfield")
+                  .setState("ME")
+                  .setZip("012345")
+                  .setCountry("US")));
 
-    people.put(person.getUsername(), person);
+      people.create(person.getUsername(), person.compact(strings));
+    }
   }
 
   @Override
   public ScimUser create(ScimUser user) throws UnableToCreateResourceException {
+    return metrics.time(ProviderMetrics.Operation.CREATE, () -> createUser(user));
+  }
+
+  private ScimUser createUser(ScimUser user) throws UnableToCreateResourceException {
 
     String resourceId = user.getId() != null ? user.getId() : user.getUserName();
 
+    user.setId(resourceId);
+    ExamplePerson person = ScimTypeConverter.fromScim(user).versionAfter(null, clock.getAsLong()).compact(strings);
+
     // SCIM spec does NOT allow for updating existing objects via create (POST).
-    if (people.containsKey(resourceId)) {
+    if (!people.create(resourceId, person)) {
       throw new UnableToCreateResourceException(Response.Status.CONFLICT, "User already exists.");
     }
-
-    user.setId(resourceId);
-    ExamplePerson person = ScimTypeConverter.fromScim(user);
-    people.put(resourceId, person);
     return ScimTypeConverter.toScim(person);
   }
 
+  /**
+   * Creates users like {@link #create(ScimUser)}, but stores them in one batch and does not convert them back to
+   * SCIM. Used to import users in bulk, see {@link BulkImporter}.
+   * @return one entry per user, {@code null} if it was created, otherwise the reason it was not
+   */
+  public List<UnableToCreateResourceException> createAll(List<ScimUser> users) {
+    return metrics.time(ProviderMetrics.Operation.CREATE_ALL, () -> createUsers(users));
+  }
+
+  private List<UnableToCreateResourceException> createUsers(List<ScimUser> users) {
+    long now = clock.getAsLong();
+    List<UnableToCreateResourceException> failures = new ArrayList<>(Collections.nCopies(users.size(), null));
+    Map<String, ExamplePerson> batch = new LinkedHashMap<>(users.size() * 4 / 3 + 1);
+    Map<String, Integer> positions = new HashMap<>(users.size() * 4 / 3 + 1);
+
+    for (int i = 0; i < users.size(); i++) {
+      ScimUser user = users.get(i);
+      String id = user.getId() != null ? user.getId() : user.getUserName();
+      if (id == null) {
+        failures.set(i, new UnableToCreateResourceException(Response.Status.BAD_REQUEST, "User has no userName."));
+        continue;
+      }
+      if (positions.putIfAbsent(id, i) != null) {
+        failures.set(i, new UnableToCreateResourceException(Response.Status.CONFLICT, "User already exists."));
+        continue;
+      }
+      user.setId(id);
+      batch.put(id, ScimTypeConverter.fromScim(user).versionAfter(null, now).compact(strings));
+    }
+
+    for (String id : people.createAll(batch)) {
+      failures.set(positions.get(id), new UnableToCreateResourceException(Response.Status.CONFLICT, "User already exists."));
+    }
+    return failures;
+  }
+
   @Override
   public ScimUser update(UpdateRequest<ScimUser> updateRequest) throws UnableToUpdateResourceException {
+    return metrics.time(ProviderMetrics.Operation.UPDATE, () -> updateUser(updateRequest));
+  }
+
+  private ScimUser updateUser(UpdateRequest<ScimUser> updateRequest) throws UnableToUpdateResourceException {
     String id = updateRequest.getId();
+    long start = ProviderMetrics.start();
+
+    List<PatchOperation> operations = updateRequest.getPatchOperations();
+    boolean patch = operations != null && !operations.isEmpty();
+    if (patch) {
+      ExamplePerson patched = update(id, current -> PATCHER.apply(current, operations));
+      if (patched != null) {
+        metrics.recordPatch(true, operations.size(), start);
+        return ScimTypeConverter.toScim(patched);
+      }
+    }
+
     ScimUser user = SimplePatchUtil.resourceFromUpdateRequest(updateRequest, ScimUser.class);
+    ScimUser updated = ScimTypeConverter.toScim(update(id, current -> ScimTypeConverter.fromScim(user)));
+    if (patch) {
+      metrics.recordPatch(false, operations.size(), start);
+    }
+    return updated;
+  }
+
+  /**
+   * Stores the result of {@code updater} as the next version of the user, atomically with respect to other writes of
+   * the same user, after checking the request's {@code If-Match} precondition against the stored version.
+   * @return the stored person, or {@code null} if the updater could not apply the update
+   */
+  private ExamplePerson update(String id, ResourceUpdater<ExamplePerson> updater) throws UnableToUpdateResourceException {
+    AtomicReference<ExamplePerson> updated = new AtomicReference<>();
+    AtomicReference<UnableToUpdateResourceException> failure = new AtomicReference<>();
+
+    ExamplePerson stored = people.update(id, current -> {
+      try {
+        ConditionalRequestFilter.checkIfMatch(id, ScimTypeConverter.version(current));
+        ExamplePerson next = updater.apply(current);
+        if (next != null) {
+          updated.set(next.versionAfter(current, clock.getAsLong()).compact(strings));
+        }
+      } catch (UnableToUpdateResourceException e) {
+        failure.set(e);
+      }
+      // a failed precondition or an update that could not be applied leaves the stored resource untouched
+      return updated.get();
+    });
 
-    // remove the old object if the id has changed
-    if (!id.equals(updateRequest.getId())) {
-        people.remove(id);
+    if (stored == null) {
+      throw new UnableToUpdateResourceException(Response.Status.NOT_FOUND, "User '" + id + "' does not exist.");
     }
-    people.put(id, ScimTypeConverter.fromScim(user));
-    return user;
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    return updated.get();
+  }
+
+  /**
+   * @return every user, converted to SCIM one at a time while iterating so exports of any size need no more
+   * memory than a single user. Weakly consistent like {@link ResourceStore#values()}. Used to export users in
+   * bulk, see {@link BulkExporter}.
+   */
+  public Iterable<ScimUser> export() {
+    return BulkExporter.converting(people.values(), ScimTypeConverter::toScim);
+  }
+
+  /**
+   * @return the current version of the user, as exposed in {@code meta.version}, or {@code null} if the user does not
+   * exist
+   */
+  public String getVersion(String id) {
+    return ScimTypeConverter.version(people.get(id));
+  }
+
+  /**
+   * Looks up the display names of many users at once, reading the stored users directly instead of building their
+   * SCIM representation. Used to describe the members of groups.
+   * @return the display name of each of {@code ids} that is an existing user
+   */
+  public Map<String, String> getDisplayNames(Collection<String> ids) {
+    Map<String, String> displayNames = new HashMap<>(ids.size() * 2);
+    for (String id : ids) {
+      ExamplePerson person = people.get(id);
+      if (person != null) {
+        displayNames.put(id, ScimTypeConverter.displayName(person));
+      }
+    }
+    return displayNames;
   }
 
   @Override
   public ScimUser get(String id) {
-    return ScimTypeConverter.toScim(people.get(id));
+    return get(id, AttributeProjectionFilter.current());
+  }
+
+  /**
+   * @param projection the attributes to convert, users with all attributes are copied from the view cache
+   */
+  public ScimUser get(String id, AttributeProjection projection) {
+    long start = ProviderMetrics.start();
+    ScimUser user = toScim(id, people.get(id), projection);
+    metrics.record(ProviderMetrics.Operation.GET, start, true);
+    return user;
   }
 
   @Override
   public void delete(String id) {
+    long start = ProviderMetrics.start();
     people.remove(id);
+    metrics.record(ProviderMetrics.Operation.DELETE, start, true);
   }
 
   @Override
   public FilterResponse<ScimUser> find(Filter filter, PageRequest pageRequest, SortRequest sortRequest) {
+    return find(filter, pageRequest, sortRequest, AttributeProjectionFilter.current());
+  }
+
+  /**
+   * @param projection the attributes to convert, the filter and the sort order may use any attribute
+   */
+  public FilterResponse<ScimUser> find(Filter filter, PageRequest pageRequest, SortRequest sortRequest, AttributeProjection projection) {
+
+    long start = ProviderMetrics.start();
+    FilterExpression expression = filter != null ? filter.getExpression() : null;
+
+    // if there is no filter return all users, only the requested page is converted
+    FilterEvaluator.Page<ExamplePerson> page;
+    try {
+      page = filters.query(expression, pageRequest, sortRequest);
+    } catch (RuntimeException e) {
+      metrics.record(ProviderMetrics.Operation.FIND, start, false);
+      throw e;
+    }
 
-    // if there is no filter return all users
-    Collection<ExamplePerson> result = filter != null
-      ? doFilter(filter.getExpression())
-      : people.values();
+    long conversionStart = ProviderMetrics.start();
+    List<ExamplePerson> resources = page.getResources();
+    List<ScimUser> users = new ArrayList<>(resources.size());
+    for (ExamplePerson person : resources) {
+      users.add(toScim(person.getUsername(), person, projection));
+    }
+    metrics.recordConversion(conversionStart);
+    metrics.recordFind(expression, pageRequest, page, start);
+    return new FilterResponse<>(users, pageRequest, page.getTotalResults());
+  }
 
-    return new FilterResponse<>(result.stream()
-                                      .map(ScimTypeConverter::toScim)
-                                      .collect(Collectors.toList()),
-                                pageRequest, people.size());
+  private ScimUser toScim(String id, ExamplePerson person, AttributeProjection projection) {
+    // a partial user is cheaper to build than to look up, and would not be of use to other requests
+    return projection.isAll() ? views.get(id, person) : ScimTypeConverter.toScim(person, projection);
   }
 
   @Override
@@ -128,24 +387,20 @@ public class ScimUserProvider implements Provider<ScimUser> {
     return Collections.emptyList();
   }
 
-  private Collection<ExamplePerson> doFilter(FilterExpression expression) {
-
-    // This example only supports a `userName eq <something>` filter, but you would translate the filter into what a
-    // JPA query or other user store query to return results.
-
-    if (expression instanceof AttributeComparisonExpression) {
-      AttributeComparisonExpression comparisonExpression = (AttributeComparisonExpression) expression;
-
-      if ("userName".equals(comparisonExpression.getAttributePath().getAttributeName())
-           && CompareOperator.EQ == comparisonExpression.getOperation()) {
+  private static Collection<?> single(Object value) {
+    return value != null ? Collections.singletonList(value) : Collections.emptyList();
+  }
 
-        ExamplePerson person = people.get(comparisonExpression.getCompareValue());
-        return person != null
-          ? Collections.singleton(person)
-          : Collections.emptyList();
+  private static Collection<?> addresses(ExamplePerson person, Function<ExampleAddress, String> accessor) {
+    if (person.getAddresses() == null) {
+      return Collections.emptyList();
+    }
+    List<String> values = new ArrayList<>(person.getAddresses().size());
+    for (ExampleAddress address : person.getAddresses()) {
+      if (address != null) {
+        values.add(accessor.apply(address));
       }
     }
-
-    throw new ServerErrorException("Only `userName eq *` filters are supported currently", Response.Status.NOT_IMPLEMENTED);
+    return values;
   }
 }
@@ -16,14 +16,28 @@ import org.apache.directory.scim.spec.resources.ScimResource;
 
 import javax.ws.rs.core.Response;
 import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 final class SimplePatchUtil {
 
+    /**
+     * Shared, fully configured mapper, also used by {@link BulkImporter}. ObjectMappers are thread-safe once configured
+     * and expensive to create.
+     */
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapperFactory(null).createObjectMapper();
+
+    private static final PropertyUtilsBean PROPERTY_UTILS = new PropertyUtilsBean();
+
+    /**
+     * Resolved patch paths per resource type, only valid paths are cached so the size is bound by the resource model.
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, PathMetadata>> PATHS = new ConcurrentHashMap<>();
+
     private SimplePatchUtil() {}
 
     /**
@@ -40,9 +54,6 @@ final class SimplePatchUtil {
         } else {
 
             try {
-                // TODO: This is a POC, actual implementation should not create an ObjectMapper directly
-                ObjectMapper objectMapper = new ObjectMapperFactory(null).createObjectMapper();
-
                 List<PatchOperation> patchOperations = new ArrayList<>();
 
                 for( PatchOperation it : updateRequest.getPatchOperations()) {
@@ -69,15 +80,9 @@ final class SimplePatchUtil {
                         // removing items from collections is NOT supported by this example
                         // Removing items this way would likely require using a path expression simlar to:
                         // members[ id eq "some id value"]
-                        String simplePath = path.toString();
-                        T originalResource = updateRequest.getOriginal();
-
-                        // figure out the property type
-                        PropertyUtilsBean bean = new PropertyUtilsBean();
-                        PropertyDescriptor propertyDescriptor = bean.getPropertyDescriptor(originalResource, simplePath);
-                        boolean isCollection = Collection.class.isAssignableFrom(propertyDescriptor.getPropertyType());
+                        PathMetadata metadata = pathMetadata(resultType, path.toString());
 
-                        if (it.getOperation() == PatchOperation.Type.REMOVE && isCollection) {
+                        if (it.getOperation() == PatchOperation.Type.REMOVE && metadata.isCollection()) {
                             throw new UnableToUpdateResourceException(Response.Status.NOT_IMPLEMENTED, "Removing items from collections via a patch operation is NOT supported by this example");
                         }
 
@@ -86,14 +91,58 @@ final class SimplePatchUtil {
                     }
                 }
 
-                JsonNode patchOperationList = objectMapper.valueToTree(patchOperations);
-                JsonNode original = objectMapper.valueToTree(updateRequest.getOriginal());
+                JsonNode patchOperationList = OBJECT_MAPPER.valueToTree(patchOperations);
+                JsonNode original = OBJECT_MAPPER.valueToTree(updateRequest.getOriginal());
                 JsonNode result = JsonPatch.apply(patchOperationList, original);
 
-                return objectMapper.treeToValue(result, resultType);
-            } catch (JsonProcessingException | FilterParseException | InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
+                return OBJECT_MAPPER.treeToValue(result, resultType);
+            } catch (JsonProcessingException | FilterParseException e) {
                 throw new UnableToUpdateResourceException(Response.Status.INTERNAL_SERVER_ERROR, "Failed to apply json patch", e);
             }
         }
     }
+
+    /**
+     * Resolves a (possibly nested) property path such as {@code name.familyName} against a resource type, the result
+     * is cached per type and path.
+     */
+    private static PathMetadata pathMetadata(Class<?> resourceType, String path) throws UnableToUpdateResourceException {
+        ConcurrentMap<String, PathMetadata> paths = PATHS.computeIfAbsent(resourceType, type -> new ConcurrentHashMap<>());
+        PathMetadata metadata = paths.get(path);
+        if (metadata == null) {
+            Class<?> type = resourceType;
+            for (String property : path.split("\\.")) {
+                PropertyDescriptor descriptor = findProperty(type, property);
+                if (descriptor == null) {
+                    throw new UnableToUpdateResourceException(Response.Status.BAD_REQUEST, "Unknown patch path '" + path + "'");
+                }
+                type = descriptor.getPropertyType();
+            }
+            metadata = new PathMetadata(type);
+            paths.putIfAbsent(path, metadata);
+        }
+        return metadata;
+    }
+
+    private static PropertyDescriptor findProperty(Class<?> type, String name) {
+        for (PropertyDescriptor descriptor : PROPERTY_UTILS.getPropertyDescriptors(type)) {
+            if (descriptor.getName().equals(name)) {
+                return descriptor;
+            }
+        }
+        return null;
+    }
+
+    private static final class PathMetadata {
+
+        private final boolean collection;
+
+        private PathMetadata(Class<?> propertyType) {
+            this.collection = Collection.class.isAssignableFrom(propertyType);
+        }
+
+        boolean isCollection() {
+            return collection;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Base class for {@link ResourceStore stores} that serialize writes to the same id with a fixed number of lock
+ * stripes.
+ * <p>
+ * Reads never lock. Writes to the same id are serialized by one of the stripes, so the check-and-insert done by
+ * {@link #create(String, Object)} and the read-modify-write done by {@link #update(String, UnaryOperator)} are atomic
+ * without a global lock. Writers of unrelated ids only contend when their ids hash to the same stripe. Subclasses
+ * only implement reading and the raw {@link #write(String, Object)} and {@link #delete(String)}, which are always
+ * called with the id's stripe held.
+ *
+ * @param <T> the stored resource type
+ */
+public abstract class AbstractResourceStore<T> implements ResourceStore<T> {
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final Lock[] stripes;
+
+    private final List<StoreListener<T>> listeners = new CopyOnWriteArrayList<>();
+
+    protected AbstractResourceStore() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripeCount the number of write locks, rounded up to a power of two
+     */
+    protected AbstractResourceStore(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be positive");
+        }
+        int size = Integer.highestOneBit(stripeCount - 1) << 1;
+        stripes = new Lock[Math.max(size, 1)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Stores {@code resource} under {@code id}, replacing any previous resource.
+     */
+    protected abstract void write(String id, T resource);
+
+    /**
+     * Removes the resource stored under {@code id}, which is known to exist.
+     */
+    protected abstract void delete(String id);
+
+    @Override
+    public void addListener(StoreListener<T> listener) {
+        lockAll();
+        try {
+            if (listener.isInitializedFromStore()) {
+                initialize(listener);
+            }
+            listeners.add(listener);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Brings a new listener up to date with the stored resources, by default by replaying them as creates. Called
+     * with all stripes held.
+     */
+    protected void initialize(StoreListener<T> listener) {
+        forEach((id, resource) -> listener.onWrite(id, null, resource));
+    }
+
+    protected List<StoreListener<T>> getListeners() {
+        return listeners;
+    }
+
+    @Override
+    public boolean create(String id, T resource) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            if (contains(id)) {
+                return false;
+            }
+            write(id, resource);
+            fireWrite(id, null, resource);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates the whole batch while holding every stripe, so large batches block all other writers for their
+     * duration but pay for the locks once, and listeners receive the batch through
+     * {@link StoreListener#onCreateAll(Map)}.
+     */
+    @Override
+    public Set<String> createAll(Map<String, T> resources) {
+        Set<String> existing = new HashSet<>();
+        Map<String, T> created = new LinkedHashMap<>(resources.size() * 4 / 3 + 1);
+        lockAll();
+        try {
+            for (Map.Entry<String, T> entry : resources.entrySet()) {
+                String id = entry.getKey();
+                if (contains(id)) {
+                    existing.add(id);
+                } else {
+                    write(id, entry.getValue());
+                    created.put(id, entry.getValue());
+                }
+            }
+            for (StoreListener<T> listener : listeners) {
+                listener.onCreateAll(created);
+            }
+        } finally {
+            unlockAll();
+        }
+        return existing;
+    }
+
+    @Override
+    public T replace(String id, T resource) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            T previous = get(id);
+            if (previous != null) {
+                write(id, resource);
+                fireWrite(id, previous, resource);
+            }
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T update(String id, UnaryOperator<T> updater) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            T previous = get(id);
+            if (previous == null) {
+                return null;
+            }
+            T updated = updater.apply(previous);
+            if (updated == null) {
+                return previous;
+            }
+            write(id, updated);
+            fireWrite(id, previous, updated);
+            return updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T remove(String id) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            T previous = get(id);
+            if (previous != null) {
+                delete(id);
+                fireWrite(id, previous, null);
+            }
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void fireWrite(String id, T previous, T current) {
+        for (StoreListener<T> listener : listeners) {
+            listener.onWrite(id, previous, current);
+        }
+    }
+
+    protected Lock lockFor(String id) {
+        int hash = id.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * Acquires every stripe, blocking all writers until {@link #unlockAll()}.
+     */
+    protected void lockAll() {
+        for (Lock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    protected void unlockAll() {
+        for (Lock stripe : stripes) {
+            stripe.unlock();
+        }
+    }
+}
@@ -0,0 +1,551 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Secondary index over one attribute of the resources in a {@link ResourceStore}, mapping normalized
+ * attribute values to the ids of the resources holding them.
+ * <p>
+ * Values are normalized with {@link #normalize(Object)}, so lookups are case-insensitive. Every index answers exact
+ * matches from a hash map; an {@code ordered} index additionally keeps the values in a navigable map for prefix and
+ * range lookups, and a {@code substring} index keeps a trigram index for contains and ends-with lookups.
+ * <p>
+ * Lookups may briefly disagree with the store while a write is in flight, so callers must re-check the resources
+ * they load from the returned ids. Most values are held by a single resource, their postings are kept as immutable
+ * singletons until a second resource shares the value.
+ * <p>
+ * Trigrams held by more than {@value #MAX_GRAM_POSTINGS} resources by default, such as those of a domain shared by
+ * every email address, narrow a substring lookup down too little to be worth their memory: their postings are dropped
+ * and only counted, and lookups intersect the postings of the other trigrams. A trigram's postings are rebuilt from
+ * the indexed values once half of the resources holding it are gone.
+ * <p>
+ * A named index is saved in the snapshots of a {@link LogResourceStore} and restored from them on startup.
+ *
+ * @param <T> the stored resource type
+ */
+public class AttributeIndex<T> implements SnapshotListener<T> {
+
+    private static final int GRAM_LENGTH = 3;
+
+    static final int MAX_GRAM_POSTINGS = 65_536;
+
+    private final String name;
+
+    private final Function<T, Collection<?>> extractor;
+
+    private final ConcurrentMap<String, Set<String>> exact = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<String, Set<String>> sorted;
+
+    private final ConcurrentMap<String, Set<String>> grams;
+
+    private final int maxGramPostings;
+
+    /**
+     * @param extractor returns the values of the indexed attribute for a resource, may return {@code null}
+     * @param ordered whether to support prefix and range lookups
+     * @param substring whether to support contains and ends-with lookups
+     */
+    public AttributeIndex(Function<T, Collection<?>> extractor, boolean ordered, boolean substring) {
+        this(null, extractor, ordered, substring);
+    }
+
+    /**
+     * @param name the name of the index in store snapshots, or {@code null} to always rebuild it
+     * @param extractor returns the values of the indexed attribute for a resource, may return {@code null}
+     * @param ordered whether to support prefix and range lookups
+     * @param substring whether to support contains and ends-with lookups
+     */
+    public AttributeIndex(String name, Function<T, Collection<?>> extractor, boolean ordered, boolean substring) {
+        this(name, extractor, ordered, substring, MAX_GRAM_POSTINGS);
+    }
+
+    /**
+     * @param name the name of the index in store snapshots, or {@code null} to always rebuild it
+     * @param extractor returns the values of the indexed attribute for a resource, may return {@code null}
+     * @param ordered whether to support prefix and range lookups
+     * @param substring whether to support contains and ends-with lookups
+     * @param maxGramPostings the number of resources holding a trigram above which its postings are not kept
+     */
+    public AttributeIndex(String name, Function<T, Collection<?>> extractor, boolean ordered, boolean substring, int maxGramPostings) {
+        this.name = name;
+        this.extractor = extractor;
+        this.sorted = ordered ? new ConcurrentSkipListMap<>() : null;
+        this.grams = substring ? new ConcurrentHashMap<>() : null;
+        this.maxGramPostings = maxGramPostings;
+    }
+
+    /**
+     * Normalizes an attribute or filter value to the form used as an index key.
+     */
+    public static String normalize(Object value) {
+        return value == null ? null : value.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public boolean isOrdered() {
+        return sorted != null;
+    }
+
+    public boolean isSubstring() {
+        return grams != null;
+    }
+
+    /**
+     * @return the normalized values of the indexed attribute for {@code resource}
+     */
+    public Set<String> keysOf(T resource) {
+        Collection<?> values = resource != null ? extractor.apply(resource) : null;
+        if (values == null || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> keys = new HashSet<>();
+        for (Object value : values) {
+            if (value != null) {
+                keys.add(normalize(value));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Updates the index for a write, adding and removing only the values that differ between the two resources.
+     */
+    @Override
+    public void onWrite(String id, T previous, T current) {
+        Collection<?> oldValues = previous != null ? extractor.apply(previous) : null;
+        Collection<?> newValues = current != null ? extractor.apply(current) : null;
+        if (grams == null && oldValues instanceof IdSet && newValues instanceof IdSet) {
+            // two versions of an id set, such as the members of a group, are compared without visiting what they share
+            IdSet oldIds = (IdSet) oldValues;
+            IdSet newIds = (IdSet) newValues;
+            IdSet.diff(oldIds, newIds, removed -> {
+                String key = normalize(removed);
+                if (!newIds.containsNormalized(key)) {
+                    removeKey(id, key);
+                }
+            }, added -> {
+                String key = normalize(added);
+                if (!oldIds.containsNormalized(key)) {
+                    addKey(key, Collections.singletonList(id));
+                }
+            });
+            return;
+        }
+
+        Set<String> oldKeys = keysOf(previous);
+        Set<String> newKeys = keysOf(current);
+
+        for (String key : oldKeys) {
+            if (!newKeys.contains(key)) {
+                removeKey(id, key);
+            }
+        }
+        for (String key : newKeys) {
+            if (!oldKeys.contains(key)) {
+                addKey(key, Collections.singletonList(id));
+            }
+        }
+
+        if (grams != null) {
+            Set<String> oldGrams = gramsOf(oldKeys);
+            Set<String> newGrams = gramsOf(newKeys);
+            for (String gram : oldGrams) {
+                if (!newGrams.contains(gram)) {
+                    removePosting(gram, id);
+                }
+            }
+            for (String gram : newGrams) {
+                if (!oldGrams.contains(gram)) {
+                    addPostings(gram, Collections.singletonList(id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the index for a batch of creates, adding the ids of the whole batch to each posting at once.
+     */
+    @Override
+    public void onCreateAll(Map<String, T> created) {
+        Map<String, List<String>> keyIds = new HashMap<>();
+        Map<String, List<String>> gramIds = grams != null ? new HashMap<>() : null;
+
+        created.forEach((id, resource) -> {
+            Set<String> keys = keysOf(resource);
+            for (String key : keys) {
+                keyIds.computeIfAbsent(key, k -> new ArrayList<>(1)).add(id);
+            }
+            if (gramIds != null) {
+                for (String gram : gramsOf(keys)) {
+                    gramIds.computeIfAbsent(gram, g -> new ArrayList<>(1)).add(id);
+                }
+            }
+        });
+
+        keyIds.forEach(this::addKey);
+        if (gramIds != null) {
+            gramIds.forEach(this::addPostings);
+        }
+    }
+
+    @Override
+    public String getSnapshotName() {
+        return name;
+    }
+
+    @Override
+    public void writeSnapshot(DataOutput out, ToIntFunction<String> ordinals) throws IOException {
+        out.writeBoolean(grams != null);
+        writePostings(out, exact, ordinals);
+        if (grams != null) {
+            writePostings(out, grams, ordinals);
+        }
+    }
+
+    @Override
+    public boolean readSnapshot(DataInput in, IntFunction<String> ids) throws IOException {
+        // the sorted map is rebuilt from the hash map, but trigrams cannot be derived cheaply
+        boolean substring = in.readBoolean();
+        if (substring != (grams != null)) {
+            return false;
+        }
+
+        exact.clear();
+        readPostings(in, exact, ids);
+        if (sorted != null) {
+            sorted.clear();
+            sorted.putAll(exact);
+        }
+        if (grams != null) {
+            grams.clear();
+            readPostings(in, grams, ids);
+        }
+        return true;
+    }
+
+    /**
+     * @return ids of resources with a value equal to {@code value}
+     */
+    public Set<String> equalTo(Object value) {
+        Set<String> ids = exact.get(normalize(value));
+        return ids != null ? ids : Collections.emptySet();
+    }
+
+    /**
+     * @return ids of resources with a value starting with {@code prefix}, in the order of their values
+     * @throws UnsupportedOperationException if this index is not ordered
+     */
+    public Set<String> startingWith(Object prefix) {
+        String key = normalize(prefix);
+        return union(ordered().subMap(key, true, key + Character.MAX_VALUE, false));
+    }
+
+    /**
+     * @return ids of resources with a value in the given range, in the order of their values, either bound may be
+     * {@code null} for an open range
+     * @throws UnsupportedOperationException if this index is not ordered
+     */
+    public Set<String> range(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        NavigableMap<String, Set<String>> range = ordered();
+        if (from != null) {
+            range = range.tailMap(normalize(from), fromInclusive);
+        }
+        if (to != null) {
+            range = range.headMap(normalize(to), toInclusive);
+        }
+        return union(range);
+    }
+
+    /**
+     * @return a read-only view of the ordered index, from value to the ids of resources holding it
+     * @throws UnsupportedOperationException if this index is not ordered
+     */
+    public NavigableMap<String, Set<String>> postings(boolean ascending) {
+        NavigableMap<String, Set<String>> postings = ascending ? ordered() : ordered().descendingMap();
+        return Collections.unmodifiableNavigableMap(postings);
+    }
+
+    /**
+     * Returns a superset of the ids of resources with a value containing {@code fragment}, or {@code null} when the
+     * fragment is too short to be answered from the trigram index.
+     * @throws UnsupportedOperationException if this index does not support substring lookups
+     */
+    public Set<String> containing(Object fragment) {
+        if (grams == null) {
+            throw new UnsupportedOperationException("Index does not support substring lookups");
+        }
+        String key = normalize(fragment);
+        if (key.length() < GRAM_LENGTH) {
+            return null;
+        }
+
+        List<Set<String>> postings = new ArrayList<>(key.length() - GRAM_LENGTH + 1);
+        Set<String> rarest = null;
+        int rarestSize = Integer.MAX_VALUE;
+        for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+            Set<String> ids = grams.get(key.substring(i, i + GRAM_LENGTH));
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+            if (ids instanceof CommonGram) {
+                continue;
+            }
+            postings.add(ids);
+            int size = ids.size();
+            if (size < rarestSize) {
+                rarest = ids;
+                rarestSize = size;
+            }
+        }
+        if (rarest == null) {
+            // every trigram is common, the values themselves are far fewer than the resources holding them
+            return idsOfValuesContaining(key);
+        }
+
+        // only the ids of the rarest trigram are looked up in the others
+        Set<String> result = new HashSet<>();
+        candidates:
+        for (String id : rarest) {
+            for (Set<String> ids : postings) {
+                if (ids != rarest && !ids.contains(id)) {
+                    continue candidates;
+                }
+            }
+            result.add(id);
+        }
+        return result;
+    }
+
+    private NavigableMap<String, Set<String>> ordered() {
+        if (sorted == null) {
+            throw new UnsupportedOperationException("Index does not support ordered lookups");
+        }
+        return sorted;
+    }
+
+    private void addKey(String key, List<String> ids) {
+        // all changes to a key's posting set go through the hash map's per-key compute, which also orders the
+        // matching updates of the sorted map
+        exact.compute(key, (k, postings) -> {
+            Set<String> updated = withIds(postings, ids);
+            if (sorted != null && updated != postings) {
+                sorted.put(k, updated);
+            }
+            return updated;
+        });
+    }
+
+    private void removeKey(String id, String key) {
+        exact.computeIfPresent(key, (k, postings) -> {
+            Set<String> updated = withoutId(postings, id);
+            if (sorted != null && updated == null) {
+                sorted.remove(k);
+            }
+            return updated;
+        });
+    }
+
+    private void addPostings(String gram, List<String> ids) {
+        grams.compute(gram, (g, gramIds) -> {
+            if (gramIds instanceof CommonGram) {
+                return new CommonGram(gramIds.size() + ids.size());
+            }
+            Set<String> updated = withIds(gramIds, ids);
+            return updated.size() > maxGramPostings ? new CommonGram(updated.size()) : updated;
+        });
+    }
+
+    private void removePosting(String gram, String id) {
+        grams.computeIfPresent(gram, (g, gramIds) -> {
+            if (!(gramIds instanceof CommonGram)) {
+                return withoutId(gramIds, id);
+            }
+            int count = gramIds.size() - 1;
+            // the postings are only rebuilt after many removals, so a count that is off, like that of an older
+            // snapshot, only delays the rebuild, which counts them again
+            return count > maxGramPostings / 2 ? new CommonGram(count) : gramPostings(g);
+        });
+    }
+
+    /**
+     * @return the postings of a trigram, rebuilt from the values holding it
+     */
+    private Set<String> gramPostings(String gram) {
+        Set<String> ids = idsOfValuesContaining(gram);
+        if (ids.isEmpty()) {
+            return null;
+        }
+        if (ids.size() > maxGramPostings) {
+            return new CommonGram(ids.size());
+        }
+        Set<String> postings = ConcurrentHashMap.newKeySet(ids.size());
+        postings.addAll(ids);
+        return postings;
+    }
+
+    private Set<String> idsOfValuesContaining(String fragment) {
+        Set<String> ids = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : exact.entrySet()) {
+            if (entry.getKey().contains(fragment)) {
+                ids.addAll(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return {@code postings} with {@code ids} added, which is a new set if {@code postings} could not hold them
+     */
+    private static Set<String> withIds(Set<String> postings, List<String> ids) {
+        if (postings instanceof ConcurrentHashMap.KeySetView) {
+            postings.addAll(ids);
+            return postings;
+        }
+        if (postings == null && ids.size() == 1) {
+            return Collections.singleton(ids.get(0));
+        }
+        if (postings != null && ids.size() == 1 && postings.contains(ids.get(0))) {
+            return postings;
+        }
+        Set<String> shared = ConcurrentHashMap.newKeySet(ids.size() + 1);
+        if (postings != null) {
+            shared.addAll(postings);
+        }
+        shared.addAll(ids);
+        return shared;
+    }
+
+    /**
+     * @return {@code postings} without {@code id}, or {@code null} if no id is left
+     */
+    private static Set<String> withoutId(Set<String> postings, String id) {
+        if (!(postings instanceof ConcurrentHashMap.KeySetView)) {
+            return postings.contains(id) ? null : postings;
+        }
+        postings.remove(id);
+        return postings.isEmpty() ? null : postings;
+    }
+
+    private static void writePostings(DataOutput out, Map<String, Set<String>> postings, ToIntFunction<String> ordinals) throws IOException {
+        out.writeInt(postings.size());
+        for (Map.Entry<String, Set<String>> entry : postings.entrySet()) {
+            SnapshotListener.writeString(out, entry.getKey());
+            Set<String> ids = entry.getValue();
+            if (ids instanceof CommonGram) {
+                out.writeInt(-ids.size());
+                continue;
+            }
+            out.writeInt(ids.size());
+            for (String id : ids) {
+                out.writeInt(ordinals.applyAsInt(id));
+            }
+        }
+    }
+
+    private static void readPostings(DataInput in, Map<String, Set<String>> postings, IntFunction<String> ids) throws IOException {
+        int keyCount = in.readInt();
+        for (int i = 0; i < keyCount; i++) {
+            String key = SnapshotListener.readString(in);
+            int idCount = in.readInt();
+            if (idCount < 0) {
+                postings.put(key, new CommonGram(-idCount));
+                continue;
+            }
+            if (idCount == 1) {
+                postings.put(key, Collections.singleton(ids.apply(in.readInt())));
+                continue;
+            }
+            Set<String> keyIds = ConcurrentHashMap.newKeySet(idCount);
+            for (int j = 0; j < idCount; j++) {
+                keyIds.add(ids.apply(in.readInt()));
+            }
+            postings.put(key, keyIds);
+        }
+    }
+
+    private static Set<String> gramsOf(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new HashSet<>();
+        for (String key : keys) {
+            for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+                result.add(key.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> union(Map<String, Set<String>> postings) {
+        // keeps the order of the postings, so callers can page through a range in order
+        Set<String> result = new LinkedHashSet<>();
+        for (Set<String> ids : postings.values()) {
+            result.addAll(ids);
+        }
+        return result;
+    }
+
+    /**
+     * Stands for the postings of a trigram held by too many resources to be kept. Its size is the number of those
+     * resources, but it holds none of their ids.
+     */
+    private static final class CommonGram extends AbstractSet<String> {
+
+        private final int count;
+
+        CommonGram(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
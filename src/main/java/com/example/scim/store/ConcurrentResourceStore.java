@@ -0,0 +1,90 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-safe in-memory store of resources keyed by their id.
+ * <p>
+ * Reads never lock. Writes to the same id are serialized by one of a fixed number of lock stripes, so the
+ * check-and-insert done by {@link #create(String, Object)} and the read-modify-write done by
+ * {@link #update(String, UnaryOperator)} are atomic without a global lock. Writers of unrelated ids only contend when
+ * their ids hash to the same stripe.
+ * <p>
+ * Stored objects are treated as immutable: writers replace them rather than mutating them in place.
+ * {@link StoreListener Listeners} are notified of every write while its lock is held.
+ *
+ * @param <T> the stored resource type
+ */
+public class ConcurrentResourceStore<T> extends AbstractResourceStore<T> {
+
+    private final ConcurrentMap<String, T> resources = new ConcurrentHashMap<>();
+
+    public ConcurrentResourceStore() {
+    }
+
+    /**
+     * @param stripeCount the number of write locks, rounded up to a power of two
+     */
+    public ConcurrentResourceStore(int stripeCount) {
+        super(stripeCount);
+    }
+
+    @Override
+    public T get(String id) {
+        return resources.get(id);
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return resources.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return resources.size();
+    }
+
+    @Override
+    public Collection<T> values() {
+        return Collections.unmodifiableCollection(resources.values());
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, T> action) {
+        resources.forEach(action);
+    }
+
+    @Override
+    protected void write(String id, T resource) {
+        resources.put(id, resource);
+    }
+
+    @Override
+    protected void delete(String id) {
+        resources.remove(id);
+    }
+}
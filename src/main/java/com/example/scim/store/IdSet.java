@@ -0,0 +1,391 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Immutable set of resource ids whose versions share their structure, such as the members of a group. Adding or
+ * removing an id copies the few short arrays on the path to it rather than the whole set, so a set of a million ids
+ * changes in constant time, and {@link #diff(IdSet, IdSet, Consumer, Consumer) comparing} two versions only visits
+ * the parts in which they differ.
+ * <p>
+ * The ids are kept in a hash array mapped trie, placed by the hash of their {@link AttributeIndex#normalize(Object)
+ * normalized} form, so ids differing only in case are found together. The set does not hold {@code null}.
+ */
+public final class IdSet extends AbstractSet<String> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    // the last level taking bits of the hash, ids with equal hashes share one node below it
+    private static final int MAX_SHIFT = 30;
+
+    // levels taking bits of the hash, and the one below them
+    private static final int MAX_DEPTH = MAX_SHIFT / BITS + 2;
+
+    private static final IdSet EMPTY = new IdSet(Node.EMPTY, 0);
+
+    private final Node root;
+
+    private final int size;
+
+    private IdSet(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static IdSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return {@code ids} if it is an {@code IdSet}, otherwise a set of the same ids
+     */
+    public static IdSet of(Collection<String> ids) {
+        if (ids instanceof IdSet) {
+            return (IdSet) ids;
+        }
+        return ids != null ? EMPTY.plusAll(ids) : EMPTY;
+    }
+
+    /**
+     * @return a set with {@code id} added, or this set if it already holds it
+     */
+    public IdSet plus(String id) {
+        if (id == null) {
+            throw new NullPointerException("An IdSet does not hold null");
+        }
+        Node updated = root.plus(id, hash(id), 0);
+        return updated == root ? this : new IdSet(updated, size + 1);
+    }
+
+    /**
+     * @return a set without {@code id}, or this set if it does not hold it
+     */
+    public IdSet minus(String id) {
+        if (id == null) {
+            return this;
+        }
+        Node updated = root.minus(id, hash(id), 0);
+        return updated == root ? this : new IdSet(updated, size - 1);
+    }
+
+    public IdSet plusAll(Collection<String> ids) {
+        IdSet result = this;
+        for (String id : ids) {
+            result = result.plus(id);
+        }
+        return result;
+    }
+
+    public IdSet minusAll(Collection<String> ids) {
+        IdSet result = this;
+        for (String id : ids) {
+            result = result.minus(id);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(Object id) {
+        if (!(id instanceof String)) {
+            return false;
+        }
+        return root.find(hash((String) id), 0, id::equals);
+    }
+
+    /**
+     * @param key a normalized id
+     * @return whether this set holds an id whose normalized form is {@code key}
+     */
+    boolean containsNormalized(String key) {
+        return root.find(key.hashCode(), 0, id -> AttributeIndex.normalize(id).equals(key));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Ids(root);
+    }
+
+    /**
+     * Calls {@code removed} for every id of {@code before} missing from {@code after} and {@code added} for every id of
+     * {@code after} missing from {@code before}. Parts of the sets shared by both are skipped, so comparing two versions
+     * of a set takes time in proportion to their differences rather than to their size.
+     */
+    public static void diff(IdSet before, IdSet after, Consumer<String> removed, Consumer<String> added) {
+        diff(before.root, after.root, 0, removed, added);
+    }
+
+    private static void diff(Object before, Object after, int shift, Consumer<String> removed, Consumer<String> added) {
+        if (before == after) {
+            return;
+        }
+        if (before instanceof Node && after instanceof Node && shift <= MAX_SHIFT) {
+            Node beforeNode = (Node) before;
+            Node afterNode = (Node) after;
+            for (int branches = beforeNode.bitmap | afterNode.bitmap; branches != 0; branches &= branches - 1) {
+                int bit = Integer.lowestOneBit(branches);
+                diff(beforeNode.slot(bit), afterNode.slot(bit), shift + BITS, removed, added);
+            }
+            return;
+        }
+
+        // an id against a node, or ids with equal hashes, are compared as plain sets, which are small unless many ids
+        // changed below this branch
+        Set<String> beforeIds = ids(before);
+        Set<String> afterIds = ids(after);
+        for (String id : beforeIds) {
+            if (!afterIds.contains(id)) {
+                removed.accept(id);
+            }
+        }
+        for (String id : afterIds) {
+            if (!beforeIds.contains(id)) {
+                added.accept(id);
+            }
+        }
+    }
+
+    private static Set<String> ids(Object slot) {
+        if (slot == null) {
+            return Collections.emptySet();
+        }
+        if (slot instanceof String) {
+            return Collections.singleton((String) slot);
+        }
+        Set<String> ids = new HashSet<>();
+        for (Iterator<String> iterator = new Ids((Node) slot); iterator.hasNext(); ) {
+            ids.add(iterator.next());
+        }
+        return ids;
+    }
+
+    private static int hash(String id) {
+        return AttributeIndex.normalize(id).hashCode();
+    }
+
+    /**
+     * A level of the trie. Below {@link #MAX_SHIFT} a node holds the ids whose hashes are all equal, in no order and
+     * without a bitmap.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        // the branches taken, one bit for each 5 bits of the hash
+        final int bitmap;
+
+        // per branch taken, in order, the id in it or the node below it
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Object slot(int bit) {
+            return (bitmap & bit) != 0 ? slots[index(bit)] : null;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        boolean find(int hash, int shift, Predicate<String> matches) {
+            if (shift > MAX_SHIFT) {
+                for (Object slot : slots) {
+                    if (matches.test((String) slot)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            Object slot = slot(bit(hash, shift));
+            if (slot instanceof Node) {
+                return ((Node) slot).find(hash, shift + BITS, matches);
+            }
+            return slot != null && matches.test((String) slot);
+        }
+
+        Node plus(String id, int hash, int shift) {
+            if (shift > MAX_SHIFT) {
+                for (Object slot : slots) {
+                    if (slot.equals(id)) {
+                        return this;
+                    }
+                }
+                return new Node(0, insert(slots, slots.length, id));
+            }
+
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                return new Node(bitmap | bit, insert(slots, index, id));
+            }
+            Object slot = slots[index];
+            if (slot instanceof Node) {
+                Node child = (Node) slot;
+                Node updated = child.plus(id, hash, shift + BITS);
+                return updated == child ? this : new Node(bitmap, replace(slots, index, updated));
+            }
+            if (slot.equals(id)) {
+                return this;
+            }
+            String other = (String) slot;
+            return new Node(bitmap, replace(slots, index, pair(other, hash(other), id, hash, shift + BITS)));
+        }
+
+        Node minus(String id, int hash, int shift) {
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < slots.length; i++) {
+                    if (slots[i].equals(id)) {
+                        return new Node(0, remove(slots, i));
+                    }
+                }
+                return this;
+            }
+
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slot = slots[index];
+            if (slot instanceof Node) {
+                Node child = (Node) slot;
+                Node updated = child.minus(id, hash, shift + BITS);
+                if (updated == child) {
+                    return this;
+                }
+                // a node left with a single id is replaced by the id, so each node holds at least two ids
+                boolean single = updated.slots.length == 1 && !(updated.slots[0] instanceof Node);
+                return new Node(bitmap, replace(slots, index, single ? updated.slots[0] : updated));
+            }
+            if (!slot.equals(id)) {
+                return this;
+            }
+            return new Node(bitmap & ~bit, remove(slots, index));
+        }
+
+        private static Node pair(String first, int firstHash, String second, int secondHash, int shift) {
+            if (shift > MAX_SHIFT) {
+                return new Node(0, new Object[] {first, second});
+            }
+            int firstBit = bit(firstHash, shift);
+            int secondBit = bit(secondHash, shift);
+            if (firstBit == secondBit) {
+                return new Node(firstBit, new Object[] {pair(first, firstHash, second, secondHash, shift + BITS)});
+            }
+            Object[] slots = firstBit < secondBit ? new Object[] {first, second} : new Object[] {second, first};
+            return new Node(firstBit | secondBit, slots);
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private static Object[] insert(Object[] slots, int index, Object slot) {
+            Object[] inserted = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, inserted, 0, index);
+            inserted[index] = slot;
+            System.arraycopy(slots, index, inserted, index + 1, slots.length - index);
+            return inserted;
+        }
+
+        private static Object[] replace(Object[] slots, int index, Object slot) {
+            Object[] replaced = slots.clone();
+            replaced[index] = slot;
+            return replaced;
+        }
+
+        private static Object[] remove(Object[] slots, int index) {
+            Object[] removed = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, removed, 0, index);
+            System.arraycopy(slots, index + 1, removed, index, slots.length - index - 1);
+            return removed;
+        }
+    }
+
+    private static final class Ids implements Iterator<String> {
+
+        private final Node[] nodes = new Node[MAX_DEPTH];
+
+        private final int[] positions = new int[MAX_DEPTH];
+
+        private int depth;
+
+        private String next;
+
+        Ids(Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String id = next;
+            advance();
+            return id;
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (positions[depth] == node.slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = node.slots[positions[depth]++];
+                if (slot instanceof Node) {
+                    depth++;
+                    nodes[depth] = (Node) slot;
+                    positions[depth] = 0;
+                } else {
+                    next = (String) slot;
+                    return;
+                }
+            }
+        }
+    }
+}
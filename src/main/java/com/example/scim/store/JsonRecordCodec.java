@@ -0,0 +1,57 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+
+/**
+ * Stores resources as JSON, using their bean properties.
+ *
+ * @param <T> the stored resource type
+ */
+public class JsonRecordCodec<T> implements RecordCodec<T> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final ObjectReader reader;
+
+    private final ObjectWriter writer;
+
+    public JsonRecordCodec(Class<T> type) {
+        this.reader = OBJECT_MAPPER.readerFor(type);
+        this.writer = OBJECT_MAPPER.writerFor(type);
+    }
+
+    @Override
+    public byte[] encode(T resource) throws IOException {
+        return writer.writeValueAsBytes(resource);
+    }
+
+    @Override
+    public T decode(byte[] bytes, int offset, int length) throws IOException {
+        return reader.readValue(bytes, offset, length);
+    }
+}
@@ -0,0 +1,764 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Embedded on-disk store that keeps resources in an append-only log of memory-mapped segment files.
+ * <p>
+ * Every write appends a record to the active segment and points the in-memory id table at it; reads decode the
+ * record straight from the mapped segment, so only the id table lives on the heap. When more than half of the log is
+ * taken up by overwritten or deleted records, a background compaction copies the live records into fresh segments,
+ * a compacted snapshot of the store, and deletes the old ones.
+ * <p>
+ * {@link #close()} writes a binary snapshot holding the id table and the state of every {@link SnapshotListener},
+ * such as the {@link AttributeIndex secondary indexes}. On open, the snapshot is memory-mapped and only the log
+ * written after it is replayed; index sections are restored when their listener is registered, then brought up to
+ * date with the replayed tail, so neither the table nor the indexes are rebuilt by decoding every record. Without a
+ * usable snapshot all segments are replayed. A record that was only partially written (detected by its length or
+ * checksum) ends the replay of its segment. Records reach the OS page cache as soon as they are written, so they
+ * survive a restart of the process; they are only forced to the disk on compaction and {@link #close()}.
+ * <p>
+ * Record layout: {@code int length | byte op | int idLength | id (UTF-8) | payload | int crc32}, where
+ * {@code length} covers everything after itself and the checksum covers {@code op} to the end of the payload.
+ * Snapshot layout: {@code long magic | int segment | int offset | long totalBytes | long garbageBytes | int idCount |
+ * (id, long location)* | int sectionCount | (name, int length, bytes)* | int crc32}, where strings are written by
+ * {@link SnapshotListener#writeString(DataOutput, String)} and the checksum covers everything before it.
+ *
+ * @param <T> the stored resource type
+ */
+public class LogResourceStore<T> extends AbstractResourceStore<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogResourceStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    // op, id length and checksum, in addition to the length field itself
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    private static final long SNAPSHOT_MAGIC = 0x5343494d534e5031L; // SCIMSNP1
+
+    private final Path directory;
+
+    private final String name;
+
+    private final Pattern segmentPattern;
+
+    private final Path snapshotFile;
+
+    private final RecordCodec<T> codec;
+
+    private final int segmentSize;
+
+    private final ConcurrentMap<String, Long> locations = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Object appendLock = new Object();
+
+    // guarded by appendLock
+    private Segment active;
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final AtomicLong garbageBytes = new AtomicLong();
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private final ExecutorService compactor;
+
+    private volatile boolean closed;
+
+    // the snapshot loaded on open, until the first write makes its listener sections stale
+    private volatile Snapshot snapshot;
+
+    public LogResourceStore(Path directory, String name, RecordCodec<T> codec) throws IOException {
+        this(directory, name, codec, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the store, replaying any segments left in {@code directory} by a previous instance.
+     *
+     * @param name prefix of the segment files, so several stores can share a directory
+     * @param segmentSize the size of each segment file, records larger than this get a segment of their own
+     */
+    public LogResourceStore(Path directory, String name, RecordCodec<T> codec, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.segmentPattern = Pattern.compile(Pattern.quote(name) + "-(\\d+)\\.seg");
+        this.snapshotFile = directory.resolve(name + ".snapshot");
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scim-store-compactor-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long openedAt = System.nanoTime();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*.seg")) {
+            for (Path file : files) {
+                Matcher matcher = segmentPattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    int number = Integer.parseInt(matcher.group(1));
+                    segments.put(number, Segment.open(number, file));
+                }
+            }
+        }
+        Snapshot loaded = loadSnapshot();
+        for (Segment segment : segments.values()) {
+            if (loaded != null && segment.number < loaded.segment) {
+                // already covered by the snapshot
+                continue;
+            }
+            int start = loaded != null && segment.number == loaded.segment ? loaded.offset : 0;
+            replay(segment, start, loaded != null ? loaded.tail : null);
+            if (segment.position == 0) {
+                segments.remove(segment.number);
+                segment.close();
+                Files.delete(segment.path);
+            }
+        }
+        snapshot = loaded;
+        LOG.info("Opened store '{}' with {} resources in {} ms, {}", name, locations.size(),
+                (System.nanoTime() - openedAt) / 1_000_000,
+                loaded != null ? "replayed " + loaded.tail.size() + " writes after the snapshot" : "replayed the whole log");
+
+        // never append behind a partially written record, a new segment starts clean
+        synchronized (appendLock) {
+            roll(0);
+        }
+    }
+
+    @Override
+    public T get(String id) {
+        while (true) {
+            Long location = locations.get(id);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(segmentOf(location));
+            if (segment != null) {
+                return decode(segment, offsetOf(location));
+            }
+            // the segment was compacted away after the location was read, the id now points into a newer segment
+        }
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return locations.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return locations.size();
+    }
+
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<String> ids = locations.keySet().iterator();
+                return new Iterator<T>() {
+
+                    private T next;
+
+                    @Override
+                    public boolean hasNext() {
+                        // skip ids removed since the iterator returned them
+                        while (next == null && ids.hasNext()) {
+                            next = get(ids.next());
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public T next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        T result = next;
+                        next = null;
+                        return result;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return locations.size();
+            }
+        };
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, T> action) {
+        for (String id : locations.keySet()) {
+            T resource = get(id);
+            if (resource != null) {
+                action.accept(id, resource);
+            }
+        }
+    }
+
+    /**
+     * Restores a {@link SnapshotListener} from its section of the snapshot loaded on open, if there is one and no
+     * write happened since, and replays the log written after the snapshot to it.
+     */
+    @Override
+    protected void initialize(StoreListener<T> listener) {
+        Snapshot loaded = snapshot;
+        if (loaded != null && listener instanceof SnapshotListener) {
+            SnapshotListener<T> snapshotListener = (SnapshotListener<T>) listener;
+            ByteBuffer section = snapshotListener.getSnapshotName() != null ? loaded.sections.get(snapshotListener.getSnapshotName()) : null;
+            try {
+                if (section != null && snapshotListener.readSnapshot(new DataInputStream(new ByteBufferInputStream(section.duplicate())), i -> loaded.ids[i])) {
+                    for (TailWrite write : loaded.tail) {
+                        listener.onWrite(write.id, write.previous >= 0 ? read(write.previous) : null, write.current >= 0 ? read(write.current) : null);
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to restore '" + snapshotListener.getSnapshotName() + "' from " + snapshotFile, e);
+            }
+        }
+        super.initialize(listener);
+    }
+
+    @Override
+    protected void write(String id, T resource) {
+        snapshot = null;
+        byte[] payload;
+        try {
+            payload = codec.encode(resource);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode '" + id + "'", e);
+        }
+        Long previous = locations.put(id, append(PUT, id, payload));
+        if (previous != null) {
+            garbageBytes.addAndGet(recordSize(previous));
+        }
+        maybeCompact();
+    }
+
+    @Override
+    protected void delete(String id) {
+        snapshot = null;
+        long location = append(DELETE, id, new byte[0]);
+        Long previous = locations.remove(id);
+        // the delete record itself is garbage as soon as it is written, it is only needed until the next compaction
+        garbageBytes.addAndGet(recordSize(location) + (previous != null ? recordSize(previous) : 0));
+        maybeCompact();
+    }
+
+    /**
+     * Rewrites the live records into new segments and deletes the old ones. Writers are blocked while this runs,
+     * readers are not.
+     */
+    public void compact() throws IOException {
+        lockAll();
+        try {
+            synchronized (appendLock) {
+                // the snapshot points into the segments about to be deleted
+                snapshot = null;
+                Files.deleteIfExists(snapshotFile);
+
+                List<Segment> obsolete = new ArrayList<>(segments.values());
+                roll(0);
+                int firstCompacted = active.number;
+
+                long total = 0;
+                for (Map.Entry<String, Long> entry : locations.entrySet()) {
+                    byte[] record = readRecord(entry.getValue());
+                    entry.setValue(appendRecord(record));
+                    total += record.length;
+                }
+                for (Segment segment : segments.tailMap(firstCompacted).values()) {
+                    segment.buffer.force();
+                }
+
+                // concurrent readers holding an old location retry through the id table, see get()
+                for (Segment segment : obsolete) {
+                    segments.remove(segment.number);
+                    segment.close();
+                    Files.deleteIfExists(segment.path);
+                }
+                totalBytes.set(total);
+                garbageBytes.set(0);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Forces all segments to disk and releases their files. The store cannot be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lockAll();
+        try {
+            synchronized (appendLock) {
+                for (Segment segment : segments.values()) {
+                    segment.buffer.force();
+                }
+                writeSnapshot();
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // must hold all stripes and appendLock
+    private void writeSnapshot() throws IOException {
+        Path temporary = directory.resolve(name + ".snapshot.tmp");
+        Map<String, Integer> ordinals = new HashMap<>(locations.size() * 2);
+        CRC32 crc = new CRC32();
+
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary)), crc))) {
+            out.writeLong(SNAPSHOT_MAGIC);
+            out.writeInt(active.number);
+            out.writeInt(active.position);
+            out.writeLong(totalBytes.get());
+            out.writeLong(garbageBytes.get());
+
+            out.writeInt(locations.size());
+            for (Map.Entry<String, Long> entry : locations.entrySet()) {
+                ordinals.put(entry.getKey(), ordinals.size());
+                SnapshotListener.writeString(out, entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+
+            List<SnapshotListener<T>> snapshotListeners = new ArrayList<>();
+            for (StoreListener<T> listener : getListeners()) {
+                if (listener instanceof SnapshotListener && ((SnapshotListener<T>) listener).getSnapshotName() != null) {
+                    snapshotListeners.add((SnapshotListener<T>) listener);
+                }
+            }
+            out.writeInt(snapshotListeners.size());
+            for (SnapshotListener<T> listener : snapshotListeners) {
+                ByteArrayOutputStream section = new ByteArrayOutputStream();
+                listener.writeSnapshot(new DataOutputStream(section), ordinals::get);
+                SnapshotListener.writeString(out, listener.getSnapshotName());
+                out.writeInt(section.size());
+                section.writeTo(out);
+            }
+
+            out.flush();
+            out.writeInt((int) crc.getValue());
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps the snapshot file and reads its id table into {@link #locations}, listener sections are only read when
+     * their listener is registered.
+     * @return the snapshot, or {@code null} if there is none or it cannot be used
+     */
+    private Snapshot loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < 8 + 4 || buffer.getLong(0) != SNAPSHOT_MAGIC) {
+            LOG.warn("Ignoring {}, it is not a snapshot", snapshotFile);
+            return null;
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.limit(buffer.capacity() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(buffer.capacity() - 4)) {
+            LOG.warn("Ignoring {}, its checksum does not match", snapshotFile);
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+        in.readLong();
+        Snapshot loaded = new Snapshot(in.readInt(), in.readInt());
+        // a snapshot taken in an empty segment stays valid after that segment was deleted as empty
+        if (loaded.offset > 0 && !segments.containsKey(loaded.segment)) {
+            LOG.warn("Ignoring {}, the log it was taken from is missing", snapshotFile);
+            return null;
+        }
+        long total = in.readLong();
+        long garbage = in.readLong();
+
+        loaded.ids = new String[in.readInt()];
+        Map<String, Long> table = new HashMap<>(loaded.ids.length * 2);
+        for (int i = 0; i < loaded.ids.length; i++) {
+            loaded.ids[i] = SnapshotListener.readString(in);
+            table.put(loaded.ids[i], in.readLong());
+        }
+
+        int sectionCount = in.readInt();
+        for (int i = 0; i < sectionCount; i++) {
+            String sectionName = SnapshotListener.readString(in);
+            int length = in.readInt();
+            ByteBuffer section = buffer.duplicate();
+            section.position(buffer.position());
+            section.limit(buffer.position() + length);
+            loaded.sections.put(sectionName, section.slice());
+            buffer.position(buffer.position() + length);
+        }
+
+        locations.putAll(table);
+        totalBytes.set(total);
+        garbageBytes.set(garbage);
+        return loaded;
+    }
+
+    private void replay(Segment segment, int start, List<TailWrite> tail) {
+        int offset = start;
+        while (offset + 4 <= segment.capacity) {
+            int length = segment.buffer.getInt(offset);
+            // a zero length marks the end of the written part of the segment
+            if (length < RECORD_OVERHEAD || offset + 4 + length > segment.capacity || !checksumMatches(segment, offset, length)) {
+                if (length != 0) {
+                    LOG.warn("Ignoring a partially written record at offset {} of {}", offset, segment.path);
+                }
+                break;
+            }
+
+            long location = location(segment.number, offset);
+            String id = readId(segment, offset);
+            boolean put = segment.buffer.get(offset + 4) == PUT;
+            Long previous = put ? locations.put(id, location) : locations.remove(id);
+            if (previous != null) {
+                garbageBytes.addAndGet(recordSize(previous));
+            }
+            if (tail != null) {
+                tail.add(new TailWrite(id, previous != null ? previous : -1, put ? location : -1));
+            }
+            if (segment.buffer.get(offset + 4) == DELETE) {
+                garbageBytes.addAndGet(4 + length);
+            }
+            totalBytes.addAndGet(4 + length);
+            offset += 4 + length;
+        }
+        segment.position = offset;
+    }
+
+    private long append(byte op, String id, byte[] payload) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_OVERHEAD + idBytes.length + payload.length;
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length).put(op).putInt(idBytes.length).put(idBytes).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length - 4);
+        record.putInt((int) crc.getValue());
+
+        synchronized (appendLock) {
+            return appendRecord(record.array());
+        }
+    }
+
+    // must hold appendLock
+    private long appendRecord(byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("Store '" + name + "' is closed");
+        }
+        if (active.position + record.length > active.capacity) {
+            roll(record.length);
+        }
+
+        // write the length last, so a record is never visible to a replay before it is complete
+        ByteBuffer target = active.buffer.duplicate();
+        target.position(active.position + 4);
+        target.put(record, 4, record.length - 4);
+        target.putInt(active.position, ByteBuffer.wrap(record).getInt(0));
+
+        long location = location(active.number, active.position);
+        active.position += record.length;
+        totalBytes.addAndGet(record.length);
+        return location;
+    }
+
+    // must hold appendLock
+    private void roll(int minimumCapacity) {
+        int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Path file = directory.resolve(name + "-" + number + ".seg");
+        try {
+            active = Segment.create(number, file, Math.max(segmentSize, minimumCapacity));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create segment " + file, e);
+        }
+        segments.put(number, active);
+    }
+
+    private void maybeCompact() {
+        long garbage = garbageBytes.get();
+        if (garbage < segmentSize || garbage < totalBytes.get() / 2 || closed || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Compaction of store '{}' failed", name, e);
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    private T read(long location) {
+        return decode(segments.get(segmentOf(location)), offsetOf(location));
+    }
+
+    private T decode(Segment segment, int offset) {
+        int length = segment.buffer.getInt(offset);
+        int idLength = segment.buffer.getInt(offset + 5);
+        int payloadOffset = offset + 9 + idLength;
+        int payloadLength = offset + length - payloadOffset;
+
+        byte[] payload = new byte[payloadLength];
+        ByteBuffer source = segment.buffer.duplicate();
+        source.position(payloadOffset);
+        source.get(payload);
+        try {
+            return codec.decode(payload, 0, payloadLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode record at offset " + offset + " of " + segment.path, e);
+        }
+    }
+
+    private byte[] readRecord(long location) {
+        Segment segment = segments.get(segmentOf(location));
+        int offset = offsetOf(location);
+        byte[] record = new byte[4 + segment.buffer.getInt(offset)];
+        ByteBuffer source = segment.buffer.duplicate();
+        source.position(offset);
+        source.get(record);
+        return record;
+    }
+
+    private int recordSize(long location) {
+        Segment segment = segments.get(segmentOf(location));
+        return segment != null ? 4 + segment.buffer.getInt(offsetOf(location)) : 0;
+    }
+
+    private static String readId(Segment segment, int offset) {
+        byte[] id = new byte[segment.buffer.getInt(offset + 5)];
+        ByteBuffer source = segment.buffer.duplicate();
+        source.position(offset + 9);
+        source.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private static boolean checksumMatches(Segment segment, int offset, int length) {
+        ByteBuffer content = segment.buffer.duplicate();
+        content.position(offset + 4);
+        content.limit(offset + length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue() == segment.buffer.getInt(offset + length);
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * A segment file mapped into memory in full. Mappings stay valid after the file is closed or deleted, which lets
+     * readers finish with a segment that is being compacted away.
+     */
+    private static final class Segment {
+
+        private final int number;
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private final int capacity;
+
+        // end of the written records, guarded by appendLock once the segment is active
+        private int position;
+
+        private Segment(int number, Path path, FileChannel channel, int capacity) throws IOException {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.capacity = capacity;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        static Segment open(int number, Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(number, path, channel, (int) Math.min(channel.size(), Integer.MAX_VALUE));
+        }
+
+        static Segment create(int number, Path path, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE_NEW);
+            // mapping beyond the end of the file extends it, the new part reads as zeros
+            return new Segment(number, path, channel, capacity);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A snapshot loaded on open: the log position it was taken at, its id table and the listener sections, plus the
+     * writes replayed from the log after it.
+     */
+    private static final class Snapshot {
+
+        private final int segment;
+
+        private final int offset;
+
+        private String[] ids;
+
+        private final Map<String, ByteBuffer> sections = new HashMap<>();
+
+        private final List<TailWrite> tail = new ArrayList<>();
+
+        Snapshot(int segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A write replayed from the log after the snapshot, with the locations of the records before and after it, or
+     * -1 for none.
+     */
+    private static final class TailWrite {
+
+        private final String id;
+
+        private final long previous;
+
+        private final long current;
+
+        TailWrite(String id, long previous, long current) {
+            this.id = id;
+            this.previous = previous;
+            this.current = current;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.store;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+/**
+ * In-memory store that keeps resources serialized outside the heap, so neither the heap nor the work of the garbage
+ * collector grows with the number of stored resources.
+ * <p>
+ * Records are appended to arenas of direct memory, and found through an open-addressing hash table of their
+ * locations, itself in direct memory. Reads decode a new instance from the record every time. Writes append a new
+ * record and point the table at it; once more than half of the arenas is taken up by overwritten or deleted records,
+ * the writer that tips it over copies the live records into fresh arenas. Arenas that are no longer used are released
+ * by the garbage collector like any direct buffer, so the process needs {@code -XX:MaxDirectMemorySize} headroom for
+ * about twice the live records.
+ * <p>
+ * Appending and changing the table are serialized by a single lock, in addition to the per-id stripes. Reads do not
+ * lock: they read optimistically and only fall back to a read lock if a write happened meanwhile. Iteration works on
+ * the locations and arenas at the time it started, so it is weakly consistent and does not block writers.
+ * <p>
+ * Record layout: {@code int idLength | id (UTF-8) | int payloadLength | payload}. Table slot layout:
+ * {@code int hash | long location}, where the location holds the arena index plus one in its upper and the offset in
+ * its lower half, {@code 0} marks a free slot and {@code -1} the slot of a deleted resource.
+ *
+ * @param <T> the stored resource type
+ */
+public class OffHeapResourceStore<T> extends AbstractResourceStore<T> {
+
+    public static final int DEFAULT_ARENA_SIZE = 64 << 20;
+
+    private static final int SLOT_SIZE = 4 + 8;
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    private static final long FREE = 0;
+
+    private static final long DELETED = -1;
+
+    private final RecordCodec<T> codec;
+
+    private final int arenaSize;
+
+    private final StampedLock lock = new StampedLock();
+
+    // written with the lock held for writing, read optimistically
+    private ByteBuffer table;
+
+    private int slots;
+
+    private int tombstones;
+
+    private ByteBuffer[] arenas = new ByteBuffer[0];
+
+    private long usedBytes;
+
+    private long garbageBytes;
+
+    private volatile int size;
+
+    public OffHeapResourceStore(RecordCodec<T> codec) {
+        this(codec, DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * @param arenaSize the size in bytes of the blocks of direct memory records are appended to
+     */
+    public OffHeapResourceStore(RecordCodec<T> codec, int arenaSize) {
+        this.codec = codec;
+        this.arenaSize = arenaSize;
+        this.table = ByteBuffer.allocateDirect(INITIAL_SLOTS * SLOT_SIZE);
+        this.slots = INITIAL_SLOTS;
+    }
+
+    @Override
+    public T get(String id) {
+        byte[] payload = read(id.getBytes(StandardCharsets.UTF_8), hash(id));
+        return payload != null ? decode(payload) : null;
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return read(id.getBytes(StandardCharsets.UTF_8), hash(id)) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Collection<T> values() {
+        Snapshot snapshot = snapshot();
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return snapshot.iterator();
+            }
+
+            @Override
+            public int size() {
+                return snapshot.locations.length;
+            }
+        };
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, T> action) {
+        Snapshot snapshot = snapshot();
+        for (long location : snapshot.locations) {
+            ByteBuffer record = record(snapshot.arenas, location);
+            action.accept(id(record), decode(payload(record)));
+        }
+    }
+
+    /**
+     * @return the bytes of direct memory taken by the arenas and the table
+     */
+    public long getOffHeapBytes() {
+        long stamp = lock.readLock();
+        try {
+            long bytes = table.capacity();
+            for (ByteBuffer arena : arenas) {
+                bytes += arena.capacity();
+            }
+            return bytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    protected void write(String id, T resource) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        byte[] payload;
+        try {
+            payload = codec.encode(resource);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode " + id, e);
+        }
+        int hash = hash(id);
+
+        long stamp = lock.writeLock();
+        try {
+            long location = append(key, payload);
+            int slot = slotOf(key, hash);
+            if (slot >= 0) {
+                garbageBytes += recordSize(locationAt(slot));
+                table.putLong(slot * SLOT_SIZE + 4, location);
+            } else {
+                if ((size + tombstones + 1) * 2L > slots) {
+                    rehash();
+                }
+                insert(hash, location);
+                size++;
+            }
+            if (garbageBytes > usedBytes / 2 && usedBytes > arenaSize) {
+                compact();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    protected void delete(String id) {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(id);
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(key, hash);
+            if (slot >= 0) {
+                garbageBytes += recordSize(locationAt(slot));
+                table.putLong(slot * SLOT_SIZE + 4, DELETED);
+                tombstones++;
+                size--;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Looks up the payload of a record, first without locking, then with the read lock if a write interfered.
+     */
+    private byte[] read(byte[] key, int hash) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                byte[] payload = find(key, hash);
+                if (lock.validate(stamp)) {
+                    return payload;
+                }
+            } catch (RuntimeException e) {
+                // the table or arenas changed while they were read, read again below
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return find(key, hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private byte[] find(byte[] key, int hash) {
+        ByteBuffer table = this.table;
+        ByteBuffer[] arenas = this.arenas;
+        int mask = table.capacity() / SLOT_SIZE - 1;
+        for (int i = 0, slot = hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+            long location = table.getLong(slot * SLOT_SIZE + 4);
+            if (location == FREE) {
+                return null;
+            }
+            if (location != DELETED && table.getInt(slot * SLOT_SIZE) == hash) {
+                ByteBuffer record = record(arenas, location);
+                if (idEquals(record, key)) {
+                    return payload(record);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the slot holding the resource with the given id, or {@code -1}. Called with the write lock held.
+     */
+    private int slotOf(byte[] key, int hash) {
+        int mask = slots - 1;
+        for (int i = 0, slot = hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+            long location = locationAt(slot);
+            if (location == FREE) {
+                return -1;
+            }
+            if (location != DELETED && table.getInt(slot * SLOT_SIZE) == hash && idEquals(record(arenas, location), key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int hash, long location) {
+        int mask = slots - 1;
+        int slot = hash & mask;
+        while (true) {
+            long current = locationAt(slot);
+            if (current == FREE || current == DELETED) {
+                if (current == DELETED) {
+                    tombstones--;
+                }
+                table.putInt(slot * SLOT_SIZE, hash);
+                table.putLong(slot * SLOT_SIZE + 4, location);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Moves the live slots into a new table without tombstones, twice as large if it is more than a quarter full.
+     */
+    private void rehash() {
+        ByteBuffer previous = table;
+        int previousSlots = slots;
+        slots = size * 4L > previousSlots ? previousSlots * 2 : previousSlots;
+        table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        tombstones = 0;
+        for (int slot = 0; slot < previousSlots; slot++) {
+            long location = previous.getLong(slot * SLOT_SIZE + 4);
+            if (location != FREE && location != DELETED) {
+                insert(previous.getInt(slot * SLOT_SIZE), location);
+            }
+        }
+    }
+
+    /**
+     * Copies the live records into fresh arenas, leaving the old ones to the garbage collector.
+     */
+    private void compact() {
+        ByteBuffer[] previous = arenas;
+        arenas = new ByteBuffer[0];
+        usedBytes = 0;
+        garbageBytes = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            long location = locationAt(slot);
+            if (location != FREE && location != DELETED) {
+                ByteBuffer record = record(previous, location);
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                table.putLong(slot * SLOT_SIZE + 4, append(bytes));
+            }
+        }
+    }
+
+    private long append(byte[] key, byte[] payload) {
+        byte[] record = new byte[8 + key.length + payload.length];
+        ByteBuffer.wrap(record).putInt(key.length).put(key).putInt(payload.length).put(payload);
+        return append(record);
+    }
+
+    private long append(byte[] record) {
+        ByteBuffer arena = arenas.length > 0 ? arenas[arenas.length - 1] : null;
+        if (arena == null || arena.remaining() < record.length) {
+            arena = ByteBuffer.allocateDirect(Math.max(arenaSize, record.length));
+            ByteBuffer[] grown = Arrays.copyOf(arenas, arenas.length + 1);
+            grown[arenas.length] = arena;
+            arenas = grown;
+        }
+        long location = ((long) arenas.length << 32) | arena.position();
+        arena.put(record);
+        usedBytes += record.length;
+        return location;
+    }
+
+    private long locationAt(int slot) {
+        return table.getLong(slot * SLOT_SIZE + 4);
+    }
+
+    private long recordSize(long location) {
+        ByteBuffer record = record(arenas, location);
+        return record.remaining();
+    }
+
+    private Snapshot snapshot() {
+        long stamp = lock.readLock();
+        try {
+            long[] locations = new long[size];
+            int count = 0;
+            for (int slot = 0; slot < slots; slot++) {
+                long location = locationAt(slot);
+                if (location != FREE && location != DELETED) {
+                    locations[count++] = location;
+                }
+            }
+            return new Snapshot(arenas, locations);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private T decode(byte[] payload) {
+        try {
+            return codec.decode(payload, 0, payload.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode a record", e);
+        }
+    }
+
+    /**
+     * @return a buffer over the whole record at {@code location}, positioned at its start
+     */
+    private static ByteBuffer record(ByteBuffer[] arenas, long location) {
+        ByteBuffer arena = arenas[(int) (location >>> 32) - 1].duplicate();
+        int offset = (int) location;
+        arena.position(offset);
+        int idLength = arena.getInt(offset);
+        int payloadLength = arena.getInt(offset + 4 + idLength);
+        // only an optimistic read of a location that changed meanwhile can see lengths that make no sense
+        if (idLength < 0 || payloadLength < 0 || (long) offset + 8 + idLength + payloadLength > arena.capacity()) {
+            throw new IllegalStateException("No record at " + location);
+        }
+        arena.limit(offset + 8 + idLength + payloadLength);
+        return arena;
+    }
+
+    /**
+     * @return the id of a record, given a buffer positioned at its start, which is left unchanged
+     */
+    private static String id(ByteBuffer record) {
+        int offset = record.position();
+        byte[] id = new byte[record.getInt(offset)];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = record.get(offset + 4 + i);
+        }
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private static boolean idEquals(ByteBuffer record, byte[] key) {
+        int offset = record.position();
+        if (record.getInt(offset) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (record.get(offset + 4 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the payload of a record, given a buffer positioned at its start
+     */
+    private static byte[] payload(ByteBuffer record) {
+        int offset = record.position();
+        int idLength = record.getInt(offset);
+        record.position(offset + 4 + idLength);
+        byte[] payload = new byte[record.getInt()];
+        record.get(payload);
+        return payload;
+    }
+
+    private static int hash(String id) {
+        int hash = id.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private final class Snapshot {
+
+        private final ByteBuffer[] arenas;
+
+        private final long[] locations;
+
+        private Snapshot(ByteBuffer[] arenas, long[] locations) {
+            this.arenas = arenas;
+            this.locations = locations;
+        }
+
+        private Iterator<T> iterator() {
+            return new Iterator<T>() {
+
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < locations.length;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return decode(payload(record(arenas, locations[next++])));
+                }
+            };
+        }
+    }
+}
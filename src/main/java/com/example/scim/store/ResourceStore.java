@@ -0,0 +1,119 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Storage used by the SCIM providers to keep resources keyed by their id.
+ * <p>
+ * Implementations must make {@link #create(String, Object)}, {@link #replace(String, Object)},
+ * {@link #update(String, UnaryOperator)} and {@link #remove(String)} atomic per id, and notify their
+ * {@link StoreListener listeners} of every write while it is still exclusive, so derived structures such as
+ * {@link AttributeIndex secondary indexes} see writes to the same id in order.
+ * <p>
+ * {@link ConcurrentResourceStore} keeps resources on the heap, {@link OffHeapResourceStore} keeps them serialized in
+ * direct memory and {@link LogResourceStore} keeps them in an append-only log on disk.
+ *
+ * @param <T> the stored resource type
+ */
+public interface ResourceStore<T> extends Closeable {
+
+    /**
+     * Registers a listener and, unless it opts out through {@link StoreListener#isInitializedFromStore()}, replays the
+     * resources that are already stored to it as creates.
+     */
+    void addListener(StoreListener<T> listener);
+
+    /**
+     * @return the resource, or {@code null} if there is none with the given id
+     */
+    T get(String id);
+
+    boolean contains(String id);
+
+    /**
+     * Stores a new resource.
+     * @return {@code false} if a resource with the same id already exists, in which case nothing is changed
+     */
+    boolean create(String id, T resource);
+
+    /**
+     * Stores new resources like {@link #create(String, Object)} does for each of them, stores may do so more cheaply
+     * than one create per resource by locking once for the whole batch.
+     * @return the ids of the resources that were not stored because a resource with the same id already exists
+     */
+    default Set<String> createAll(Map<String, T> resources) {
+        Set<String> existing = new HashSet<>();
+        resources.forEach((id, resource) -> {
+            if (!create(id, resource)) {
+                existing.add(id);
+            }
+        });
+        return existing;
+    }
+
+    /**
+     * Replaces an existing resource.
+     * @return the previous resource, or {@code null} if there was none, in which case nothing is stored
+     */
+    T replace(String id, T resource);
+
+    /**
+     * Atomically replaces an existing resource with the result of applying {@code updater} to it. The updater must
+     * not call back into this store. It returns a new instance rather than changing the stored one, which readers may
+     * be reading without a lock, or {@code null} to leave the resource unchanged without writing it or notifying
+     * listeners.
+     * @return the updated resource, the unchanged resource if the updater returned {@code null}, or {@code null} if
+     * no resource exists with the given id
+     */
+    T update(String id, UnaryOperator<T> updater);
+
+    /**
+     * @return the removed resource, or {@code null} if there was none
+     */
+    T remove(String id);
+
+    int size();
+
+    /**
+     * @return a read-only, weakly consistent view of the stored resources
+     */
+    Collection<T> values();
+
+    /**
+     * Calls {@code action} for every stored resource and its id, weakly consistent like {@link #values()}.
+     */
+    void forEach(BiConsumer<String, T> action);
+
+    /**
+     * Releases the resources held by this store, stores that keep nothing outside the heap need not override this.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,65 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link StoreListener} whose derived state can be saved in a store snapshot and restored from it, instead of
+ * being rebuilt by replaying every stored resource when the store is reopened.
+ * <p>
+ * Resource ids are written as ordinals into the snapshot's id table, which keeps the snapshot compact and lets the
+ * restored state share the store's id strings.
+ *
+ * @param <T> the stored resource type
+ */
+public interface SnapshotListener<T> extends StoreListener<T> {
+
+    /**
+     * @return the name of this listener's snapshot section, unique among the listeners of a store
+     */
+    String getSnapshotName();
+
+    void writeSnapshot(DataOutput out, ToIntFunction<String> ordinals) throws IOException;
+
+    /**
+     * Replaces this listener's state with the state read from a snapshot section.
+     * @return {@code false} if the section is not compatible with this listener, in which case its state must be
+     * left untouched and it is initialized by replaying the stored resources instead
+     */
+    boolean readSnapshot(DataInput in, IntFunction<String> ids) throws IOException;
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package com.example.scim.store;
+
+import java.util.Map;
+
+/**
+ * Receives every write made to a {@link ResourceStore}, used to keep derived structures such as
+ * {@link AttributeIndex secondary indexes} in sync with the stored resources.
+ * <p>
+ * Listeners are called while the write lock for {@code id} is held, so calls for the same id never overlap and
+ * arrive in the order the writes were applied. Calls for different ids may run concurrently.
+ *
+ * @param <T> the stored resource type
+ */
+@FunctionalInterface
+public interface StoreListener<T> {
+
+    /**
+     * @param id the id of the written resource
+     * @param previous the resource before the write, or {@code null} if it was created
+     * @param current the resource after the write, or {@code null} if it was removed
+     */
+    void onWrite(String id, T previous, T current);
+
+    /**
+     * Receives the resources created by one {@link ResourceStore#createAll(Map)}, while the locks of all their ids
+     * are held. Listeners that can apply a batch more cheaply than one write at a time override this.
+     * @param created the created resources by id
+     */
+    default void onCreateAll(Map<String, T> created) {
+        created.forEach((id, resource) -> onWrite(id, null, resource));
+    }
+
+    /**
+     * @return whether the resources already stored are replayed to this listener as creates when it is added,
+     * listeners that only react to later changes, such as caches, return {@code false}
+     */
+    default boolean isInitializedFromStore() {
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+
+* http://www.apache.org/licenses/LICENSE-2.0
+
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+
+package com.example.scim.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded cache of a derived view of stored resources, such as their SCIM representation, so reads of unchanged
+ * resources do not rebuild it.
+ * <p>
+ * An entry is only used for the resource version it was built from: {@link #get(String, Object)} compares the
+ * resource it is given with the one the cached view was built from, first by identity and then with
+ * {@link Object#equals(Object)} for stores that decode a new instance on every read. Entries are also dropped when
+ * their resource is written, so superseded versions do not take up space until they are evicted.
+ * <p>
+ * The cache is split into segments, each evicting its least recently used entries once it holds more than its share
+ * of the capacity. Views are handed out through the copy function given to the cache, so callers that modify them get
+ * copies of their own.
+ *
+ * @param <T> the stored resource type
+ * @param <V> the view type
+ */
+public class ViewCache<T, V> implements StoreListener<T> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Function<T, V> view;
+
+    private final UnaryOperator<V> copy;
+
+    private final Segment<T, V>[] segments;
+
+    /**
+     * @param capacity the maximum number of cached views
+     * @param view builds the view of a resource
+     * @param copy copies a cached view for a caller, who may modify the copy, or {@link UnaryOperator#identity()}
+     *             for views that are never modified
+     */
+    @SuppressWarnings("unchecked")
+    public ViewCache(int capacity, Function<T, V> view, UnaryOperator<V> copy) {
+        this.view = view;
+        this.copy = copy;
+        this.segments = (Segment<T, V>[]) new Segment<?, ?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(Math.max(1, capacity / SEGMENTS));
+        }
+    }
+
+    /**
+     * @param id the id of the resource
+     * @param resource the current version of the resource, may be {@code null}
+     * @return the view of {@code resource}, or {@code null} if the resource is {@code null}
+     */
+    public V get(String id, T resource) {
+        if (resource == null) {
+            return null;
+        }
+
+        Segment<T, V> segment = segmentFor(id);
+        CachedView<T, V> cached;
+        synchronized (segment) {
+            cached = segment.get(id);
+        }
+        if (cached != null && (cached.resource == resource || cached.resource.equals(resource))) {
+            return copy.apply(cached.view);
+        }
+
+        // built outside the lock, a concurrent write may make this entry stale right away, in which case the next
+        // read does not match it and replaces it
+        V built = view.apply(resource);
+        synchronized (segment) {
+            segment.put(id, new CachedView<>(resource, built));
+        }
+        return copy.apply(built);
+    }
+
+    @Override
+    public void onWrite(String id, T previous, T current) {
+        Segment<T, V> segment = segmentFor(id);
+        synchronized (segment) {
+            segment.remove(id);
+        }
+    }
+
+    @Override
+    public boolean isInitializedFromStore() {
+        return false;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<T, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<T, V> segmentFor(String id) {
+        int hash = Objects.hashCode(id);
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static final class CachedView<T, V> {
+
+        private final T resource;
+
+        private final V view;
+
+        private CachedView(T resource, V view) {
+            this.resource = resource;
+            this.view = view;
+        }
+    }
+
+    private static final class Segment<T, V> extends LinkedHashMap<String, CachedView<T, V>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedView<T, V>> eldest) {
+            return size() > capacity;
+        }
+    }
+}
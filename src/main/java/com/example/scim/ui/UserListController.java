@@ -1,20 +1,49 @@
 package com.example.scim.ui;
 
+import com.example.scim.scimple.AttributeProjection;
 import com.example.scim.scimple.ScimGroupProvider;
 import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.spec.protocol.attribute.AttributeReference;
+import org.apache.directory.scim.spec.protocol.filter.FilterParseException;
+import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.apache.directory.scim.spec.protocol.search.SortOrder;
+import org.apache.directory.scim.spec.protocol.search.SortRequest;
 import org.apache.directory.scim.spec.resources.ScimGroup;
 import org.apache.directory.scim.spec.resources.ScimUser;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Lists one page of users and one page of groups, optionally only those matching a search.
+ * <p>
+ * Users are sorted by userName and groups by displayName, both backed by ordered indexes, so a page is read by
+ * walking the indexes up to its end rather than by loading every user and group. Searches are turned into SCIM
+ * filters on indexed attributes and evaluated by the providers.
+ * <p>
+ * Groups are read without converting their members, each row shows the ids of its first {@link #MEMBERS_SHOWN}
+ * members and counts the rest, so large groups cost no more to list than small ones.
+ */
 @Controller
 @RequestMapping("/")
 public class UserListController {
 
+    static final int PAGE_SIZE = 50;
+
+    static final int MEMBERS_SHOWN = 10;
+
+    private static final AttributeProjection WITHOUT_MEMBERS = AttributeProjection.of(null, "members");
+
     private final ScimUserProvider userProvider;
     private final ScimGroupProvider groupProvider;
 
@@ -23,16 +52,139 @@ public class UserListController {
         this.groupProvider = groupProvider;
     }
 
+    /**
+     * @param userPage the one-based page of users to show
+     * @param groupPage the one-based page of groups to show
+     * @param search only shows users whose userName, email, given or family name, and groups whose name, start with
+     *               this text
+     */
     @GetMapping
-    public String home(ModelMap model) {
+    public String home(@RequestParam(name = "userPage", defaultValue = "1") int userPage,
+                       @RequestParam(name = "groupPage", defaultValue = "1") int groupPage,
+                       @RequestParam(name = "q", required = false) String search,
+                       ModelMap model) {
+
+        String term = search != null ? search.replaceAll("[\"\\\\]", "").trim() : "";
 
-        Collection<ScimUser> users = userProvider.find(null, null, null).getResources();
-        model.addAttribute("users", users);
+        Filter userFilter = term.isEmpty() ? null : filter("userName sw \"" + term + "\" or emails sw \"" + term
+                + "\" or name.givenName sw \"" + term + "\" or name.familyName sw \"" + term + "\"");
+        FilterResponse<ScimUser> users = userProvider.find(userFilter, page(userPage), sort("userName"));
+        model.addAttribute("users", new Listing<>(users, userPage));
 
-        Collection<ScimGroup> groups = groupProvider.find(null, null, null).getResources();
-        model.addAttribute("groups", groups);
+        Filter groupFilter = term.isEmpty() ? null : filter("displayName sw \"" + term + "\"");
+        FilterResponse<ScimGroup> groups = groupProvider.find(groupFilter, page(groupPage), sort("displayName"), WITHOUT_MEMBERS);
+        List<GroupRow> rows = new ArrayList<>(groups.getResources().size());
+        for (ScimGroup group : groups.getResources()) {
+            rows.add(new GroupRow(group, groupProvider.getMemberIds(group.getId())));
+        }
+        model.addAttribute("groups", new Listing<>(rows, groupPage, groups.getTotalResults()));
 
+        model.addAttribute("q", term);
         return "user-list";
     }
 
+    private static Filter filter(String filter) {
+        try {
+            return new Filter(filter);
+        } catch (FilterParseException e) {
+            // quotes and backslashes are removed from the search, so every search parses
+            throw new IllegalArgumentException("Invalid search: " + filter, e);
+        }
+    }
+
+    private static PageRequest page(int page) {
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setStartIndex((Math.max(page, 1) - 1) * PAGE_SIZE + 1);
+        pageRequest.setCount(PAGE_SIZE);
+        return pageRequest;
+    }
+
+    private static SortRequest sort(String attribute) {
+        SortRequest sortRequest = new SortRequest();
+        sortRequest.setSortBy(new AttributeReference(attribute));
+        sortRequest.setSortOrder(SortOrder.ASCENDING);
+        return sortRequest;
+    }
+
+    /**
+     * One page of users or groups, as rendered by the {@code user-list} template.
+     */
+    public static class Listing<T> {
+
+        private final Collection<T> resources;
+
+        private final int page;
+
+        private final int total;
+
+        Listing(FilterResponse<T> response, int page) {
+            this(response.getResources(), page, response.getTotalResults());
+        }
+
+        Listing(Collection<T> resources, int page, int total) {
+            this.resources = resources;
+            this.page = Math.max(page, 1);
+            this.total = total;
+        }
+
+        public Collection<T> getResources() {
+            return resources;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public int getPageCount() {
+            return Math.max((total + PAGE_SIZE - 1) / PAGE_SIZE, 1);
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public boolean isFirst() {
+            return page == 1;
+        }
+
+        public boolean isLast() {
+            return page >= getPageCount();
+        }
+    }
+
+    /**
+     * One group of a page, with the ids of its first members and the number of all of them.
+     */
+    public static class GroupRow {
+
+        private final ScimGroup group;
+
+        private final List<String> members = new ArrayList<>(MEMBERS_SHOWN);
+
+        private final int memberCount;
+
+        GroupRow(ScimGroup group, Set<String> memberIds) {
+            this.group = group;
+            this.memberCount = memberIds.size();
+            for (Iterator<String> ids = memberIds.iterator(); ids.hasNext() && members.size() < MEMBERS_SHOWN; ) {
+                members.add(ids.next());
+            }
+        }
+
+        public String getId() {
+            return group.getId();
+        }
+
+        public String getDisplayName() {
+            return group.getDisplayName();
+        }
+
+        public List<String> getMembers() {
+            return members;
+        }
+
+        public int getMemberCount() {
+            return memberCount;
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package com.example.scim;
+
+import com.example.scim.scimple.BulkExporter;
+import com.example.scim.scimple.BulkImporter;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+public class BulkExporterTest {
+
+    @Test
+    public void testExportWritesOneResourcePerLine() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        groupProvider.create(group("g1"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = new BulkExporter(userProvider, groupProvider).exportAll(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n", -1);
+        assertThat(count, is(2L));
+        assertThat(lines.length, is(3));
+        assertThat(lines[0], startsWith("{"));
+        assertThat(lines[0], endsWith("}"));
+        assertThat(lines[0].contains("\"userName\":\"e1@example.com\""), is(true));
+        assertThat(lines[1].contains("\"displayName\":\"g1\""), is(true));
+        assertThat(lines[2], is(""));
+    }
+
+    @Test
+    public void testExportCanBeImported() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        for (int i = 0; i < 10; i++) {
+            ScimUser user = new ScimUser();
+            user.setUserName("user" + i);
+            userProvider.create(user);
+        }
+        groupProvider.create(group("g1"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BulkExporter(userProvider, groupProvider).exportAll(out);
+
+        ScimUserProvider importedUsers = new ScimUserProvider();
+        ScimGroupProvider importedGroups = new ScimGroupProvider();
+        BulkImporter.Result result = new BulkImporter(importedUsers, importedGroups)
+                .importNdjson(new ByteArrayInputStream(out.toByteArray()));
+
+        // the sample user already exists in the new provider
+        assertThat(result.getCreated(), is(11L));
+        assertThat(result.getFailed(), is(1L));
+        assertThat(importedUsers.get("user7").getUserName(), is("user7"));
+        assertThat(importedGroups.get("g1").getMembers().get(0).getValue(), is("user1"));
+    }
+
+    private static ScimGroup group(String id) {
+        ResourceReference member = new ResourceReference();
+        member.setValue("user1");
+        ScimGroup group = new ScimGroup();
+        group.setId(id);
+        group.setDisplayName(id);
+        group.setMembers(Collections.singletonList(member));
+        return group;
+    }
+}
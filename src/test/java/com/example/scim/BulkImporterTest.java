@@ -0,0 +1,150 @@
+package com.example.scim;
+
+import com.example.scim.scimple.BulkImporter;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class BulkImporterTest {
+
+    private static final String USER_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:User";
+
+    private static final String GROUP_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:Group";
+
+    @Test
+    public void testImportNdjson() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+
+        // more users than fit in one batch, so the import flushes while reading
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            input.append(user("user" + i)).append('\n');
+        }
+        input.append(group("g1", "staff")).append('\n');
+        input.append('\n');
+        input.append(user("e1@example.com")).append('\n');
+        input.append("{\"schemas\": [\"").append(USER_SCHEMA).append("\"], \"userName\": \n");
+        input.append("{\"schemas\": [\"urn:example:Device\"], \"id\": \"d1\"}\n");
+        input.append(user("user0")).append('\n');
+
+        BulkImporter.Result result = new BulkImporter(userProvider, groupProvider).importNdjson(stream(input));
+
+        assertThat(result.isComplete(), is(true));
+        assertThat(result.getCreated(), is(2501L));
+        assertThat(result.getFailed(), is(4L));
+        assertThat(result.getErrors(), hasSize(4));
+        assertThat(result.getErrors().get(0).getIndex(), is(2503));
+        assertThat(result.getErrors().get(0).getStatus(), is(400));
+        assertThat(result.getErrors().get(1).getIndex(), is(2504));
+        assertThat(result.getErrors().get(1).getStatus(), is(400));
+        // conflicts are only known once the batch is stored
+        assertThat(result.getErrors().get(2).getIndex(), is(2502));
+        assertThat(result.getErrors().get(2).getStatus(), is(409));
+        assertThat(result.getErrors().get(3).getIndex(), is(2505));
+        assertThat(result.getErrors().get(3).getStatus(), is(409));
+
+        assertThat(userProvider.get("user2499").getUserName(), is("user2499"));
+        assertThat(userProvider.get("user0").getMeta().getVersion(), notNullValue());
+        assertThat(groupProvider.get("g1").getDisplayName(), is("staff"));
+    }
+
+    @Test
+    public void testImportedUsersAreIndexed() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            input.append(user("user" + i)).append('\n');
+        }
+        new BulkImporter(userProvider, new ScimGroupProvider()).importNdjson(stream(input));
+
+        assertThat(userProvider.find(new Filter("userName eq \"user1\""), null, null).getTotalResults(), is(1));
+        assertThat(userProvider.find(new Filter("name.familyName eq \"Family\""), null, null).getTotalResults(), is(3));
+        assertThat(userProvider.find(new Filter("emails co \"user2@\""), null, null).getTotalResults(), is(1));
+
+        userProvider.delete("user1");
+        assertThat(userProvider.find(new Filter("userName eq \"user1\""), null, null).getTotalResults(), is(0));
+        assertThat(userProvider.find(new Filter("name.familyName eq \"Family\""), null, null).getTotalResults(), is(2));
+        ScimUser recreated = new ScimUser();
+        recreated.setUserName("user1");
+        userProvider.create(recreated);
+        assertThat(userProvider.find(new Filter("userName eq \"user1\""), null, null).getTotalResults(), is(1));
+    }
+
+    @Test
+    public void testImportBulkRequest() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+
+        String input = "{\"schemas\": [\"urn:ietf:params:scim:api:messages:2.0:BulkRequest\"], \"failOnErrors\": 1,"
+            + " \"Operations\": ["
+            + operation("POST", "/Users", "u1", user("jdoe")) + ","
+            + operation("POST", "/Groups", "g1", group("g1", "staff")) + ","
+            + operation("DELETE", "/Users/e1@example.com", "d1", null) + ","
+            + operation("POST", "/Devices", "x1", "{}") + ","
+            + operation("POST", "/Users", "u2", null)
+            + "]}";
+
+        BulkImporter.Result result = new BulkImporter(userProvider, groupProvider).importBulkRequest(stream(input));
+
+        assertThat(result.isComplete(), is(true));
+        assertThat(result.getCreated(), is(2L));
+        assertThat(result.getFailed(), is(3L));
+        assertThat(result.getErrors().get(0).getBulkId(), is("d1"));
+        assertThat(result.getErrors().get(1).getBulkId(), is("x1"));
+        assertThat(result.getErrors().get(2).getBulkId(), is("u2"));
+        assertThat(result.getErrors().get(2).getIndex(), is(4));
+        assertThat(userProvider.get("jdoe").getUserName(), is("jdoe"));
+        assertThat(userProvider.get("e1@example.com"), notNullValue());
+        assertThat(groupProvider.get("g1").getDisplayName(), is("staff"));
+    }
+
+    @Test
+    public void testMalformedBulkRequestKeepsEarlierOperations() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+
+        String input = "{\"Operations\": [" + operation("POST", "/Users", "u1", user("jdoe")) + ", {\"method\": ";
+
+        BulkImporter.Result result = new BulkImporter(userProvider, groupProvider).importBulkRequest(stream(input));
+
+        assertThat(result.isComplete(), is(false));
+        assertThat(result.getCreated(), is(1L));
+        assertThat(result.getErrors(), hasSize(1));
+        assertThat(result.getErrors().get(0).getIndex(), is(1));
+        assertThat(result.getErrors().get(0).getBulkId(), nullValue());
+        assertThat(userProvider.get("jdoe").getUserName(), is("jdoe"));
+    }
+
+    private static String user(String userName) {
+        return "{\"schemas\": [\"" + USER_SCHEMA + "\"], \"userName\": \"" + userName + "\","
+            + " \"name\": {\"givenName\": \"Given\", \"familyName\": \"Family\"},"
+            + " \"emails\": [{\"value\": \"" + userName + "@example.com\", \"primary\": true}]}";
+    }
+
+    private static String group(String id, String displayName) {
+        return "{\"schemas\": [\"" + GROUP_SCHEMA + "\"], \"id\": \"" + id + "\", \"displayName\": \"" + displayName + "\","
+            + " \"members\": [{\"value\": \"user1\"}]}";
+    }
+
+    private static String operation(String method, String path, String bulkId, String data) {
+        return "{\"method\": \"" + method + "\", \"path\": \"" + path + "\", \"bulkId\": \"" + bulkId + "\""
+            + (data != null ? ", \"data\": " + data : "") + "}";
+    }
+
+    private static InputStream stream(CharSequence input) {
+        return new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
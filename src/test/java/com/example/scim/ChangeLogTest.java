@@ -0,0 +1,209 @@
+package com.example.scim;
+
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.scimple.ChangeLog;
+import com.example.scim.scimple.ChangeResource;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+import org.apache.directory.scim.server.provider.UpdateRequest;
+import org.apache.directory.scim.spec.resources.Name;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChangeLogTest {
+
+    @Test
+    public void testProviderWritesAreLoggedInOrder() throws Exception {
+        ChangeLog changeLog = new ChangeLog(100);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        ResourceStore<ExampleGroup> groups = new ConcurrentResourceStore<>();
+        people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+        groups.addListener(changeLog.<ExampleGroup>recorder("Group", ScimTypeConverter::version));
+        ScimUserProvider userProvider = new ScimUserProvider(people);
+        ScimGroupProvider groupProvider = new ScimGroupProvider(groups, userProvider);
+        long start = changeLog.getLastSequence();
+
+        ScimUser user = userProvider.create(user("jdoe"));
+        user.getName().setGivenName("Jane");
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn("jdoe");
+        when(updateRequest.getResource()).thenReturn(user);
+        userProvider.update(updateRequest);
+        ScimGroup group = new ScimGroup();
+        group.setDisplayName("admins");
+        ResourceReference member = new ResourceReference();
+        member.setValue("jdoe");
+        group.setMembers(Collections.singletonList(member));
+        group = groupProvider.create(group);
+        groupProvider.delete(group.getId());
+
+        List<ChangeLog.Change> changes = changeLog.read(start, 100, 0);
+        assertThat(changes, hasSize(4));
+        for (int i = 0; i < changes.size(); i++) {
+            assertThat(changes.get(i).getSequence(), is(start + i + 1));
+        }
+        assertThat(changes.get(0).getOperation(), is(ChangeLog.CREATED));
+        assertThat(changes.get(1).getOperation(), is(ChangeLog.UPDATED));
+        assertThat(changes.get(1).getVersion(), is(userProvider.getVersion("jdoe")));
+        assertThat(changes.get(2).getResourceType(), is("Group"));
+        assertThat(changes.get(3).getOperation(), is(ChangeLog.DELETED));
+        assertThat(changes.get(3).getVersion(), nullValue());
+
+        // a page ends where it was asked to, the next one starts after it
+        assertThat(changeLog.read(start, 2, 0), hasSize(2));
+        assertThat(changeLog.read(start + 2, 100, 0), hasSize(2));
+        assertThat(changeLog.read(start + 4, 100, 0), empty());
+    }
+
+    @Test
+    public void testUpdatesLeavingTheResourceUnchangedAreNotLogged() throws Exception {
+        ChangeLog changeLog = new ChangeLog(100);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+        people.create("jdoe", new ExamplePerson().setUsername("jdoe"));
+        long last = changeLog.getLastSequence();
+
+        people.update("jdoe", person -> null);
+        assertThat(changeLog.read(last, 100, 0), empty());
+    }
+
+    @Test(timeOut = 60_000)
+    public void testReadWaitsForTheNextChange() throws Exception {
+        ChangeLog changeLog = new ChangeLog(100);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+        long last = changeLog.getLastSequence();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<ChangeLog.Change>> poll = executor.submit(() -> changeLog.read(last, 100, TimeUnit.SECONDS.toMillis(30)));
+            Thread.sleep(100);
+            people.create("jdoe", new ExamplePerson().setUsername("jdoe"));
+
+            List<ChangeLog.Change> changes = poll.get(10, TimeUnit.SECONDS);
+            assertThat(changes, hasSize(1));
+            assertThat(changes.get(0).getId(), is("jdoe"));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // nothing changes while waiting
+        assertThat(changeLog.read(last + 1, 100, 50), empty());
+    }
+
+    @Test(timeOut = 60_000)
+    public void testConcurrentWritesArePublishedWithoutGaps() throws Exception {
+        ChangeLog changeLog = new ChangeLog(100_000);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+        long start = changeLog.getLastSequence();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int writer = 0; writer < 8; writer++) {
+                String prefix = "writer" + writer + "-";
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        people.create(prefix + i, new ExamplePerson().setUsername(prefix + i));
+                    }
+                }));
+            }
+            // a reader following along only ever sees consecutive sequences
+            Set<String> ids = new HashSet<>();
+            for (long after = start; after < start + 8000; ) {
+                List<ChangeLog.Change> changes = changeLog.read(after, 1000, 1000);
+                for (ChangeLog.Change change : changes) {
+                    assertThat(change.getSequence(), is(++after));
+                    ids.add(change.getId());
+                }
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            assertThat(ids, hasSize(8000));
+            assertThat(changeLog.getLastSequence(), is(start + 8000));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResumingFromDroppedChangesStartsOver() throws Exception {
+        ChangeLog changeLog = new ChangeLog(3);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+        long start = changeLog.getLastSequence();
+        for (int i = 0; i < 5; i++) {
+            people.create("user" + i, new ExamplePerson().setUsername("user" + i));
+        }
+
+        assertThat(changeLog.read(start + 1, 100, 0), nullValue());
+        assertThat(changeLog.read(start + 6, 100, 0), nullValue());
+        List<ChangeLog.Change> changes = changeLog.read(start + 2, 100, 0);
+        assertThat(changes, hasSize(3));
+        assertThat(changes.get(0).getId(), is("user2"));
+
+        ChangeResource resource = new ChangeResource(changeLog);
+        assertThat(resource.poll(start, 100, 0).get().getStatus(), is(Response.Status.GONE.getStatusCode()));
+        assertThat(resource.poll(start + 2, 100, 0).get().getStatus(), is(Response.Status.OK.getStatusCode()));
+    }
+
+    @Test(timeOut = 60_000)
+    public void testAsyncPollWaitsWithoutAThread() throws Exception {
+        try (ChangeLog changeLog = new ChangeLog(100, true)) {
+            ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+            people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+            long last = changeLog.getLastSequence();
+
+            // returns at once and is completed by the next change
+            CompletableFuture<List<ChangeLog.Change>> poll = changeLog.poll(last, 100, TimeUnit.SECONDS.toMillis(30));
+            assertThat(poll.isDone(), is(false));
+            people.create("jdoe", new ExamplePerson().setUsername("jdoe"));
+            List<ChangeLog.Change> changes = poll.get(10, TimeUnit.SECONDS);
+            assertThat(changes, hasSize(1));
+            assertThat(changes.get(0).getId(), is("jdoe"));
+
+            // or by its timeout
+            assertThat(changeLog.poll(last + 1, 100, 50).get(10, TimeUnit.SECONDS), empty());
+            assertThat(changeLog.poll(last, 100, 30_000).get(), hasSize(1));
+        }
+    }
+
+    private static ScimUser user(String userName) {
+        Name name = new Name();
+        name.setGivenName("John");
+        name.setFamilyName("Doe");
+        ScimUser user = new ScimUser();
+        user.setUserName(userName);
+        user.setName(name);
+        user.setActive(true);
+        return user;
+    }
+}
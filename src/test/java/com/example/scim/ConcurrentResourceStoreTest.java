@@ -0,0 +1,168 @@
+package com.example.scim;
+
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.store.AttributeIndex;
+import com.example.scim.store.ConcurrentResourceStore;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ConcurrentResourceStoreTest {
+
+    private static final int WRITERS = 32;
+
+    private static final int OPERATIONS_PER_WRITER = 500;
+
+    @Test
+    public void testCreateConflict() {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+        assertThat(store.create("g1", new ExampleGroup().setId("g1")), is(true));
+        assertThat(store.create("g1", new ExampleGroup().setId("g1")), is(false));
+        assertThat(store.size(), is(1));
+    }
+
+    @Test
+    public void testCreateAllSkipsExistingIds() {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+        List<String> written = new ArrayList<>();
+        store.addListener((id, previous, current) -> written.add(id));
+        store.create("g1", new ExampleGroup().setId("g1").setDescription("original"));
+
+        Map<String, ExampleGroup> batch = new LinkedHashMap<>();
+        batch.put("g1", new ExampleGroup().setId("g1").setDescription("duplicate"));
+        batch.put("g2", new ExampleGroup().setId("g2"));
+        batch.put("g3", new ExampleGroup().setId("g3"));
+
+        assertThat(store.createAll(batch), contains("g1"));
+        assertThat(store.size(), is(3));
+        assertThat(store.get("g1").getDescription(), is("original"));
+        assertThat(written, contains("g1", "g2", "g3"));
+    }
+
+    @Test
+    public void testReplaceMissing() {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+        assertThat(store.replace("missing", new ExampleGroup().setId("missing")), nullValue());
+        assertThat(store.update("missing", group -> group), nullValue());
+        assertThat(store.get("missing"), nullValue());
+    }
+
+    @Test
+    public void testUpdateReturningNullWritesNothing() {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+        List<String> written = new ArrayList<>();
+        store.addListener((id, previous, current) -> written.add(id));
+        ExampleGroup original = new ExampleGroup().setId("g1");
+        store.create("g1", original);
+
+        assertThat(store.update("g1", group -> null), is(original));
+        assertThat(store.get("g1"), is(original));
+        assertThat(written, contains("g1"));
+    }
+
+    @Test(timeOut = 60_000)
+    public void testConcurrentCreateOfSameIdHasOneWinner() throws Exception {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+        AtomicInteger winners = new AtomicInteger();
+
+        runConcurrently(writer -> {
+            for (int i = 0; i < OPERATIONS_PER_WRITER; i++) {
+                String id = "group-" + i;
+                if (store.create(id, new ExampleGroup().setId(id).setDescription("writer-" + writer))) {
+                    winners.incrementAndGet();
+                }
+            }
+        });
+
+        assertThat(winners.get(), is(OPERATIONS_PER_WRITER));
+        assertThat(store.size(), is(OPERATIONS_PER_WRITER));
+    }
+
+    @Test(timeOut = 60_000)
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+        store.create("shared", new ExampleGroup().setId("shared").setMemberIds(new HashSet<>()));
+
+        runConcurrently(writer -> {
+            for (int i = 0; i < OPERATIONS_PER_WRITER; i++) {
+                String memberId = writer + "-" + i;
+                store.update("shared", group -> {
+                    Set<String> members = new HashSet<>(group.getMemberIds());
+                    members.add(memberId);
+                    return new ExampleGroup().setId(group.getId()).setMemberIds(members);
+                });
+            }
+        });
+
+        assertThat(store.get("shared").getMemberIds(), hasSize(WRITERS * OPERATIONS_PER_WRITER));
+    }
+
+    @Test(timeOut = 60_000)
+    public void testConcurrentCreateAndRemoveOfDistinctIds() throws Exception {
+        ConcurrentResourceStore<ExampleGroup> store = new ConcurrentResourceStore<>();
+
+        runConcurrently(writer -> {
+            for (int i = 0; i < OPERATIONS_PER_WRITER; i++) {
+                String id = writer + "-" + i;
+                store.create(id, new ExampleGroup().setId(id));
+                // remove every other resource again
+                if (i % 2 == 0) {
+                    store.remove(id);
+                }
+            }
+        });
+
+        assertThat(store.size(), is(WRITERS * OPERATIONS_PER_WRITER / 2));
+        assertThat(store.values(), hasSize(WRITERS * OPERATIONS_PER_WRITER / 2));
+    }
+
+    private static void runConcurrently(Writer writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                int writerId = i;
+                Callable<Void> task = () -> {
+                    start.await();
+                    writer.write(writerId);
+                    return null;
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(int writerId);
+    }
+}
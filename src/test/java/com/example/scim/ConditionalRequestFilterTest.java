@@ -0,0 +1,169 @@
+package com.example.scim;
+
+import com.example.scim.scimple.ConditionalRequestFilter;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimRequestContext;
+import com.example.scim.scimple.ScimRequestContextFilter;
+import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
+import org.apache.directory.scim.server.provider.UpdateRequest;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimResource;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.util.Collections;
+
+import static com.googlecode.catchexception.CatchException.catchException;
+import static com.googlecode.catchexception.CatchException.caughtException;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.fail;
+
+public class ConditionalRequestFilterTest {
+
+    @Test
+    public void testVersionChangesOnEveryWrite() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimUser user = userProvider.create(user("jdoe"));
+
+        String version = user.getMeta().getVersion();
+        assertThat(version, notNullValue());
+        assertThat(user.getMeta().getCreated(), notNullValue());
+        assertThat(userProvider.getVersion("jdoe"), is(version));
+
+        ScimUser updated = userProvider.update(patch(user, "active", false));
+        assertThat(updated.getMeta().getVersion(), not(version));
+        assertThat(updated.getMeta().getCreated(), is(user.getMeta().getCreated()));
+        assertThat(userProvider.get("jdoe").getMeta().getVersion(), is(updated.getMeta().getVersion()));
+    }
+
+    @Test
+    public void testIfNoneMatchWithCurrentVersionIsNotModified() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        ConditionalRequestFilter filter = new ConditionalRequestFilter(userProvider, groupProvider);
+        String version = userProvider.create(user("jdoe")).getMeta().getVersion();
+
+        ContainerRequestContext current = request("GET", "Users/jdoe", HttpHeaders.IF_NONE_MATCH, "W/\"other\", \"" + version + "\"");
+        filter.filter(current);
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(current).abortWith(response.capture());
+        assertThat(response.getValue().getStatus(), is(Response.Status.NOT_MODIFIED.getStatusCode()));
+        assertThat(response.getValue().getEntityTag().getValue(), is(version));
+
+        ContainerRequestContext outdated = request("GET", "Users/jdoe", HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        filter.filter(outdated);
+        verify(outdated, never()).abortWith(any());
+
+        ContainerRequestContext missing = request("GET", "Groups/missing", HttpHeaders.IF_NONE_MATCH, "*");
+        filter.filter(missing);
+        verify(missing, never()).abortWith(any());
+    }
+
+    @Test
+    public void testIfMatchFailsUpdatesOfModifiedResources() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        ConditionalRequestFilter filter = new ConditionalRequestFilter(userProvider, groupProvider);
+
+        ScimGroup newGroup = new ScimGroup();
+        newGroup.setDisplayName("Group 1");
+        ScimGroup group = groupProvider.create(newGroup);
+        String version = group.getMeta().getVersion();
+
+        // the first update matches the version it was based on, the second one is based on the same, now outdated, version
+        ScimGroup renamed;
+        try (ScimRequestContext context = ScimRequestContext.open()) {
+            filter.filter(request("PATCH", "Groups/" + group.getId(), HttpHeaders.IF_MATCH, "\"" + version + "\""));
+            renamed = groupProvider.update(patch(group, "displayName", "Group 2"));
+        }
+        assertThat(renamed.getDisplayName(), is("Group 2"));
+
+        try (ScimRequestContext context = ScimRequestContext.open()) {
+            filter.filter(request("PATCH", "Groups/" + group.getId(), HttpHeaders.IF_MATCH, "\"" + version + "\""));
+            catchException(groupProvider).update(patch(group, "displayName", "Group 3"));
+        }
+
+        assertThat(caughtException(), instanceOf(UnableToUpdateResourceException.class));
+        assertThat(((UnableToUpdateResourceException) caughtException()).getStatus(), is(Response.Status.PRECONDITION_FAILED));
+        assertThat(groupProvider.get(group.getId()), is(renamed));
+
+        // without a precondition the update is applied
+        ScimGroup unconditional = groupProvider.update(patch(group, "displayName", "Group 3"));
+        assertThat(unconditional.getDisplayName(), is("Group 3"));
+    }
+
+    @Test
+    public void testFailedRequestLeavesNoPreconditionBehind() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        ConditionalRequestFilter filter = new ConditionalRequestFilter(userProvider, groupProvider);
+        ScimGroup newGroup = new ScimGroup();
+        newGroup.setDisplayName("Group 1");
+        ScimGroup group = groupProvider.create(newGroup);
+
+        try {
+            new ScimRequestContextFilter().doFilter(mock(ServletRequest.class), mock(ServletResponse.class), (servletRequest, servletResponse) -> {
+                filter.filter(request("PATCH", "Groups/" + group.getId(), HttpHeaders.IF_MATCH, "\"outdated\""));
+                throw new ServletException("failed before reaching the provider");
+            });
+            fail("the request should have failed");
+        } catch (ServletException e) {
+            // expected
+        }
+
+        // the next update on this thread is not held to the precondition of the failed request
+        assertThat(groupProvider.update(patch(group, "displayName", "Group 2")).getDisplayName(), is("Group 2"));
+    }
+
+    private static ContainerRequestContext request(String method, String path, String header, String value) {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getPath()).thenReturn(path);
+
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getUriInfo()).thenReturn(uriInfo);
+        when(request.getHeaderString(header)).thenReturn(value);
+        return request;
+    }
+
+    private static ScimUser user(String userName) {
+        ScimUser user = new ScimUser();
+        user.setUserName(userName);
+        return user;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends ScimResource> UpdateRequest<T> patch(T original, String path, Object value) throws Exception {
+        PatchOperation operation = new PatchOperation();
+        operation.setOperation(PatchOperation.Type.REPLACE);
+        operation.setPath(new PatchOperationPath(path));
+        operation.setValue(value);
+
+        UpdateRequest<T> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(original.getId());
+        when(updateRequest.getOriginal()).thenReturn(original);
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(operation));
+        return updateRequest;
+    }
+}
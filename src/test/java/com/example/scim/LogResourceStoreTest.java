@@ -0,0 +1,274 @@
+package com.example.scim;
+
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.AttributeIndex;
+import com.example.scim.store.JsonRecordCodec;
+import com.example.scim.store.LogResourceStore;
+import com.example.scim.store.RecordCodec;
+import org.apache.directory.scim.server.provider.UpdateRequest;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.resources.Name;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.codearte.catchexception.shade.mockito.Mockito.mock;
+import static io.codearte.catchexception.shade.mockito.Mockito.when;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LogResourceStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("scim-store");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testWritesSurviveReopen() throws IOException {
+        try (LogResourceStore<ExampleGroup> store = open()) {
+            store.create("a", new ExampleGroup().setId("a").setDescription("first"));
+            store.create("b", new ExampleGroup().setId("b").setDescription("second"));
+            store.create("c", new ExampleGroup().setId("c").setDescription("third"));
+            store.replace("a", new ExampleGroup().setId("a").setDescription("updated"));
+            store.remove("b");
+        }
+
+        try (LogResourceStore<ExampleGroup> store = open()) {
+            assertThat(store.size(), is(2));
+            assertThat(store.get("a").getDescription(), is("updated"));
+            assertThat(store.get("b"), nullValue());
+            assertThat(store.get("c").getDescription(), is("third"));
+            assertThat(store.values().stream().map(ExampleGroup::getId).collect(Collectors.toList()), containsInAnyOrder("a", "c"));
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsLiveRecordsOnly() throws IOException {
+        // segments large enough that the garbage never triggers a background compaction
+        try (LogResourceStore<ExampleGroup> store = open(1 << 20)) {
+            for (int i = 0; i < 500; i++) {
+                store.create("group-" + i, new ExampleGroup().setId("group-" + i).setDescription("version 0"));
+            }
+            for (int version = 1; version <= 5; version++) {
+                for (int i = 0; i < 500; i++) {
+                    store.replace("group-" + i, new ExampleGroup().setId("group-" + i).setDescription("version " + version));
+                }
+            }
+            for (int i = 250; i < 500; i++) {
+                store.remove("group-" + i);
+            }
+            long before = logSize();
+            store.compact();
+            assertThat(logSize(), lessThan(before / 4));
+            assertThat(store.size(), is(250));
+            assertThat(store.get("group-1").getDescription(), is("version 5"));
+        }
+
+        try (LogResourceStore<ExampleGroup> store = open()) {
+            assertThat(store.size(), is(250));
+            assertThat(store.get("group-249").getDescription(), is("version 5"));
+            assertThat(store.get("group-250"), nullValue());
+        }
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsIgnored() throws IOException {
+        try (LogResourceStore<ExampleGroup> store = open()) {
+            store.create("a", new ExampleGroup().setId("a").setDescription("first"));
+        }
+        try (LogResourceStore<ExampleGroup> store = open()) {
+            store.create("b", new ExampleGroup().setId("b").setDescription("second"));
+        }
+
+        // damage the record of "b", the only record in the newest segment, as if the process died while writing it
+        Files.delete(directory.resolve("groups.snapshot"));
+        Path newest;
+        try (Stream<Path> files = Files.list(directory)) {
+            newest = files.max(Comparator.comparing(Path::toString)).get();
+        }
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'x'}), 20);
+        }
+
+        try (LogResourceStore<ExampleGroup> store = open()) {
+            assertThat(store.get("a").getDescription(), is("first"));
+            assertThat(store.get("b"), nullValue());
+        }
+    }
+
+    @Test
+    public void testSnapshotRestoresIndexesWithoutDecodingRecords() throws IOException {
+        CountingCodec codec = new CountingCodec();
+        try (LogResourceStore<ExampleGroup> store = open(codec)) {
+            store.addListener(descriptionIndex());
+            for (int i = 0; i < 100; i++) {
+                store.create("group-" + i, new ExampleGroup().setId("group-" + i).setDescription("description " + i));
+            }
+        }
+
+        LogResourceStore<ExampleGroup> crashed = open(codec);
+        try {
+            codec.decodes = 0;
+            AttributeIndex<ExampleGroup> index = descriptionIndex();
+            crashed.addListener(index);
+            assertThat(codec.decodes, is(0));
+            assertThat(index.equalTo("Description 5"), contains("group-5"));
+
+            // written after the snapshot and never closed, so they are replayed from the log on the next open
+            crashed.replace("group-5", new ExampleGroup().setId("group-5").setDescription("renamed"));
+            crashed.remove("group-6");
+            crashed.create("group-100", new ExampleGroup().setId("group-100").setDescription("description 100"));
+
+            try (LogResourceStore<ExampleGroup> store = open(codec)) {
+                codec.decodes = 0;
+                index = descriptionIndex();
+                store.addListener(index);
+
+                assertThat(codec.decodes, lessThan(10));
+                assertThat(store.size(), is(100));
+                assertThat(index.equalTo("description 5"), empty());
+                assertThat(index.equalTo("description 6"), empty());
+                assertThat(index.equalTo("renamed"), contains("group-5"));
+                assertThat(index.startingWith("description 10"), containsInAnyOrder("group-10", "group-100"));
+            }
+        } finally {
+            crashed.close();
+        }
+    }
+
+    @Test
+    public void testProvidersRecoverUsersGroupsAndIndexes() throws Exception {
+        try (LogResourceStore<ExamplePerson> people = openPeople();
+             LogResourceStore<ExampleGroup> groups = open()) {
+
+            Name name = new Name();
+            name.setGivenName("Jane");
+            name.setFamilyName("Doe");
+            ScimUser user = new ScimUser();
+            user.setUserName("jdoe");
+            user.setName(name);
+            new ScimUserProvider(people).create(user);
+
+            ScimGroupProvider groupProvider = new ScimGroupProvider(groups);
+            ScimGroup group = new ScimGroup();
+            group.setId("admins");
+            group.setDisplayName("Admins");
+            groupProvider.create(group);
+
+            ResourceReference member = new ResourceReference();
+            member.setValue("jdoe");
+            PatchOperation addMember = new PatchOperation();
+            addMember.setOperation(PatchOperation.Type.ADD);
+            addMember.setPath(new PatchOperationPath("members"));
+            addMember.setValue(Collections.singletonList(member));
+
+            UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+            when(updateRequest.getId()).thenReturn("admins");
+            when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(addMember));
+            groupProvider.update(updateRequest);
+        }
+
+        try (LogResourceStore<ExamplePerson> people = openPeople();
+             LogResourceStore<ExampleGroup> groups = open()) {
+
+            ScimUserProvider userProvider = new ScimUserProvider(people);
+            assertThat(userProvider.find(new Filter("name.familyName eq \"Doe\""), null, null).getResources(), hasSize(1));
+            // the sample user was only added to the empty store
+            assertThat(userProvider.find(null, null, null).getTotalResults(), is(2));
+
+            ScimGroupProvider groupProvider = new ScimGroupProvider(groups);
+            assertThat(groupProvider.find(new Filter("members[value eq \"jdoe\"]"), null, null).getResources().stream()
+                    .map(ScimGroup::getId).collect(Collectors.toList()), contains("admins"));
+        }
+    }
+
+    private LogResourceStore<ExampleGroup> open() throws IOException {
+        return open(SEGMENT_SIZE);
+    }
+
+    private LogResourceStore<ExampleGroup> open(int segmentSize) throws IOException {
+        return new LogResourceStore<>(directory, "groups", new JsonRecordCodec<>(ExampleGroup.class), segmentSize);
+    }
+
+    private LogResourceStore<ExampleGroup> open(RecordCodec<ExampleGroup> codec) throws IOException {
+        return new LogResourceStore<>(directory, "groups", codec, SEGMENT_SIZE);
+    }
+
+    private static AttributeIndex<ExampleGroup> descriptionIndex() {
+        return new AttributeIndex<>("description", group -> Collections.singletonList(group.getDescription()), true, true);
+    }
+
+    private LogResourceStore<ExamplePerson> openPeople() throws IOException {
+        return new LogResourceStore<>(directory, "users", new JsonRecordCodec<>(ExamplePerson.class), SEGMENT_SIZE);
+    }
+
+    private static class CountingCodec extends JsonRecordCodec<ExampleGroup> {
+
+        private int decodes;
+
+        CountingCodec() {
+            super(ExampleGroup.class);
+        }
+
+        @Override
+        public ExampleGroup decode(byte[] bytes, int offset, int length) throws IOException {
+            decodes++;
+            return super.decode(bytes, offset, length);
+        }
+    }
+
+    private long logSize() throws IOException {
+        // segments are preallocated, so count the written part only: up to the last non-zero byte of each file
+        long size = 0;
+        try (Stream<Path> files = Files.list(directory).filter(file -> file.toString().endsWith(".seg"))) {
+            for (Path file : files.collect(Collectors.toList())) {
+                byte[] bytes = Files.readAllBytes(file);
+                int end = bytes.length;
+                while (end > 0 && bytes[end - 1] == 0) {
+                    end--;
+                }
+                size += end;
+            }
+        }
+        return size;
+    }
+}
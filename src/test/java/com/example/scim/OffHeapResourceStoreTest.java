@@ -0,0 +1,172 @@
+package com.example.scim;
+
+import com.example.scim.model.ExampleAddress;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.PersonRecordCodec;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.OffHeapResourceStore;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class OffHeapResourceStoreTest {
+
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        PersonRecordCodec codec = new PersonRecordCodec();
+        ExamplePerson person = person(1)
+                .setMiddleName("Zoë")
+                .setActive(false)
+                .setAddresses(Arrays.asList(new ExampleAddress().setCity("Springfield"), new ExampleAddress().setCountry("US")))
+                .versionAfter(null, 1_500_000_000_000L);
+
+        byte[] bytes = codec.encode(person);
+        assertThat(codec.decode(bytes, 0, bytes.length), equalTo(person));
+
+        ExamplePerson empty = new ExamplePerson().setEmails(Collections.emptyList());
+        bytes = codec.encode(empty);
+        assertThat(codec.decode(bytes, 0, bytes.length), equalTo(empty));
+    }
+
+    @Test
+    public void testReadsAndWrites() {
+        OffHeapResourceStore<ExamplePerson> store = new OffHeapResourceStore<>(new PersonRecordCodec());
+        ExamplePerson person = person(1);
+        assertThat(store.create("user1", person), is(true));
+        assertThat(store.create("user1", person(2)), is(false));
+
+        // every read decodes a new instance
+        assertThat(store.get("user1"), equalTo(person));
+        assertThat(store.get("user1"), not(sameInstance(store.get("user1"))));
+        assertThat(store.contains("user1"), is(true));
+        assertThat(store.get("user2"), nullValue());
+
+        store.update("user1", current -> current.copy().setFirstName("Janet"));
+        assertThat(store.get("user1").getFirstName(), is("Janet"));
+
+        assertThat(store.remove("user1").getFirstName(), is("Janet"));
+        assertThat(store.get("user1"), nullValue());
+        assertThat(store.contains("user1"), is(false));
+        assertThat(store.size(), is(0));
+    }
+
+    @Test
+    public void testGrowsAndCompacts() {
+        // small arenas, so overwritten records are compacted away many times over
+        OffHeapResourceStore<ExamplePerson> store = new OffHeapResourceStore<>(new PersonRecordCodec(), 16 << 10);
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            store.create("user" + i, person(i));
+        }
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < count; i++) {
+                store.replace("user" + i, person(i).setVersion(round));
+            }
+        }
+        for (int i = 0; i < count; i += 2) {
+            store.remove("user" + i);
+        }
+
+        assertThat(store.size(), is(count / 2));
+        for (int i = 0; i < count; i++) {
+            ExamplePerson stored = store.get("user" + i);
+            if (i % 2 == 0) {
+                assertThat(stored, nullValue());
+            } else {
+                assertThat(stored, equalTo(person(i).setVersion(3)));
+            }
+        }
+        assertThat(store.values(), hasSize(count / 2));
+        Map<String, ExamplePerson> all = new HashMap<>();
+        store.forEach(all::put);
+        assertThat(all.size(), is(count / 2));
+        assertThat(all.get("user1"), equalTo(person(1).setVersion(3)));
+
+        // four versions of every user were written, the live half of one version is left after compaction
+        long recordBytes = new PersonRecordCodec().encode(person(1)).length * (long) count;
+        assertThat(store.getOffHeapBytes(), lessThan(recordBytes + (1 << 20)));
+    }
+
+    @Test
+    public void testReadersSeeEveryUserWhileOthersAreWritten() throws Exception {
+        OffHeapResourceStore<ExamplePerson> store = new OffHeapResourceStore<>(new PersonRecordCodec(), 16 << 10);
+        int stable = 1000;
+        for (int i = 0; i < stable; i++) {
+            store.create("user" + i, person(i));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(executor.submit(() -> {
+                    int missing = 0;
+                    for (int i = 0; !done.get() || i < stable; i++) {
+                        ExamplePerson person = store.get("user" + (i % stable));
+                        if (person == null || !person.getUsername().equals("user" + (i % stable))) {
+                            missing++;
+                        }
+                    }
+                    return missing;
+                }));
+            }
+            Future<?> writer = executor.submit(() -> {
+                // grows the table and compacts the arenas while the readers run
+                for (int i = 0; i < 20_000; i++) {
+                    store.create("other" + i, person(stable + i));
+                    store.remove("other" + (i - 10));
+                }
+                done.set(true);
+            });
+
+            writer.get(1, TimeUnit.MINUTES);
+            for (Future<Integer> reader : readers) {
+                assertThat(reader.get(1, TimeUnit.MINUTES), is(0));
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testProviderOverOffHeapStore() throws Exception {
+        OffHeapResourceStore<ExamplePerson> store = new OffHeapResourceStore<>(new PersonRecordCodec());
+        ScimUserProvider provider = new ScimUserProvider(store);
+        for (int i = 0; i < 100; i++) {
+            store.create("user" + i + "@example.com", person(i).setUsername("user" + i + "@example.com"));
+        }
+
+        assertThat(provider.find(new Filter("name.familyName eq \"Last7\""), null, null).getResources(), hasSize(10));
+        assertThat(provider.get("user7@example.com").getName().getGivenName(), is("First7"));
+    }
+
+    private static ExamplePerson person(int i) {
+        return new ExamplePerson()
+                .setUsername("user" + i)
+                .setFirstName("First" + i)
+                .setLastName("Last" + (i % 10))
+                .setEmails(Collections.singletonList("user" + i + "@example.com"));
+    }
+}
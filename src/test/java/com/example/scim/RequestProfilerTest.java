@@ -0,0 +1,168 @@
+package com.example.scim;
+
+import com.example.scim.scimple.RequestProfile;
+import com.example.scim.scimple.RequestProfiler;
+import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RequestProfilerTest {
+
+    @Test
+    public void testProfilesSearches() throws Exception {
+        ScimUserProvider provider = new ScimUserProvider();
+        RequestProfiler profiler = new RequestProfiler(2, 1, 0);
+
+        profiler.doFilter(request("/v2/Users"), response(200), find(provider, "name.middleName eq \"x\"", 1, 10));
+        profiler.doFilter(request("/v2/Users"), response(200), find(provider, "userName eq \"e1@example.com\"", 1, 10));
+
+        List<RequestProfile> profiles = profiler.getProfiles();
+        assertThat(profiles, hasSize(2));
+
+        RequestProfile indexed = profiles.get(0);
+        assertThat(indexed.getMethod(), is("GET"));
+        assertThat(indexed.getPath(), is("/v2/Users"));
+        assertThat(indexed.getStatus(), is(200));
+        assertThat(indexed.getResourceType(), is("User"));
+        assertThat(indexed.getOperation(), is("find"));
+        assertThat(indexed.getFilter(), is("username eq"));
+        assertThat(indexed.getStartIndex(), is(1));
+        assertThat(indexed.getCount(), is(10));
+        assertThat(indexed.getResults(), is(1));
+        assertThat(indexed.isScanned(), is(false));
+        assertThat(indexed.getTotalMillis(), greaterThan(0.0));
+
+        RequestProfile scanned = profiles.get(1);
+        assertThat(scanned.getFilter(), is("name.middlename eq"));
+        assertThat(scanned.getResults(), is(0));
+        assertThat(scanned.isScanned(), is(true));
+
+        // the oldest profile is dropped once the buffer is full
+        profiler.doFilter(request("/v2/Users/e1@example.com"), response(200), (request, response) -> provider.get("e1@example.com"));
+        profiles = profiler.getProfiles();
+        assertThat(profiles, hasSize(2));
+        assertThat(profiles.get(0).getOperation(), is("get"));
+        assertThat(profiles.get(0).getFilter(), nullValue());
+        assertThat(profiles.get(1), is(indexed));
+    }
+
+    @Test
+    public void testKeepsSampledAndSlowRequests() throws Exception {
+        ScimUserProvider provider = new ScimUserProvider();
+        RequestProfiler profiler = new RequestProfiler(10, 3, 50);
+
+        for (int i = 0; i < 6; i++) {
+            profiler.doFilter(request("/v2/Users"), response(200), find(provider, "userName eq \"e1@example.com\"", 1, 10));
+        }
+        assertThat(profiler.getProfiles(), hasSize(2));
+
+        profiler.doFilter(request("/v2/Users"), response(200), sleep(60));
+        assertThat(profiler.getProfiles(), hasSize(3));
+        assertThat(profiler.getProfiles().get(0).getTotalMillis(), greaterThan(50.0));
+    }
+
+    @Test
+    public void testSummarizesByFilterShape() throws Exception {
+        ScimUserProvider provider = new ScimUserProvider();
+        RequestProfiler profiler = new RequestProfiler(10, 1, 0);
+
+        profiler.doFilter(request("/v2/Users"), response(200), find(provider, "name.middleName eq \"x\"", 1, 10));
+        profiler.doFilter(request("/v2/Users"), response(200), find(provider, "name.middleName eq \"y\"", 1, 10));
+        profiler.doFilter(request("/v2/Users"), response(200), find(provider, "userName eq \"e1@example.com\"", 1, 10));
+        profiler.doFilter(request("/v2/Users"), response(200), (request, response) -> provider.get("e1@example.com"));
+
+        List<RequestProfiler.FilterSummary> summaries = RequestProfiler.summarize(profiler.getProfiles());
+        assertThat(summaries, hasSize(2));
+        RequestProfiler.FilterSummary middleName = summaries.stream().filter(summary -> summary.getFilter().equals("name.middlename eq")).findFirst().get();
+        assertThat(middleName.getResourceType(), is("User"));
+        assertThat(middleName.getRequests(), is(2));
+        assertThat(middleName.getScanned(), is(2));
+        assertThat(middleName.getMeanResults(), is(0.0));
+    }
+
+    @Test
+    public void testSuspendedRequestIsKeptWhenAnswered() throws Exception {
+        RequestProfiler profiler = new RequestProfiler(10, 1, 0);
+        HttpServletRequest request = request("/v2/Changes");
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(request.isAsyncStarted()).thenReturn(true);
+        when(request.getAsyncContext()).thenReturn(asyncContext);
+        HttpServletResponse response = response(200);
+
+        profiler.doFilter(request, response, (req, res) -> { });
+        assertThat(profiler.getProfiles(), empty());
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+        Thread.sleep(20);
+        listener.getValue().onComplete(new AsyncEvent(asyncContext, request, response));
+        assertThat(profiler.getProfiles(), hasSize(1));
+        assertThat(profiler.getProfiles().get(0).getTotalMillis(), greaterThan(10.0));
+    }
+
+    @Test
+    public void testDisabledProfilerKeepsNothing() throws Exception {
+        ScimUserProvider provider = new ScimUserProvider();
+        RequestProfiler profiler = new RequestProfiler(10, 0, 0);
+
+        profiler.doFilter(request("/v2/Users"), response(200), find(provider, "userName eq \"e1@example.com\"", 1, 10));
+        assertThat(profiler.getProfiles(), empty());
+    }
+
+    private static FilterChain find(ScimUserProvider provider, String filter, int startIndex, int count) {
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setStartIndex(startIndex);
+        pageRequest.setCount(count);
+        return (request, response) -> {
+            try {
+                provider.find(new Filter(filter), pageRequest, null);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static FilterChain sleep(long millis) {
+        return (request, response) -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static HttpServletRequest request(String path) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getContextPath()).thenReturn("");
+        when(request.getRequestURI()).thenReturn(path);
+        return request;
+    }
+
+    private static HttpServletResponse response(int status) {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getStatus()).thenReturn(status);
+        return response;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.scim;
+
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.scimple.ResponseCache;
+import com.example.scim.scimple.ResponseCacheFilter;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResponseCacheTest {
+
+    private static final URI BASE_URI = URI.create("http://localhost:8080/v2/");
+
+    private static final MediaType SCIM_JSON = MediaType.valueOf("application/scim+json");
+
+    @Test
+    public void testResponseIsDroppedWhenResourceIsWritten() {
+        ResponseCache cache = new ResponseCache(1 << 20);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        people.addListener(cache.invalidator("Users"));
+        people.create("jdoe", new ExamplePerson().setUsername("jdoe"));
+
+        String key = ResponseCache.key("Users", "jdoe");
+        assertThat(cache.put(key, cache.generation(key), response("{\"userName\":\"jdoe\"}")), is(true));
+        assertThat(cache.get(key), notNullValue());
+
+        people.replace("jdoe", new ExamplePerson().setUsername("jdoe").setActive(false));
+        assertThat(cache.get(key), nullValue());
+    }
+
+    @Test
+    public void testResponseBuiltDuringWriteIsNotCached() {
+        ResponseCache cache = new ResponseCache(1 << 20);
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        people.addListener(cache.invalidator("Users"));
+        people.create("jdoe", new ExamplePerson().setUsername("jdoe"));
+
+        String key = ResponseCache.key("Users", "jdoe");
+        long generation = cache.generation(key);
+        people.remove("jdoe");
+
+        assertThat(cache.put(key, generation, response("{\"userName\":\"jdoe\"}")), is(false));
+        assertThat(cache.get(key), nullValue());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResponsesAreEvicted() {
+        long maxBytes = 64 * 1024;
+        ResponseCache cache = new ResponseCache(maxBytes);
+        String body = new String(new char[1000]).replace('\0', 'x');
+
+        for (int i = 0; i < 1000; i++) {
+            String key = ResponseCache.key("Users", "user" + i);
+            cache.put(key, cache.generation(key), response(body));
+        }
+
+        assertThat(cache.bytes(), lessThanOrEqualTo(maxBytes));
+        assertThat(cache.get(ResponseCache.key("Users", "user999")), notNullValue());
+        assertThat(cache.get(ResponseCache.key("Users", "user0")), nullValue());
+    }
+
+    @Test
+    public void testFrequentlyReadResponsesSurviveAScan() {
+        ResponseCache cache = new ResponseCache(1 << 20);
+        String body = new String(new char[1000]).replace('\0', 'x');
+        for (int read = 0; read < 5; read++) {
+            for (int i = 0; i < 20; i++) {
+                read(cache, ResponseCache.key("Users", "hot" + i), body);
+            }
+        }
+
+        // a client reading every user once fills the rest of the cache, but does not evict the responses read before
+        for (int i = 0; i < 2000; i++) {
+            read(cache, ResponseCache.key("Users", "user" + i), body);
+        }
+        assertThat(cache.bytes(), lessThanOrEqualTo(1L << 20));
+        assertThat(cache.bytes(), greaterThan(1L << 19));
+        for (int i = 0; i < 20; i++) {
+            assertThat(cache.get(ResponseCache.key("Users", "hot" + i)), notNullValue());
+        }
+    }
+
+    @Test
+    public void testResponsesAskedForRarelyAreNotAdmitted() {
+        ResponseCache cache = new ResponseCache(1 << 20);
+        String body = new String(new char[1000]).replace('\0', 'x');
+        // fills the cache with responses asked for three times each, none read from the cache
+        for (int i = 0; i < 1200; i++) {
+            String key = ResponseCache.key("Users", "warm" + i);
+            cache.get(key);
+            cache.get(key);
+            read(cache, key, body);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            String key = ResponseCache.key("Users", "cold" + i);
+            assertThat(cache.get(key), nullValue());
+            assertThat(cache.put(key, cache.generation(key), response(body)), is(false));
+        }
+
+        // counts saturate at 15 rather than wrapping around to 0 on the 16th and 32nd lookup
+        String hot = ResponseCache.key("Users", "hot");
+        for (int i = 0; i < 32; i++) {
+            cache.get(hot);
+        }
+        assertThat(cache.put(hot, cache.generation(hot), response(body)), is(true));
+    }
+
+    @Test
+    public void testCacheWithoutBytesIsDisabled() {
+        ResponseCache cache = new ResponseCache(0);
+        String key = ResponseCache.key("Users", "jdoe");
+
+        assertThat(cache.isEnabled(), is(false));
+        assertThat(cache.put(key, cache.generation(key), response("{\"userName\":\"jdoe\"}")), is(false));
+        assertThat(cache.get(key), nullValue());
+        assertThat(new ResponseCache(1 << 20).isEnabled(), is(true));
+    }
+
+    private static void read(ResponseCache cache, String key, String body) {
+        if (cache.get(key) == null) {
+            cache.put(key, cache.generation(key), response(body));
+        }
+    }
+
+    @Test
+    public void testFilterAnswersPlainReadsFromCache() {
+        ResponseCache cache = new ResponseCache(1 << 20);
+        String key = ResponseCache.key("Users", "jdoe");
+        cache.put(key, cache.generation(key), response("{\"userName\":\"jdoe\"}"));
+        ResponseCacheFilter filter = new ResponseCacheFilter(cache);
+
+        ContainerRequestContext request = request("Users/jdoe", new MultivaluedHashMap<>());
+        filter.filter(request);
+
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(request).abortWith(response.capture());
+        assertThat(new String((byte[]) response.getValue().getEntity(), StandardCharsets.UTF_8), is("{\"userName\":\"jdoe\"}"));
+        assertThat(response.getValue().getMediaType(), is(SCIM_JSON));
+        assertThat(response.getValue().getHeaderString(HttpHeaders.ETAG), is("\"1\""));
+
+        MultivaluedHashMap<String, String> attributes = new MultivaluedHashMap<>();
+        attributes.putSingle("attributes", "userName");
+        ContainerRequestContext selectingRequest = request("Users/jdoe", attributes);
+        filter.filter(selectingRequest);
+        verify(selectingRequest, never()).abortWith(any());
+
+        ContainerRequestContext otherRequest = request("Users/rroe", new MultivaluedHashMap<>());
+        filter.filter(otherRequest);
+        verify(otherRequest, never()).abortWith(any());
+    }
+
+    private static ContainerRequestContext request(String path, MultivaluedHashMap<String, String> queryParameters) {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getPath()).thenReturn(path);
+        when(uriInfo.getQueryParameters()).thenReturn(queryParameters);
+        when(uriInfo.getBaseUri()).thenReturn(BASE_URI);
+
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getUriInfo()).thenReturn(uriInfo);
+        when(request.getAcceptableMediaTypes()).thenReturn(Collections.singletonList(MediaType.WILDCARD_TYPE));
+        return request;
+    }
+
+    private static ResponseCache.CachedResponse response(String body) {
+        return new ResponseCache.CachedResponse(body.getBytes(StandardCharsets.UTF_8), SCIM_JSON,
+                Collections.singletonMap(HttpHeaders.ETAG, "\"1\""), BASE_URI);
+    }
+}
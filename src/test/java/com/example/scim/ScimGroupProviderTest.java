@@ -1,21 +1,38 @@
 package com.example.scim;
 
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.scimple.AttributeProjection;
 import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.sun.management.ThreadMXBean;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.directory.scim.server.exception.UnableToCreateResourceException;
 import org.apache.directory.scim.server.exception.UnableToUpdateResourceException;
 import org.apache.directory.scim.server.provider.UpdateRequest;
 import org.apache.directory.scim.server.schema.Registry;
+import org.apache.directory.scim.spec.protocol.attribute.AttributeReference;
 import org.apache.directory.scim.spec.protocol.data.PatchOperation;
 import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
 import org.apache.directory.scim.spec.protocol.filter.FilterParseException;
 import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.apache.directory.scim.spec.protocol.search.SortOrder;
+import org.apache.directory.scim.spec.protocol.search.SortRequest;
 import org.apache.directory.scim.spec.resources.ScimGroup;
 import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.googlecode.catchexception.CatchException.catchException;
 import static com.googlecode.catchexception.CatchException.caughtException;
@@ -94,6 +111,53 @@ public class ScimGroupProviderTest {
         assertThat(response.getResources(), hasSize(2));
     }
 
+    @Test
+    public void testFindWithPagingAndSorting() throws UnableToCreateResourceException {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        ScimGroup group1 = provider.create(group("alpha"));
+        ScimGroup group2 = provider.create(group("beta"));
+        ScimGroup group3 = provider.create(group("gamma"));
+
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setStartIndex(2);
+        pageRequest.setCount(2);
+
+        SortRequest sortRequest = new SortRequest();
+        sortRequest.setSortBy(new AttributeReference("displayName"));
+        sortRequest.setSortOrder(SortOrder.DESCENDING);
+
+        FilterResponse<ScimGroup> response = provider.find(null, pageRequest, sortRequest);
+        assertThat(response.getResources(), contains(group2, group1));
+        assertThat(response.getTotalResults(), is(3));
+    }
+
+    @Test
+    public void testFindByMember() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        ScimGroup group1 = provider.create(group("alpha", "user1", "user2"));
+        ScimGroup group2 = provider.create(group("beta", "user2"));
+        provider.create(group("gamma", "user3"));
+
+        assertThat(provider.find(new Filter("members[value eq \"user2\"]"), null, null).getResources(), containsInAnyOrder(group1, group2));
+        assertThat(provider.find(new Filter("members eq \"user1\""), null, null).getResources(), contains(group1));
+        assertThat(provider.find(new Filter("members[value eq \"user2\"] and displayName sw \"b\""), null, null).getResources(), contains(group2));
+        assertThat(provider.find(new Filter("displayName co \"amm\""), null, null).getTotalResults(), is(1));
+
+        // the reverse index follows updates and deletes
+        ScimGroup updated = group("alpha", "user1");
+        updated.setId(group1.getId());
+        UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(group1.getId());
+        when(updateRequest.getResource()).thenReturn(updated);
+        provider.update(updateRequest);
+        provider.delete(group2.getId());
+
+        assertThat(provider.find(new Filter("members[value eq \"user2\"]"), null, null).getResources(), empty());
+        assertThat(provider.find(new Filter("members[value eq \"user1\"]"), null, null).getResources(), hasSize(1));
+    }
+
     @Test
     public void testUpdate() throws UnableToCreateResourceException, UnableToUpdateResourceException {
 
@@ -164,7 +228,8 @@ public class ScimGroupProviderTest {
     @Test
     public void testUpdateWithPatch_AddToList() throws UnableToCreateResourceException, UnableToUpdateResourceException, FilterParseException {
 
-        ScimGroupProvider provider = new ScimGroupProvider();
+        ConcurrentResourceStore<ExampleGroup> groups = new ConcurrentResourceStore<>();
+        ScimGroupProvider provider = new ScimGroupProvider(groups);
 
         ResourceReference member1 = new ResourceReference();
         member1.setValue("member1");
@@ -172,6 +237,7 @@ public class ScimGroupProviderTest {
         ScimGroup group1 = new ScimGroup();
         group1.setDisplayName("test-me1");
         group1 = provider.create(group1);
+        ExampleGroup stored = groups.get(group1.getId());
 
         PatchOperation patchOperation = new PatchOperation();
         patchOperation.setOperation(PatchOperation.Type.ADD);
@@ -185,6 +251,43 @@ public class ScimGroupProviderTest {
         ScimGroup result = provider.update(updateRequest);
 
         assertThat(result.getMembers(), contains(member1));
+        // the patch is applied to a copy, concurrent readers of the stored group never see it half applied
+        assertThat(groups.get(group1.getId()), not(sameInstance(stored)));
+        assertThat(stored.getMemberIds(), nullValue());
+        assertThat(stored.getVersion(), is(1L));
+    }
+
+    @Test
+    public void testFindChangedSince() throws Exception {
+
+        AtomicLong now = new AtomicLong(1_700_000_000_123L);
+        ScimGroupProvider provider = new ScimGroupProvider(new ConcurrentResourceStore<>(), null, new SimpleMeterRegistry(), now::get);
+        ScimGroup group1 = new ScimGroup();
+        group1.setDisplayName("test-me1");
+        group1 = provider.create(group1);
+        ScimGroup group2 = new ScimGroup();
+        group2.setDisplayName("test-me2");
+        group2 = provider.create(group2);
+        String since = group2.getMeta().getLastModified() + "Z";
+        now.incrementAndGet();
+
+        // membership deltas store a patched copy of the group
+        ResourceReference member1 = new ResourceReference();
+        member1.setValue("member1");
+        PatchOperation patchOperation = new PatchOperation();
+        patchOperation.setOperation(PatchOperation.Type.ADD);
+        patchOperation.setPath(new PatchOperationPath("members"));
+        patchOperation.setValue(Collections.singletonList(member1));
+        UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(group1.getId());
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(patchOperation));
+        when(updateRequest.getOriginal()).thenReturn(group1);
+        ScimGroup result = provider.update(updateRequest);
+
+        String changedSince = "meta.lastModified gt \"" + since + "\"";
+        assertThat(provider.find(new Filter(changedSince), null, null).getResources(), contains(result));
+        assertThat(provider.find(new Filter("meta.lastModified le \"" + since + "\""), null, null).getResources(), contains(group2));
+        assertThat(provider.find(new Filter("meta.lastModified eq \"" + since + "\""), null, null).getResources(), contains(group2));
     }
 
     @Test
@@ -260,4 +363,253 @@ public class ScimGroupProviderTest {
 
         assertThat(result.getMembers(), contains(member1));
     }
+
+    @Test
+    public void testUpdateWithPatch_RemoveWithValueFilter() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        ScimGroup group1 = provider.create(group("test-me1", "member1", "member2", "member3"));
+
+        PatchOperation patchOperation = new PatchOperation();
+        patchOperation.setOperation(PatchOperation.Type.REMOVE);
+        patchOperation.setPath(new PatchOperationPath("members[value eq \"member2\"]"));
+
+        UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(group1.getId());
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(patchOperation));
+        when(updateRequest.getOriginal()).thenReturn(group1);
+        ScimGroup result = provider.update(updateRequest);
+
+        assertThat(result.getMembers(), containsInAnyOrder(group("test-me1", "member1", "member3").getMembers().toArray()));
+        assertThat(provider.get(group1.getId()), equalTo(result));
+        assertThat(provider.find(new Filter("members[value eq \"member2\"]"), null, null).getResources(), empty());
+    }
+
+    @Test
+    public void testUpdateWithPatch_MemberDeltas() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        String[] memberIds = new String[10_000];
+        for (int i = 0; i < memberIds.length; i++) {
+            memberIds[i] = "member" + i;
+        }
+        ScimGroup group1 = provider.create(group("large", memberIds));
+        ScimGroup group2 = provider.create(group("small", "member1"));
+
+        ResourceReference newMember = new ResourceReference();
+        newMember.setValue("new-member");
+        ResourceReference existingMember = new ResourceReference();
+        existingMember.setValue("member1");
+
+        PatchOperation add = new PatchOperation();
+        add.setOperation(PatchOperation.Type.ADD);
+        add.setPath(new PatchOperationPath("members"));
+        add.setValue(Arrays.asList(newMember, existingMember));
+
+        PatchOperation removeByValue = new PatchOperation();
+        removeByValue.setOperation(PatchOperation.Type.REMOVE);
+        removeByValue.setPath(new PatchOperationPath("members"));
+        removeByValue.setValue(Collections.singletonList(Collections.singletonMap("value", "member1")));
+
+        PatchOperation removeByFilter = new PatchOperation();
+        removeByFilter.setOperation(PatchOperation.Type.REMOVE);
+        removeByFilter.setPath(new PatchOperationPath("members[value eq \"member2\"]"));
+
+        UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(group1.getId());
+        when(updateRequest.getPatchOperations()).thenReturn(Arrays.asList(add, removeByValue, removeByFilter));
+        when(updateRequest.getOriginal()).thenReturn(group1);
+        ScimGroup result = provider.update(updateRequest);
+
+        assertThat(result.getMembers(), hasSize(memberIds.length - 1));
+        assertThat(result.getMembers(), hasItem(newMember));
+        assertThat(result.getMembers(), not(hasItem(existingMember)));
+        assertThat(provider.get(group1.getId()).getMembers(), hasSize(memberIds.length - 1));
+
+        assertThat(provider.find(new Filter("members[value eq \"new-member\"]"), null, null).getResources(), contains(result));
+        assertThat(provider.find(new Filter("members[value eq \"member1\"]"), null, null).getResources(), contains(group2));
+        assertThat(provider.find(new Filter("members[value eq \"member2\"]"), null, null).getResources(), empty());
+        assertThat(provider.find(new Filter("members[value eq \"member3\"]"), null, null).getResources(), contains(result));
+    }
+
+    @Test
+    public void testUpdateWithPatch_MemberDeltaAllocatesLittleForLargeGroups() throws Exception {
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof ThreadMXBean) || !((ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Allocated memory is not measurable on this JVM");
+        }
+        ThreadMXBean allocations = (ThreadMXBean) threads;
+        long threadId = Thread.currentThread().getId();
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        String[] memberIds = new String[100_000];
+        for (int i = 0; i < memberIds.length; i++) {
+            memberIds[i] = "member" + i;
+        }
+        String groupId = provider.create(group("large", memberIds)).getId();
+
+        int patches = 1_000;
+        for (int i = 0; i < patches; i++) {
+            addMember(provider, groupId, "warm-up" + i);
+        }
+
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < patches; i++) {
+            addMember(provider, groupId, "new-member" + i);
+        }
+        long perPatch = (allocations.getThreadAllocatedBytes(threadId) - before) / patches;
+
+        // most of this is the mocked request, copying the member set of the group would take megabytes per patch
+        assertThat(perPatch, lessThan(64L * 1024));
+        assertThat(provider.get(groupId).getMembers(), hasSize(memberIds.length + 2 * patches));
+        assertThat(provider.find(new Filter("members[value eq \"new-member7\"]"), null, null).getResources(), hasSize(1));
+        assertThat(provider.getGroupIds("new-member7"), contains(groupId));
+    }
+
+    private static void addMember(ScimGroupProvider provider, String groupId, String memberId) throws Exception {
+        PatchOperation add = new PatchOperation();
+        add.setOperation(PatchOperation.Type.ADD);
+        add.setPath(new PatchOperationPath("members"));
+        add.setValue(Collections.singletonList(Collections.singletonMap("value", memberId)));
+
+        UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(groupId);
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(add));
+        provider.update(updateRequest, AttributeProjection.of(null, "members"));
+    }
+
+    @Test
+    public void testMembersWithoutValueAreSkipped() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        ScimGroup group = group("test-me", "member1");
+        group.getMembers().add(new ResourceReference());
+
+        ScimGroup created = provider.create(group);
+
+        assertThat(created.getMembers(), hasSize(1));
+        assertThat(provider.get(created.getId()).getMembers(), hasSize(1));
+    }
+
+    @Test
+    public void testUpdateWithPatch_ReplaceId() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        ScimGroup group1 = provider.create(group("test-me1"));
+
+        PatchOperation patchOperation = new PatchOperation();
+        patchOperation.setOperation(PatchOperation.Type.REPLACE);
+        patchOperation.setPath(new PatchOperationPath("id"));
+        patchOperation.setValue("other-id");
+
+        UpdateRequest<ScimGroup> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(group1.getId());
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(patchOperation));
+        when(updateRequest.getOriginal()).thenReturn(group1);
+
+        catchException(provider).update(updateRequest);
+        assertThat(caughtException(), instanceOf(UnableToUpdateResourceException.class));
+        assertThat(provider.get(group1.getId()), equalTo(group1));
+    }
+
+    @Test
+    public void testMembersAreDescribed() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider(new ConcurrentResourceStore<>(), new ScimUserProvider());
+        ScimGroup inner = provider.create(group("inner", "e1@example.com"));
+        provider.create(group("outer", inner.getId(), "unknown"));
+
+        ResourceReference user = provider.get(inner.getId()).getMembers().get(0);
+        assertThat(user.getDisplay(), is("Coder, El"));
+        assertThat(user.getRef(), is("Users/e1@example.com"));
+
+        Map<String, ResourceReference> members = new HashMap<>();
+        for (ResourceReference member : provider.find(new Filter("displayName eq \"outer\""), null, null).getResources().iterator().next().getMembers()) {
+            members.put(member.getValue(), member);
+        }
+        assertThat(members.get(inner.getId()).getDisplay(), is("inner"));
+        assertThat(members.get(inner.getId()).getRef(), is("Groups/" + inner.getId()));
+        assertThat(members.get("unknown").getDisplay(), nullValue());
+        assertThat(members.get("unknown").getRef(), nullValue());
+    }
+
+    @Test
+    public void testGetWithoutMembers() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider();
+        ScimGroup group = provider.create(group("test-me", "member1", "member2"));
+
+        assertThat(provider.get(group.getId(), AttributeProjection.of("displayName", null)).getMembers(), nullValue());
+        assertThat(provider.get(group.getId(), AttributeProjection.of(null, "members")).getDisplayName(), is("test-me"));
+        assertThat(provider.find(null, null, null, AttributeProjection.of("members.value", null)).getResources().iterator().next().getMembers(), hasSize(2));
+    }
+
+    @Test
+    public void testEffectiveMemberships() throws Exception {
+
+        ScimGroupProvider provider = new ScimGroupProvider(new ConcurrentResourceStore<>(), new ScimUserProvider());
+        ScimGroup inner = provider.create(group("inner", "e1@example.com"));
+        ScimGroup middle = provider.create(group("middle", inner.getId()));
+        ScimGroup outer = provider.create(group("outer", middle.getId(), "user2"));
+
+        assertThat(values(provider.getEffectiveGroups("e1@example.com")), containsInAnyOrder(inner.getId(), middle.getId(), outer.getId()));
+        assertThat(values(provider.getEffectiveMembers(outer.getId())), containsInAnyOrder(middle.getId(), inner.getId(), "e1@example.com", "user2"));
+        for (ResourceReference group : provider.getEffectiveGroups("e1@example.com")) {
+            assertThat(group.getType(), is(group.getValue().equals(inner.getId()) ? ResourceReference.ReferenceType.DIRECT : ResourceReference.ReferenceType.INDIRECT));
+            assertThat(group.getDisplay(), notNullValue());
+        }
+
+        // memoized closures follow membership deltas, replacing a group and deleting it
+        PatchOperation addCycle = new PatchOperation();
+        addCycle.setOperation(PatchOperation.Type.ADD);
+        addCycle.setPath(new PatchOperationPath("members"));
+        addCycle.setValue(Collections.singletonList(Collections.singletonMap("value", outer.getId())));
+        UpdateRequest<ScimGroup> updateRequest = new UpdateRequest<>(mock(Registry.class));
+        updateRequest.initWithPatch(inner.getId(), inner, Collections.singletonList(addCycle));
+        provider.update(updateRequest);
+
+        assertThat(values(provider.getEffectiveGroups(inner.getId())), containsInAnyOrder(middle.getId(), outer.getId()));
+        assertThat(values(provider.getEffectiveMembers(outer.getId())), containsInAnyOrder(middle.getId(), inner.getId(), "e1@example.com", "user2"));
+
+        UpdateRequest<ScimGroup> replaceMiddle = mock(UpdateRequest.class);
+        when(replaceMiddle.getId()).thenReturn(middle.getId());
+        when(replaceMiddle.getResource()).thenReturn(group("middle"));
+        provider.update(replaceMiddle);
+
+        assertThat(values(provider.getEffectiveGroups("e1@example.com")), containsInAnyOrder(inner.getId()));
+        assertThat(values(provider.getEffectiveMembers(outer.getId())), containsInAnyOrder(middle.getId(), "user2"));
+
+        provider.delete(middle.getId());
+        ScimGroup recreated = group("middle", inner.getId());
+        recreated.setId(middle.getId());
+        provider.create(recreated);
+
+        assertThat(values(provider.getEffectiveGroups("e1@example.com")), containsInAnyOrder(inner.getId(), middle.getId(), outer.getId()));
+        assertThat(values(provider.getEffectiveMembers(outer.getId())), containsInAnyOrder(middle.getId(), inner.getId(), "e1@example.com", "user2"));
+        assertThat(provider.getEffectiveMembers("unknown"), nullValue());
+    }
+
+    private static List<String> values(List<ResourceReference> references) {
+        List<String> values = new ArrayList<>();
+        for (ResourceReference reference : references) {
+            values.add(reference.getValue());
+        }
+        return values;
+    }
+
+    private static ScimGroup group(String displayName, String... memberIds) {
+        ScimGroup group = new ScimGroup();
+        group.setDisplayName(displayName);
+        if (memberIds.length > 0) {
+            List<ResourceReference> members = new ArrayList<>();
+            for (String memberId : memberIds) {
+                ResourceReference member = new ResourceReference();
+                member.setValue(memberId);
+                members.add(member);
+            }
+            group.setMembers(members);
+        }
+        return group;
+    }
 }
@@ -1,33 +1,67 @@
 package com.example.scim;
 
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.scimple.AttributeProjection;
+import com.example.scim.scimple.AttributeProjectionFilter;
+import com.example.scim.scimple.ScimRequestContext;
 import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+import com.sun.management.ThreadMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.directory.scim.server.exception.UnableToCreateResourceException;
 import org.apache.directory.scim.server.provider.UpdateRequest;
 import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
+import org.apache.directory.scim.spec.protocol.attribute.AttributeReference;
 import org.apache.directory.scim.spec.protocol.filter.FilterParseException;
 import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
 import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.apache.directory.scim.spec.protocol.search.SortOrder;
+import org.apache.directory.scim.spec.protocol.search.SortRequest;
+import org.apache.directory.scim.spec.resources.Email;
+import org.apache.directory.scim.spec.resources.Name;
 import org.apache.directory.scim.spec.resources.ScimUser;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.googlecode.catchexception.CatchException.catchException;
 import static com.googlecode.catchexception.CatchException.caughtException;
 import static io.codearte.catchexception.shade.mockito.Mockito.mock;
 import static io.codearte.catchexception.shade.mockito.Mockito.when;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 public class ScimUserProviderTest {
 
@@ -118,6 +152,156 @@ public class ScimUserProviderTest {
         assertThat(response.getResources(), contains(user2));
     }
 
+    @Test
+    public void testFindWithAttributeFilters() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        ScimUser user1 = provider.create(user("jcoder1", "Jane", "Doe", "jane@example.com", true));
+        ScimUser user2 = provider.create(user("jcoder2", "John", "Doe", "john@example.org", false));
+        ScimUser user3 = provider.create(user("rtester", "Rita", "Tester", "rita@example.org", true));
+
+        assertThat(find(provider, "emails.value eq \"JOHN@example.org\""), contains(user2));
+        assertThat(find(provider, "emails[value eq \"rita@example.org\"]"), contains(user3));
+        assertThat(find(provider, "name.familyName sw \"do\""), containsInAnyOrder(user1, user2));
+        assertThat(find(provider, "active eq false"), contains(user2));
+        assertThat(find(provider, "emails co \"example.org\""), containsInAnyOrder(user2, user3));
+        assertThat(find(provider, "userName ew \"2\""), contains(user2));
+        assertThat(find(provider, "userName gt \"jcoder1\""), containsInAnyOrder(user2, user3));
+        assertThat(find(provider, "userName le \"jcoder1\" and userName sw \"j\""), contains(user1));
+        assertThat(find(provider, "name.familyName eq \"Tester\" or active eq false"), containsInAnyOrder(user2, user3));
+        assertThat(find(provider, "name.familyName eq \"Doe\" and not (active eq true)"), contains(user2));
+        assertThat(find(provider, "userName ne \"e1@example.com\" and name.givenName pr"), containsInAnyOrder(user1, user2, user3));
+    }
+
+    @Test
+    public void testFindReflectsUpdatesAndDeletes() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        ScimUser user1 = provider.create(user("jcoder1", "Jane", "Doe", "jane@example.com", true));
+
+        user1.setName(new Name());
+        user1.getName().setFamilyName("Smith");
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(user1.getId());
+        when(updateRequest.getResource()).thenReturn(user1);
+        provider.update(updateRequest);
+
+        assertThat(find(provider, "name.familyName eq \"Doe\""), empty());
+        assertThat(find(provider, "name.familyName eq \"Smith\""), hasSize(1));
+
+        provider.delete(user1.getId());
+        assertThat(find(provider, "name.familyName eq \"Smith\""), empty());
+    }
+
+    @Test
+    public void testFindWithPagingAndSorting() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        ScimUser user1 = provider.create(user("u1", "Ann", "Zeta", "u1@example.com", true));
+        ScimUser user2 = provider.create(user("u2", "Bob", "Young", "u2@example.com", true));
+        ScimUser user3 = provider.create(user("u3", "Cid", "Xu", "u3@example.com", true));
+        ScimUser user4 = provider.create(user("u4", "Dan", "Wolf", "u4@example.com", true));
+
+        // sorted with the userName index, the seed user 'e1@example.com' comes first
+        FilterResponse<ScimUser> response = provider.find(null, page(2, 2), sort("userName", SortOrder.ASCENDING));
+        assertThat(response.getResources(), contains(user1, user2));
+        assertThat(response.getTotalResults(), is(5));
+
+        response = provider.find(null, page(1, 2), sort("userName", SortOrder.DESCENDING));
+        assertThat(response.getResources(), contains(user4, user3));
+
+        // a filter leaving most users walks the index, one leaving few sorts its candidates with a heap
+        response = provider.find(new Filter("userName sw \"u\""), page(1, 3), sort("userName", SortOrder.DESCENDING));
+        assertThat(response.getResources(), contains(user4, user3, user2));
+        assertThat(response.getTotalResults(), is(4));
+        response = provider.find(new Filter("userName eq \"u1\" or userName eq \"u3\""), page(1, 1), sort("userName", SortOrder.DESCENDING));
+        assertThat(response.getResources(), contains(user3));
+        assertThat(response.getTotalResults(), is(2));
+
+        // sorted without an index
+        response = provider.find(new Filter("userName sw \"u\""), page(1, 3), sort("displayName", SortOrder.ASCENDING));
+        assertThat(response.getResources(), contains(user4, user3, user2));
+        assertThat(response.getTotalResults(), is(4));
+
+        response = provider.find(new Filter("userName sw \"u\""), page(4, 10), null);
+        assertThat(response.getResources(), hasSize(1));
+        assertThat(response.getTotalResults(), is(4));
+
+        response = provider.find(null, page(1, 0), null);
+        assertThat(response.getResources(), empty());
+        assertThat(response.getTotalResults(), is(5));
+    }
+
+    @Test
+    public void testFindChangedSince() throws Exception {
+
+        AtomicLong now = new AtomicLong(1_700_000_000_123L);
+        ScimUserProvider provider = new ScimUserProvider(new ConcurrentResourceStore<>(), new SimpleMeterRegistry(), 1_000, now::get);
+        ScimUser user1 = provider.create(user("u1", "Ann", "Zeta", "u1@example.com", true));
+        ScimUser user2 = provider.create(user("u2", "Bob", "Young", "u2@example.com", true));
+        String since = user2.getMeta().getLastModified() + "Z";
+        now.incrementAndGet();
+
+        user1.getName().setGivenName("Anne");
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn("u1");
+        when(updateRequest.getResource()).thenReturn(user1);
+        provider.update(updateRequest);
+        now.incrementAndGet();
+        ScimUser user3 = provider.create(user("u3", "Cid", "Xu", "u3@example.com", true));
+
+        // answered from the time ordered index, oldest change first
+        FilterResponse<ScimUser> response = provider.find(new Filter("meta.lastModified gt \"" + since + "\""), page(1, 1), null);
+        assertThat(response.getResources(), contains(provider.get("u1")));
+        assertThat(response.getTotalResults(), is(2));
+        response = provider.find(new Filter("meta.lastModified gt \"" + since + "\""), page(2, 1), null);
+        assertThat(response.getResources(), contains(user3));
+
+        assertThat(find(provider, "meta.lastModified ge \"" + since + "\""), hasSize(3));
+        assertThat(find(provider, "meta.lastModified gt \"" + since + "\" and active eq true"), hasSize(2));
+        assertThat(find(provider, "meta.created gt \"" + since + "\""), contains(user3));
+        assertThat(find(provider, "meta.lastModified gt \"2999-01-01T00:00:00+01:00\""), empty());
+
+        catchException(provider).find(new Filter("meta.lastModified gt \"yesterday\""), null, null);
+        assertThat(caughtException(), instanceOf(ClientErrorException.class));
+    }
+
+    @Test
+    public void testFindChangedSinceResumesWithinAMillisecond() throws Exception {
+
+        AtomicLong now = new AtomicLong(1_700_000_000_123L);
+        ScimUserProvider provider = new ScimUserProvider(new ConcurrentResourceStore<>(), new SimpleMeterRegistry(), 1_000, now::get);
+        ScimUser first = provider.create(user("u0", "Ann", "Zeta", "u0@example.com", true));
+        String since = first.getMeta().getLastModified() + "Z";
+        now.incrementAndGet();
+        // written in one millisecond, in another order than their ids
+        for (String userName : Arrays.asList("u4", "u2", "u5", "u1", "u3")) {
+            provider.create(user(userName, "Bob", "Young", userName + "@example.com", true));
+        }
+        now.incrementAndGet();
+        provider.create(user("u6", "Cid", "Xu", "u6@example.com", true));
+
+        // pages of two, each resuming after the last user of the previous one, which splits the millisecond
+        SortRequest byLastModified = sort("meta.lastModified", SortOrder.ASCENDING);
+        List<String> seen = new ArrayList<>();
+        String filter = "meta.lastModified gt \"" + since + "\"";
+        Collection<ScimUser> users = provider.find(new Filter(filter), page(1, 2), byLastModified).getResources();
+        while (!users.isEmpty()) {
+            ScimUser last = null;
+            for (ScimUser user : users) {
+                seen.add(user.getId());
+                last = user;
+            }
+            String lastModified = last.getMeta().getLastModified() + "Z";
+            filter = "meta.lastModified gt \"" + lastModified + "\" or (meta.lastModified eq \"" + lastModified + "\" and id gt \"" + last.getId() + "\")";
+            users = provider.find(new Filter(filter), page(1, 2), byLastModified).getResources();
+        }
+        assertThat(seen, contains("u1", "u2", "u3", "u4", "u5", "u6"));
+
+        assertThat(find(provider, "meta.lastModified eq \"" + since + "\""), contains(provider.get("u0")));
+        assertThat(find(provider, "meta.lastModified le \"" + since + "\""), hasSize(1));
+    }
+
     @Test
     public void testUpdate() throws Exception {
 
@@ -162,4 +346,290 @@ public class ScimUserProviderTest {
 
         assertThat(result.getActive(), is(false));
     }
+
+    @Test
+    public void testUpdateWithPatch_NestedAndFilteredPaths() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        ScimUser user1 = provider.create(user("jdoe", "Jane", "Doe", "jane@example.com", true));
+
+        Email secondEmail = new Email();
+        secondEmail.setValue("jane.doe@example.com");
+
+        Map<String, Object> name = new HashMap<>();
+        name.put("givenName", "Janet");
+
+        List<PatchOperation> operations = Arrays.asList(
+                operation(PatchOperation.Type.REPLACE, "name.familyName", "Roe"),
+                operation(PatchOperation.Type.REPLACE, "name", name),
+                operation(PatchOperation.Type.ADD, "emails", Collections.singletonList(secondEmail)),
+                operation(PatchOperation.Type.REMOVE, "emails[value eq \"JANE@example.com\"]", null));
+
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(user1.getId());
+        when(updateRequest.getOriginal()).thenReturn(user1);
+        when(updateRequest.getPatchOperations()).thenReturn(operations);
+
+        ScimUser result = provider.update(updateRequest);
+
+        assertThat(result.getName().getGivenName(), is("Janet"));
+        assertThat(result.getName().getFamilyName(), is("Roe"));
+        assertThat(result.getEmails(), contains(secondEmail));
+        assertThat(provider.get("jdoe"), equalTo(result));
+        assertThat(find(provider, "name.familyName eq \"Doe\""), empty());
+        assertThat(find(provider, "emails co \"jane.doe\""), contains(result));
+    }
+
+    @Test
+    public void testUpdateWithPatch_FallsBackForOtherAttributes() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        ScimUser user1 = provider.create(user("jdoe", "Jane", "Doe", "jane@example.com", true));
+
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn(user1.getId());
+        when(updateRequest.getOriginal()).thenReturn(user1);
+        when(updateRequest.getPatchOperations()).thenReturn(Arrays.asList(
+                operation(PatchOperation.Type.REPLACE, "active", false),
+                operation(PatchOperation.Type.ADD, "title", "Engineer")));
+
+        ScimUser result = provider.update(updateRequest);
+
+        assertThat(result.getActive(), is(false));
+        assertThat(result.getName().getFamilyName(), is("Doe"));
+    }
+
+    @Test
+    public void testGetReturnsCopiesOfScimUserUntilUserChanges() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        provider.create(user("jdoe", "Jane", "Doe", "jane@example.com", true));
+
+        ScimUser user1 = provider.get("jdoe");
+        assertThat(provider.get("jdoe"), allOf(equalTo(user1), not(sameInstance(user1))));
+        assertThat(find(provider, "userName eq \"jdoe\""), contains(allOf(equalTo(user1), not(sameInstance(user1)))));
+
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn("jdoe");
+        when(updateRequest.getOriginal()).thenReturn(user1);
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(
+                operation(PatchOperation.Type.REPLACE, "name.familyName", "Roe")));
+        ScimUser result = provider.update(updateRequest);
+
+        assertThat(result, not(sameInstance(user1)));
+        assertThat(user1.getName().getFamilyName(), is("Doe"));
+        assertThat(provider.get("jdoe").getName().getFamilyName(), is("Roe"));
+    }
+
+    @Test
+    public void testGetCopiesUnchangedUsersInsteadOfConvertingThem() throws Exception {
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof ThreadMXBean) || !((ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Allocated memory is not measurable on this JVM");
+        }
+        ThreadMXBean allocations = (ThreadMXBean) threads;
+        long threadId = Thread.currentThread().getId();
+
+        ScimUserProvider provider = new ScimUserProvider();
+        provider.create(user("jdoe", "Jane", "Doe", "jane@example.com", true));
+
+        int gets = 10_000;
+        for (int i = 0; i < gets; i++) {
+            provider.get("jdoe");
+        }
+
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < gets; i++) {
+            provider.get("jdoe");
+        }
+        long bytesPerGet = (allocations.getThreadAllocatedBytes(threadId) - before) / gets;
+
+        ExamplePerson person = ScimTypeConverter.fromScim(provider.get("jdoe"));
+        person.setCreated(1).setLastModified(2).setVersion(3);
+        for (int i = 0; i < gets; i++) {
+            ScimTypeConverter.toScim(person);
+        }
+        before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < gets; i++) {
+            ScimTypeConverter.toScim(person);
+        }
+        long bytesPerConversion = (allocations.getThreadAllocatedBytes(threadId) - before) / gets;
+
+        assertThat(bytesPerGet, lessThan(bytesPerConversion * 2 / 3));
+    }
+
+    @Test
+    public void testModifyingAUserDoesNotChangeLaterReads() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        provider.create(user("jdoe", "Jane", "Doe", "jane@example.com", true));
+
+        ScimUser user = provider.get("jdoe");
+        user.getName().setFamilyName("Roe");
+        user.getEmails().get(0).setValue("roe@example.com");
+        user.getMeta().setLocation("Users/jdoe");
+        user.setDisplayName(null);
+
+        ScimUser read = provider.find(null, null, null).getResources().stream()
+                .filter(u -> u.getUserName().equals("jdoe"))
+                .findFirst()
+                .get();
+        assertThat(read.getName().getFamilyName(), is("Doe"));
+        assertThat(read.getEmails().get(0).getValue(), is("jane@example.com"));
+        assertThat(read.getMeta().getLocation(), nullValue());
+        assertThat(read.getDisplayName(), is("Doe, Jane"));
+        assertThat(provider.get("jdoe"), is(read));
+    }
+
+    @Test
+    public void testAttributeProjection() throws Exception {
+
+        ScimUserProvider provider = new ScimUserProvider();
+        provider.create(user("jdoe", "Jane", "Doe", "jane@example.com", true));
+
+        ScimUser user = provider.get("jdoe", AttributeProjection.of("userName, urn:ietf:params:scim:schemas:core:2.0:User:emails", null));
+        assertThat(user.getEmails(), hasSize(1));
+        assertThat(user.getName(), nullValue());
+        assertThat(user.getAddresses(), nullValue());
+        assertThat(user.getMeta().getVersion(), notNullValue());
+
+        user = provider.find(new Filter("name.familyName eq \"Doe\""), null, null, AttributeProjection.of(null, "emails,name.givenName")).getResources().iterator().next();
+        assertThat(user.getEmails(), nullValue());
+        assertThat(user.getName().getGivenName(), is("Jane"));
+
+        // sub-attributes keep their attribute, attributes of other schemas keep everything
+        assertThat(provider.get("jdoe", AttributeProjection.of("name.givenName", null)).getName().getFamilyName(), is("Doe"));
+        assertThat(AttributeProjection.of("urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:employeeNumber", null).isAll(), is(true));
+
+        // the filter hands the parameters of GET requests to the providers until the request is processed
+        AttributeProjectionFilter filter = new AttributeProjectionFilter();
+        MultivaluedMap<String, String> parameters = new MultivaluedHashMap<>();
+        parameters.putSingle("attributes", "id,userName,active");
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getPath()).thenReturn("Users");
+        when(uriInfo.getQueryParameters()).thenReturn(parameters);
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getUriInfo()).thenReturn(uriInfo);
+
+        try (ScimRequestContext context = ScimRequestContext.open()) {
+            filter.filter(request);
+            assertThat(provider.get("jdoe").getEmails(), nullValue());
+        }
+        assertThat(provider.get("jdoe").getEmails(), hasSize(1));
+    }
+
+    @Test
+    public void testStoredUsersAreCompacted() throws Exception {
+
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        ScimUserProvider provider = new ScimUserProvider(people);
+        // distinct but equal strings, as decoded from two requests
+        provider.create(user("jdoe", "Jane", new String("Doe"), "jane@example.com", true));
+        provider.create(user("jrdoe", "John", new String("Doe"), "john@example.com", true));
+
+        ExamplePerson jane = people.get("jdoe");
+        assertThat(jane.getLastName(), sameInstance(people.get("jrdoe").getLastName()));
+        assertThat(jane.getEmails(), contains("jane@example.com"));
+
+        // stored lists are fixed, updates work on copies
+        ExamplePerson copy = jane.copy();
+        copy.getEmails().add("jane.doe@example.com");
+        assertThat(copy.getEmails(), hasSize(2));
+        assertThat(people.get("jdoe").getEmails(), hasSize(1));
+
+        // as are their addresses
+        ExamplePerson sample = people.get("e1@example.com").copy();
+        sample.getAddresses().get(0).setCity("Shelbyville");
+        assertThat(people.get("e1@example.com").getAddresses().get(0).getCity(), is("Springfield"));
+
+        // without a dictionary, nothing is shared
+        ResourceStore<ExamplePerson> unshared = new ConcurrentResourceStore<>();
+        ScimUserProvider unsharedProvider = new ScimUserProvider(unshared, new SimpleMeterRegistry(), 0);
+        unsharedProvider.create(user("jdoe", "Jane", new String("Doe"), "jane@example.com", true));
+        unsharedProvider.create(user("jrdoe", "John", new String("Doe"), "john@example.com", true));
+        assertThat(unshared.get("jdoe").getLastName(), not(sameInstance(unshared.get("jrdoe").getLastName())));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ScimUserProvider provider = new ScimUserProvider(new ConcurrentResourceStore<>(), registry);
+        provider.create(user("jcoder1", "Jane", "Doe", "jane@example.com", true));
+        provider.create(user("jcoder2", "John", "Doe", "john@example.org", false));
+        catchException(provider).create(user("jcoder1", "Jane", "Doe", "jane@example.com", true));
+        assertThat(caughtException(), instanceOf(UnableToCreateResourceException.class));
+        provider.get("jcoder1");
+
+        assertThat(find(provider, "userName eq \"jcoder1\""), hasSize(1));
+        assertThat(find(provider, "userName eq \"jcoder2\" and active eq false"), hasSize(1));
+        assertThat(find(provider, "userName eq \"nobody\""), empty());
+
+        UpdateRequest<ScimUser> updateRequest = mock(UpdateRequest.class);
+        when(updateRequest.getId()).thenReturn("jcoder1");
+        when(updateRequest.getPatchOperations()).thenReturn(Collections.singletonList(
+                operation(PatchOperation.Type.REPLACE, "active", false)));
+        provider.update(updateRequest);
+
+        assertThat(operations(registry, "create", "success"), is(2L));
+        assertThat(operations(registry, "create", "failure"), is(1L));
+        assertThat(operations(registry, "get", "success"), is(1L));
+        assertThat(operations(registry, "find", "success"), is(3L));
+        assertThat(operations(registry, "update", "success"), is(1L));
+        assertThat(registry.get("scim.find.filters").tag("filter", "username eq").timer().count(), is(2L));
+        assertThat(registry.get("scim.find.filters").tag("filter", "username eq and active eq").timer().count(), is(1L));
+        assertThat(registry.get("scim.find.results").summary().totalAmount(), is(2.0));
+        assertThat(registry.get("scim.patches").tag("method", "native").timer().count(), is(1L));
+        // the two users and the sample user
+        assertThat(registry.get("scim.resources").gauge().value(), is(3.0));
+    }
+
+    private static long operations(MeterRegistry registry, String operation, String outcome) {
+        return registry.get("scim.operations").tags("resourceType", "User", "operation", operation, "outcome", outcome)
+                .timer().count();
+    }
+
+    private static PatchOperation operation(PatchOperation.Type type, String path, Object value) throws FilterParseException {
+        PatchOperation operation = new PatchOperation();
+        operation.setOperation(type);
+        operation.setPath(new PatchOperationPath(path));
+        operation.setValue(value);
+        return operation;
+    }
+
+    private static Collection<ScimUser> find(ScimUserProvider provider, String filter) throws FilterParseException {
+        return provider.find(new Filter(filter), null, null).getResources();
+    }
+
+    private static ScimUser user(String userName, String givenName, String familyName, String email, boolean active) {
+        Name name = new Name();
+        name.setGivenName(givenName);
+        name.setFamilyName(familyName);
+
+        Email emailValue = new Email();
+        emailValue.setValue(email);
+
+        ScimUser user = new ScimUser();
+        user.setUserName(userName);
+        user.setName(name);
+        user.setEmails(Collections.singletonList(emailValue));
+        user.setActive(active);
+        return user;
+    }
+
+    private static PageRequest page(int startIndex, int count) {
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setStartIndex(startIndex);
+        pageRequest.setCount(count);
+        return pageRequest;
+    }
+
+    private static SortRequest sort(String attribute, SortOrder sortOrder) {
+        SortRequest sortRequest = new SortRequest();
+        sortRequest.setSortBy(new AttributeReference(attribute));
+        sortRequest.setSortOrder(sortOrder);
+        return sortRequest;
+    }
 }
@@ -0,0 +1,110 @@
+package com.example.scim;
+
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.ui.UserListController;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.springframework.ui.ModelMap;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class UserListControllerTest {
+
+    @Test
+    public void testPagesThroughUsersInUserNameOrder() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        for (int i = 0; i < 120; i++) {
+            userProvider.create(user(String.format("user%03d", i)));
+        }
+        UserListController controller = new UserListController(userProvider, new ScimGroupProvider());
+
+        ModelMap model = new ModelMap();
+        controller.home(3, 1, null, model);
+        UserListController.Listing<ScimUser> users = listing(model, "users");
+
+        // the sample user sorts before all others
+        assertThat(users.getTotal(), is(121));
+        assertThat(users.getPageCount(), is(3));
+        assertThat(users.isLast(), is(true));
+        assertThat(userNames(users), hasSize(21));
+        assertThat(userNames(users).get(0), is("user099"));
+    }
+
+    @Test
+    public void testSearchFiltersUsersAndGroups() throws Exception {
+        ScimUserProvider userProvider = new ScimUserProvider();
+        userProvider.create(user("alice"));
+        userProvider.create(user("albert"));
+        userProvider.create(user("bob"));
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        ScimGroup group = new ScimGroup();
+        group.setDisplayName("alpha");
+        groupProvider.create(group);
+        group = new ScimGroup();
+        group.setDisplayName("beta");
+        groupProvider.create(group);
+        UserListController controller = new UserListController(userProvider, groupProvider);
+
+        ModelMap model = new ModelMap();
+        controller.home(1, 1, " \"AL ", model);
+
+        assertThat(userNames(listing(model, "users")), contains("albert", "alice"));
+        UserListController.Listing<UserListController.GroupRow> groups = listing(model, "groups");
+        assertThat(groups.getTotal(), is(1));
+        assertThat(groups.getResources().iterator().next().getDisplayName(), is("alpha"));
+        assertThat(model.get("q"), is("AL"));
+    }
+
+    @Test
+    public void testGroupsShowTheirFirstMembers() throws Exception {
+        ScimGroupProvider groupProvider = new ScimGroupProvider();
+        ScimGroup group = new ScimGroup();
+        group.setDisplayName("large");
+        List<ResourceReference> members = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            ResourceReference member = new ResourceReference();
+            member.setValue("member" + i);
+            members.add(member);
+        }
+        group.setMembers(members);
+        groupProvider.create(group);
+        UserListController controller = new UserListController(new ScimUserProvider(), groupProvider);
+
+        ModelMap model = new ModelMap();
+        controller.home(1, 1, null, model);
+
+        UserListController.Listing<UserListController.GroupRow> groups = listing(model, "groups");
+        UserListController.GroupRow row = groups.getResources().iterator().next();
+        assertThat(row.getDisplayName(), is("large"));
+        assertThat(row.getMembers(), hasSize(10));
+        assertThat(row.getMemberCount(), is(25));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> UserListController.Listing<T> listing(ModelMap model, String name) {
+        return (UserListController.Listing<T>) model.get(name);
+    }
+
+    private static List<String> userNames(UserListController.Listing<ScimUser> users) {
+        List<String> userNames = new ArrayList<>();
+        for (ScimUser user : users.getResources()) {
+            userNames.add(user.getUserName());
+        }
+        return userNames;
+    }
+
+    private static ScimUser user(String userName) {
+        ScimUser user = new ScimUser();
+        user.setUserName(userName);
+        return user;
+    }
+}
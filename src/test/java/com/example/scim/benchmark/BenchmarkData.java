@@ -0,0 +1,72 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExampleAddress;
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Synthetic users and groups shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    /**
+     * Number of distinct family names, so a family name filter matches {@code size / FAMILY_NAMES} users.
+     */
+    static final int FAMILY_NAMES = 1000;
+
+    private BenchmarkData() {}
+
+    static String userName(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    static ExamplePerson person(int i) {
+        return new ExamplePerson()
+                .setUsername(userName(i))
+                .setFirstName("First" + i)
+                .setLastName("Last" + (i % FAMILY_NAMES))
+                .setEmails(Arrays.asList(userName(i), "user" + i + "@example.org"))
+                .setAddresses(Collections.singletonList(new ExampleAddress()
+                        .setStreet(i + " Main St.")
+                        .setCity("City" + (i % 100))
+                        .setState("ME")
+                        .setZip(String.format("%05d", i % 100000))
+                        .setCountry("US")));
+    }
+
+    static ExampleGroup group(String displayName, int members) {
+        ExampleGroup group = new ExampleGroup()
+                .setId(displayName)
+                .setDescription(displayName)
+                .setMemberIds(ExampleGroup.newMemberSet());
+        for (int i = 0; i < members; i++) {
+            group.getMemberIds().add(userName(i));
+        }
+        return group;
+    }
+
+    /**
+     * @return a provider over an in-memory store holding {@code size} generated users and the sample user
+     */
+    static ScimUserProvider userProvider(int size) {
+        return userProvider(new ConcurrentResourceStore<>(), size);
+    }
+
+    /**
+     * @return a provider over {@code people}, after adding {@code size} generated users and the sample user to it
+     */
+    static ScimUserProvider userProvider(ResourceStore<ExamplePerson> people, int size) {
+        ScimUserProvider provider = new ScimUserProvider(people);
+        for (int i = 0; i < size; i++) {
+            ExamplePerson person = person(i);
+            people.create(person.getUsername(), person);
+        }
+        return provider;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.ScimTypeConverter;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting between the domain model and the SCIM model, which every request pays once per returned
+ * resource.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+    private ExamplePerson person;
+
+    private ScimUser user;
+
+    @Setup
+    public void setUp() {
+        person = BenchmarkData.person(42);
+        user = ScimTypeConverter.toScim(person);
+    }
+
+    /**
+     * The converted groups, in a separate state so only the group benchmarks are run for every group size.
+     */
+    @State(Scope.Benchmark)
+    public static class Groups {
+
+        @Param({"10", "1000"})
+        private int members;
+
+        private ExampleGroup exampleGroup;
+
+        private ScimGroup group;
+
+        @Setup
+        public void setUp() {
+            exampleGroup = BenchmarkData.group("benchmark", members);
+            group = ScimTypeConverter.toScim(exampleGroup);
+        }
+    }
+
+    @Benchmark
+    public ScimUser userToScim() {
+        return ScimTypeConverter.toScim(person);
+    }
+
+    @Benchmark
+    public ExamplePerson userFromScim() {
+        return ScimTypeConverter.fromScim(user);
+    }
+
+    @Benchmark
+    public ScimGroup groupToScim(Groups groups) {
+        return ScimTypeConverter.toScim(groups.exampleGroup);
+    }
+
+    @Benchmark
+    public ExampleGroup groupFromScim(Groups groups) {
+        return ScimTypeConverter.fromScim(groups.group);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.spec.protocol.attribute.AttributeReference;
+import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.apache.directory.scim.spec.protocol.search.SortOrder;
+import org.apache.directory.scim.spec.protocol.search.SortRequest;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@code GET /Users} with and without a filter, for growing numbers of stored users. Each request returns
+ * one page of at most {@link #PAGE_SIZE} users, like a client paging through the results would request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FindBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    private ScimUserProvider provider;
+
+    private PageRequest firstPage;
+
+    private SortRequest byUserName;
+
+    private Filter userNameEquals;
+
+    private Filter familyNameEquals;
+
+    private Filter emailContains;
+
+    private Filter localityEquals;
+
+    @Setup
+    public void setUp() throws Exception {
+        provider = BenchmarkData.userProvider(size);
+
+        firstPage = new PageRequest();
+        firstPage.setStartIndex(1);
+        firstPage.setCount(PAGE_SIZE);
+
+        byUserName = new SortRequest();
+        byUserName.setSortBy(new AttributeReference("userName"));
+        byUserName.setSortOrder(SortOrder.ASCENDING);
+
+        userNameEquals = new Filter("userName eq \"" + BenchmarkData.userName(size / 2) + "\"");
+        familyNameEquals = new Filter("name.familyName eq \"Last7\"");
+        emailContains = new Filter("emails co \"" + (size / 2) + "@example.org\"");
+        // addresses are not indexed, so this filter is evaluated against every user
+        localityEquals = new Filter("addresses.locality eq \"City7\"");
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findWithoutFilter() {
+        return provider.find(null, firstPage, null);
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findWithoutFilterSorted() {
+        return provider.find(null, firstPage, byUserName);
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findByIndexedEquality() {
+        return provider.find(userNameEquals, firstPage, null);
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findByIndexedEqualityManyMatches() {
+        return provider.find(familyNameEquals, firstPage, null);
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findByIndexedEqualityManyMatchesSorted() {
+        return provider.find(familyNameEquals, firstPage, byUserName);
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findByIndexedSubstring() {
+        return provider.find(emailContains, firstPage, null);
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> findByUnindexedAttribute() {
+        return provider.find(localityEquals, firstPage, null);
+    }
+}
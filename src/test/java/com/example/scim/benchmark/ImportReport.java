@@ -0,0 +1,168 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.scimple.BulkExporter;
+import com.example.scim.scimple.BulkImporter;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.JsonRecordCodec;
+import com.example.scim.store.LogResourceStore;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures importing users from newline delimited JSON through the {@link BulkImporter}, into the in-memory and into
+ * the on-disk user store, and exporting them again through the {@link BulkExporter}. The input is generated while it
+ * is read and the export is discarded while it is written, so the peak heap is taken by the imported users and their
+ * indexes rather than by the input or output.
+ * <p>
+ * Run with the user counts to measure as arguments, e.g.
+ * {@code java -Xms4g -Xmx4g -cp <test classpath> com.example.scim.benchmark.ImportReport 100000 1000000}. Without
+ * {@code -Xms} the first import also pays for the full collections that grow the heap.
+ * <p>
+ * Open issue: a million users take about 60 seconds into either store on a single core, short of the target of well
+ * under a minute. Most of that time goes to maintaining the attribute indexes and to collecting the young objects they
+ * retain; decoding the JSON takes about 15% and converting from SCIM about 1%, and batches of 10000 instead of
+ * {@code BulkImporter.BATCH_SIZE} are no faster.
+ */
+public class ImportReport {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = args.length > 0 ? args : new String[] {"100000", "1000000"};
+
+        System.out.printf("%10s %10s %14s %14s %14s %14s%n", "users", "store", "import ms", "users/s", "export ms", "peak heap MiB");
+        for (String count : counts) {
+            int users = Integer.parseInt(count);
+            report(users, "memory", new ScimUserProvider());
+
+            Path directory = Files.createTempDirectory("scim-import");
+            try (LogResourceStore<ExamplePerson> store = new LogResourceStore<>(directory, "users", new JsonRecordCodec<>(ExamplePerson.class))) {
+                report(users, "log", new ScimUserProvider(store));
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    private static void report(int users, String store, ScimUserProvider userProvider) throws Exception {
+        BulkImporter importer = new BulkImporter(userProvider, new ScimGroupProvider());
+        System.gc();
+        resetPeakHeap();
+
+        long start = System.nanoTime();
+        BulkImporter.Result result = importer.importNdjson(new GeneratedUsers(users));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        if (result.getCreated() != users) {
+            throw new IllegalStateException("Expected " + users + " users, created " + result.getCreated());
+        }
+
+        start = System.nanoTime();
+        // the provider's sample user is exported as well
+        long exported = new BulkExporter(userProvider, new ScimGroupProvider()).exportUsers(DISCARD);
+        long exportElapsed = (System.nanoTime() - start) / 1_000_000;
+
+        if (exported != users + 1) {
+            throw new IllegalStateException("Expected " + (users + 1) + " users, exported " + exported);
+        }
+        System.out.printf("%10d %10s %14d %14d %14d %14d%n", users, store, elapsed, users * 1000L / Math.max(elapsed, 1), exportElapsed, peakHeap() >> 20);
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * One user per line, in the shape of {@link BenchmarkData#person(int)}, produced as the importer reads them.
+     */
+    private static final class GeneratedUsers extends InputStream {
+
+        private final int users;
+
+        private int next;
+
+        private byte[] line = new byte[0];
+
+        private int position;
+
+        GeneratedUsers(int users) {
+            this.users = users;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return line[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, line.length - position);
+            System.arraycopy(line, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() {
+            if (position < line.length) {
+                return true;
+            }
+            if (next == users) {
+                return false;
+            }
+            int i = next++;
+            String userName = BenchmarkData.userName(i);
+            line = ("{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"],\"userName\":\"" + userName + "\","
+                    + "\"name\":{\"givenName\":\"First" + i + "\",\"familyName\":\"Last" + (i % BenchmarkData.FAMILY_NAMES) + "\"},"
+                    + "\"emails\":[{\"value\":\"user" + i + "@example.com\",\"primary\":true},{\"value\":\"user" + i + "@example.org\"}],"
+                    + "\"addresses\":[{\"streetAddress\":\"" + i + " Main St.\",\"locality\":\"Springfield\",\"region\":\"ME\","
+                    + "\"postalCode\":\"012345\",\"country\":\"US\"}],\"active\":true}\n").getBytes(StandardCharsets.UTF_8);
+            position = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.scimple.ChangeLog;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of clients long-polling the {@link ChangeLog} while users are written and read by other requests, with
+ * readers blocking their request thread and with suspended readers, see {@code scim.changes.suspend-long-polls}.
+ * Requests run on a pool of {@value #REQUEST_THREADS} threads, as many as the container has by default, and queue for
+ * a thread once all are taken, like connections in the container's accept queue. Every client polls again as soon as
+ * its poll is answered.
+ * <p>
+ * The report lists the percentiles of the time from a write until a client received the change, and of the time
+ * {@code GET /Users/{id}} requests sent alongside took from being sent to being answered. The most long-polling clients
+ * that can wait for changes while those requests keep a p99 latency of {@value #SUSTAINABLE_P99_MILLIS} ms is the
+ * number each mode sustains.
+ * <p>
+ * Only long-polls differ between the modes, so this measures how many long-polling clients the server takes, not the
+ * concurrency of the SCIM endpoints themselves: the {@code GET /Users/{id}} requests are answered on a request thread
+ * in both modes and only stand for the other traffic competing for threads. Clients of {@code /Changes/Events} are
+ * not measured, each holds a request thread in both modes.
+ * <p>
+ * Run with the client counts to measure as arguments, e.g.
+ * {@code java -cp <test classpath> com.example.scim.benchmark.LongPollReport 100 400 1600}.
+ */
+public class LongPollReport {
+
+    private static final int REQUEST_THREADS = 200;
+
+    private static final long WRITE_INTERVAL_MILLIS = 500;
+
+    private static final long REQUEST_INTERVAL_MILLIS = 5;
+
+    private static final long RUN_MILLIS = 5_000;
+
+    private static final long WAIT_MILLIS = 2_000;
+
+    // the highest p99 latency of the other requests at which the server is considered to keep up
+    private static final long SUSTAINABLE_P99_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = args.length > 0 ? args : new String[] {"100", "150", "200", "400", "1600"};
+
+        System.out.printf("%10s %10s %10s %12s %12s %12s %12s%n", "clients", "mode", "changes", "change p99", "delivered %", "get p50 ms", "get p99 ms");
+        int[] sustainable = new int[2];
+        for (String count : counts) {
+            int clients = Integer.parseInt(count);
+            for (int mode = 0; mode < 2; mode++) {
+                long p99 = report(clients, mode == 1);
+                if (p99 <= SUSTAINABLE_P99_MILLIS) {
+                    sustainable[mode] = Math.max(sustainable[mode], clients);
+                }
+            }
+        }
+        System.out.printf("most clients with p99 <= %d ms: blocking %d, suspended %d%n", SUSTAINABLE_P99_MILLIS, sustainable[0], sustainable[1]);
+    }
+
+    private static long report(int clients, boolean suspended) throws Exception {
+        ThreadPoolExecutor requestThreads = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+        Map<String, Long> writtenAt = new ConcurrentHashMap<>();
+        Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        Queue<Long> getLatencies = new ConcurrentLinkedQueue<>();
+
+        try (ChangeLog changeLog = new ChangeLog(100_000, suspended)) {
+            ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+            people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+            ScimUserProvider provider = new ScimUserProvider(people);
+
+            long start = changeLog.getLastSequence();
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+            for (int i = 0; i < clients; i++) {
+                poll(changeLog, requestThreads, start, end, writtenAt, latencies);
+            }
+
+            int writes = 0;
+            long nextWrite = System.nanoTime();
+            while (System.nanoTime() < end) {
+                if (System.nanoTime() >= nextWrite) {
+                    String id = "user-" + writes++;
+                    writtenAt.put(id, System.nanoTime());
+                    people.create(id, new ExamplePerson().setUsername(id).versionAfter(null, System.currentTimeMillis()));
+                    nextWrite += TimeUnit.MILLISECONDS.toNanos(WRITE_INTERVAL_MILLIS);
+                }
+                long sent = System.nanoTime();
+                requestThreads.execute(() -> {
+                    provider.get("e1@example.com");
+                    getLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent));
+                });
+                Thread.sleep(REQUEST_INTERVAL_MILLIS);
+            }
+
+            // late deliveries still count, polls are not answered after the end of the run
+            Thread.sleep(WAIT_MILLIS);
+
+            List<Long> changes = sorted(latencies);
+            List<Long> gets = sorted(getLatencies);
+            long p99 = percentile(gets, 0.99);
+            System.out.printf("%10d %10s %10d %12d %12.1f %12d %12d%n", clients, suspended ? "suspended" : "blocking", writes,
+                    percentile(changes, 0.99), 100.0 * changes.size() / ((long) writes * clients), percentile(gets, 0.5), p99);
+            return p99;
+        } finally {
+            requestThreads.shutdownNow();
+            requestThreads.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Sends the next poll of a client as a request, which polls again once it is answered until the run ends.
+     */
+    private static void poll(ChangeLog changeLog, ExecutorService requestThreads, long after, long end,
+                             Map<String, Long> writtenAt, Queue<Long> latencies) {
+        requestThreads.execute(() -> changeLog.poll(after, 100, WAIT_MILLIS).whenComplete((changes, failure) -> {
+            long now = System.nanoTime();
+            long next = after;
+            if (changes != null) {
+                for (ChangeLog.Change change : changes) {
+                    latencies.add(TimeUnit.NANOSECONDS.toMillis(now - writtenAt.get(change.getId())));
+                    next = change.getSequence();
+                }
+            }
+            if (failure == null && now < end && !requestThreads.isShutdown()) {
+                poll(changeLog, requestThreads, next, end, writtenAt, latencies);
+            }
+        }));
+    }
+
+    private static List<Long> sorted(Queue<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(percentile * sorted.size()) - 1));
+    }
+}
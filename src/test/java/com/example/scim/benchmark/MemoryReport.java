@@ -0,0 +1,70 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.PersonRecordCodec;
+import com.example.scim.model.StringDictionary;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.JsonRecordCodec;
+import com.example.scim.store.OffHeapResourceStore;
+import com.example.scim.store.ResourceStore;
+
+/**
+ * Measures the memory taken by users in the in-memory stores, including the stores' own entries and ids: on the heap
+ * as converted from SCIM and once {@link ExamplePerson#compact(StringDictionary) compacted}, and serialized in the
+ * {@link OffHeapResourceStore}. Also measures how long a full garbage collection takes with the users stored.
+ * <p>
+ * Users are decoded from JSON like request bodies, so each has its own strings rather than sharing the constants of
+ * {@link BenchmarkData}. Their names are mostly unique but family names, cities and countries repeat, and each has two
+ * emails and one address.
+ * <p>
+ * Run with the user counts to measure as arguments, e.g.
+ * {@code java -Xmx4g -XX:MaxDirectMemorySize=2g -cp <test classpath> com.example.scim.benchmark.MemoryReport 1000000}.
+ */
+public class MemoryReport {
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = args.length > 0 ? args : new String[] {"1000000"};
+
+        System.out.printf("%10s %12s %12s %14s %18s %12s%n", "users", "layout", "heap MiB", "heap bytes/user", "off-heap bytes/user", "full GC ms");
+        for (String count : counts) {
+            int users = Integer.parseInt(count);
+            report(users, "converted", new ConcurrentResourceStore<>(), false);
+            report(users, "compacted", new ConcurrentResourceStore<>(), true);
+            report(users, "off-heap", new OffHeapResourceStore<>(new PersonRecordCodec()), false);
+        }
+    }
+
+    private static void report(int users, String layout, ResourceStore<ExamplePerson> store, boolean compact) throws Exception {
+        JsonRecordCodec<ExamplePerson> codec = new JsonRecordCodec<>(ExamplePerson.class);
+        // as large as the one of the user provider by default
+        StringDictionary strings = new StringDictionary(200_000, 64);
+        long before = usedHeap();
+
+        for (int i = 0; i < users; i++) {
+            byte[] json = codec.encode(BenchmarkData.person(i));
+            // copied into lists of their exact size, as ScimTypeConverter.fromScim creates them
+            ExamplePerson person = codec.decode(json, 0, json.length).copy();
+            store.create(person.getUsername(), compact ? person.compact(strings) : person);
+        }
+
+        long used = usedHeap() - before;
+        long gcStart = System.nanoTime();
+        System.gc();
+        long gcMillis = (System.nanoTime() - gcStart) / 1_000_000;
+
+        if (store.size() != users) {
+            throw new IllegalStateException("Expected " + users + " users, got " + store.size());
+        }
+        long offHeap = store instanceof OffHeapResourceStore ? ((OffHeapResourceStore<?>) store).getOffHeapBytes() : 0;
+        System.out.printf("%10d %12s %12d %14d %18d %12d%n", users, layout, used >> 20, used / users, offHeap / users, gcMillis);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import org.apache.directory.scim.server.provider.UpdateRequest;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimResource;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of PATCH requests applied through the providers, i.e. the path a {@code PATCH /Users/{id}} or
+ * {@code PATCH /Groups/{id}} request takes once it reaches our code. Operations on attributes the providers cannot
+ * patch natively fall back to the JSON patch applied by {@code SimplePatchUtil}, see {@link #addUserAttributeAsJsonPatch()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatchBenchmark {
+
+    private ScimUserProvider userProvider;
+
+    private ScimGroupProvider groupProvider;
+
+    private ScimUser user;
+
+    private ScimGroup group;
+
+    private List<PatchOperation> deactivateUser;
+
+    private List<PatchOperation> replaceFamilyName;
+
+    private List<PatchOperation> addTitle;
+
+    private List<PatchOperation> renameGroup;
+
+    private List<PatchOperation> addMember;
+
+    @Setup
+    public void setUp() throws Exception {
+        userProvider = new ScimUserProvider();
+        groupProvider = new ScimGroupProvider();
+
+        user = userProvider.get("e1@example.com");
+
+        ScimGroup newGroup = new ScimGroup();
+        newGroup.setDisplayName("benchmark");
+        group = groupProvider.create(newGroup);
+
+        deactivateUser = operation(PatchOperation.Type.REPLACE, null, Collections.singletonMap("active", false));
+        replaceFamilyName = operation(PatchOperation.Type.REPLACE, "name.familyName", "Benchmark");
+        addTitle = operation(PatchOperation.Type.ADD, "title", "Benchmark");
+        renameGroup = operation(PatchOperation.Type.REPLACE, "displayName", "renamed");
+
+        ResourceReference member = new ResourceReference();
+        member.setValue("e1@example.com");
+        addMember = operation(PatchOperation.Type.ADD, "members", Collections.singletonList(member));
+    }
+
+    @Benchmark
+    public ScimUser replaceUserAttributesWithoutPath() throws Exception {
+        return userProvider.update(request(user, deactivateUser));
+    }
+
+    @Benchmark
+    public ScimUser replaceNestedUserAttribute() throws Exception {
+        return userProvider.update(request(user, replaceFamilyName));
+    }
+
+    @Benchmark
+    public ScimUser addUserAttributeAsJsonPatch() throws Exception {
+        return userProvider.update(request(user, addTitle));
+    }
+
+    @Benchmark
+    public ScimGroup replaceGroupAttribute() throws Exception {
+        return groupProvider.update(request(group, renameGroup));
+    }
+
+    @Benchmark
+    public ScimGroup addGroupMember() throws Exception {
+        return groupProvider.update(request(group, addMember));
+    }
+
+    private static <T extends ScimResource> UpdateRequest<T> request(T original, List<PatchOperation> operations) {
+        UpdateRequest<T> updateRequest = new UpdateRequest<>(null);
+        updateRequest.initWithPatch(original.getId(), original, operations);
+        return updateRequest;
+    }
+
+    private static List<PatchOperation> operation(PatchOperation.Type type, String path, Object value) throws Exception {
+        PatchOperation operation = new PatchOperation();
+        operation.setOperation(type);
+        if (path != null) {
+            operation.setPath(new PatchOperationPath(path));
+        }
+        operation.setValue(value);
+        return Collections.singletonList(operation);
+    }
+}
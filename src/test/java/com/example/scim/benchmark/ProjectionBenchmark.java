@@ -0,0 +1,76 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.scimple.AttributeProjection;
+import com.example.scim.scimple.ScimUserProvider;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.directory.scim.server.rest.ObjectMapperFactory;
+import org.apache.directory.scim.spec.protocol.filter.FilterResponse;
+import org.apache.directory.scim.spec.protocol.search.PageRequest;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of large {@code GET /Users} pages with and without an {@code attributes} parameter, converted and
+ * serialized. Each invocation reads the next page, so a client paging through all users is mostly served from users
+ * that are not in the view cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ProjectionBenchmark {
+
+    private static final int SIZE = 100_000;
+
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({"", "id,userName,active", "userName,emails"})
+    private String attributes;
+
+    private ScimUserProvider provider;
+
+    private AttributeProjection projection;
+
+    private ObjectMapper objectMapper;
+
+    private int startIndex = 1;
+
+    @Setup
+    public void setUp() {
+        provider = BenchmarkData.userProvider(SIZE);
+        projection = AttributeProjection.of(attributes, null);
+        objectMapper = new ObjectMapperFactory(null).createObjectMapper();
+    }
+
+    @Benchmark
+    public FilterResponse<ScimUser> find() {
+        return provider.find(null, nextPage(), null, projection);
+    }
+
+    @Benchmark
+    public byte[] findAndSerialize() throws Exception {
+        return objectMapper.writeValueAsBytes(provider.find(null, nextPage(), null, projection).getResources());
+    }
+
+    private PageRequest nextPage() {
+        PageRequest page = new PageRequest();
+        page.setStartIndex(startIndex);
+        page.setCount(PAGE_SIZE);
+        startIndex = startIndex + PAGE_SIZE > SIZE ? 1 : startIndex + PAGE_SIZE;
+        return page;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.JsonRecordCodec;
+import com.example.scim.store.LogResourceStore;
+import org.apache.directory.scim.spec.protocol.search.Filter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time from opening an on-disk user store to answering the first filtered request, once restoring the
+ * store and its indexes from the snapshot written on shutdown and once replaying the whole log, as a node without a
+ * snapshot would.
+ * <p>
+ * Run with the user counts to measure as arguments, e.g.
+ * {@code java -Xmx4g -cp <test classpath> com.example.scim.benchmark.StartupReport 100000 1000000}. The snapshot is
+ * measured first, so it does not benefit from a JIT warmed up by the replay.
+ */
+public class StartupReport {
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = args.length > 0 ? args : new String[] {"100000", "1000000"};
+
+        System.out.printf("%10s %14s %16s %16s%n", "users", "snapshot MiB", "snapshot ms", "full replay ms");
+        for (String count : counts) {
+            int users = Integer.parseInt(count);
+            Path directory = Files.createTempDirectory("scim-startup");
+            try {
+                populate(directory, users);
+                long snapshotSize = Files.size(directory.resolve("users.snapshot"));
+
+                long withSnapshot = timeToFirstRequest(directory, users);
+                Files.delete(directory.resolve("users.snapshot"));
+                long withoutSnapshot = timeToFirstRequest(directory, users);
+
+                System.out.printf("%10d %14d %16d %16d%n", users, snapshotSize >> 20, withSnapshot, withoutSnapshot);
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    private static void populate(Path directory, int users) throws Exception {
+        try (LogResourceStore<ExamplePerson> store = open(directory)) {
+            // registers the indexes, so the snapshot written on close includes them
+            new ScimUserProvider(store);
+            for (int i = 0; i < users; i++) {
+                String userName = "user" + i + "@example.com";
+                store.create(userName, new ExamplePerson()
+                        .setUsername(userName)
+                        .setFirstName("First" + i)
+                        .setLastName("Last" + (i % 1000))
+                        .setEmails(Collections.singletonList(userName)));
+            }
+        }
+    }
+
+    private static long timeToFirstRequest(Path directory, int users) throws Exception {
+        long start = System.nanoTime();
+        try (LogResourceStore<ExamplePerson> store = open(directory)) {
+            ScimUserProvider provider = new ScimUserProvider(store);
+            int matches = provider.find(new Filter("userName eq \"user" + (users / 2) + "@example.com\""), null, null).getTotalResults();
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            if (matches != 1) {
+                throw new IllegalStateException("Expected one match, got " + matches);
+            }
+            return elapsed;
+        }
+    }
+
+    private static LogResourceStore<ExamplePerson> open(Path directory) throws IOException {
+        return new LogResourceStore<>(directory, "users", new JsonRecordCodec<>(ExamplePerson.class));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.scim.benchmark;
+
+import com.example.scim.model.ExampleGroup;
+import com.example.scim.model.ExamplePerson;
+import com.example.scim.model.ScimTypeConverter;
+import com.example.scim.scimple.ChangeLog;
+import com.example.scim.scimple.ScimGroupProvider;
+import com.example.scim.scimple.ScimUserProvider;
+import com.example.scim.store.ConcurrentResourceStore;
+import com.example.scim.store.ResourceStore;
+import org.apache.directory.scim.server.provider.UpdateRequest;
+import org.apache.directory.scim.spec.protocol.data.PatchOperation;
+import org.apache.directory.scim.spec.protocol.data.PatchOperationPath;
+import org.apache.directory.scim.spec.resources.ScimGroup;
+import org.apache.directory.scim.spec.resources.ScimResource;
+import org.apache.directory.scim.spec.resources.ScimUser;
+import org.apache.directory.scim.spec.schema.ResourceReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of creates and updates issued concurrently by several threads, once with every thread writing the same
+ * resource and once with every thread writing its own, with and without a {@link ChangeLog} recording the writes.
+ * Override the number of writers with {@code -t}, e.g. {@code ./mvnw -Pbenchmark -Djmh.includes="WriteBenchmark -t 8"}.
+ * <p>
+ * The providers are recreated before every iteration, so the stores do not grow across iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(4)
+public class WriteBenchmark {
+
+    private static final String SHARED_USER = BenchmarkData.userName(0);
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    @Param({"false", "true"})
+    public boolean logChanges;
+
+    private ScimUserProvider userProvider;
+
+    private ScimGroupProvider groupProvider;
+
+    private ScimUser sharedUser;
+
+    private ScimGroup sharedGroup;
+
+    @Setup(Level.Iteration)
+    public void setUp(BenchmarkParams params) throws Exception {
+        ResourceStore<ExamplePerson> people = new ConcurrentResourceStore<>();
+        ResourceStore<ExampleGroup> groups = new ConcurrentResourceStore<>();
+        if (logChanges) {
+            ChangeLog changeLog = new ChangeLog(100_000);
+            people.addListener(changeLog.<ExamplePerson>recorder("User", ScimTypeConverter::version));
+            groups.addListener(changeLog.<ExampleGroup>recorder("Group", ScimTypeConverter::version));
+        }
+
+        // one user per writer thread, the first one is also the shared user
+        userProvider = BenchmarkData.userProvider(people, params.getThreads());
+        sharedUser = userProvider.get(SHARED_USER);
+
+        groupProvider = new ScimGroupProvider(groups);
+        ScimGroup newGroup = new ScimGroup();
+        newGroup.setDisplayName("benchmark");
+        sharedGroup = groupProvider.create(newGroup);
+    }
+
+    /**
+     * Per thread state, the operations of each writer thread.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        // every benchmark runs in a forked JVM, so the writers of a run are numbered from 0
+        private static final AtomicInteger WRITERS = new AtomicInteger();
+
+        private final int index = WRITERS.getAndIncrement();
+
+        private final AtomicInteger members = new AtomicInteger();
+
+        private List<PatchOperation> replaceFamilyName;
+
+        @Setup
+        public void setUp() throws Exception {
+            replaceFamilyName = operation(PatchOperation.Type.REPLACE, "name.familyName", "Writer" + index);
+        }
+
+        List<PatchOperation> addMember() throws Exception {
+            ResourceReference member = new ResourceReference();
+            member.setValue("writer" + index + "-" + members.getAndIncrement());
+            return operation(PatchOperation.Type.ADD, "members", Collections.singletonList(member));
+        }
+    }
+
+    @Benchmark
+    public ScimUser createUser() throws Exception {
+        ScimUser user = ScimTypeConverter.toScim(BenchmarkData.person(created.incrementAndGet()));
+        user.setId(null);
+        user.setUserName("created" + user.getUserName());
+        return userProvider.create(user);
+    }
+
+    @Benchmark
+    public ScimUser updateSharedUser(Writer writer) throws Exception {
+        return userProvider.update(request(sharedUser, writer.replaceFamilyName));
+    }
+
+    @Benchmark
+    public ScimUser updateOwnUser(Writer writer) throws Exception {
+        ScimUser user = new ScimUser();
+        user.setId(BenchmarkData.userName(writer.index));
+        return userProvider.update(request(user, writer.replaceFamilyName));
+    }
+
+    @Benchmark
+    public ScimGroup addMembersToSharedGroup(Writer writer) throws Exception {
+        return groupProvider.update(request(sharedGroup, writer.addMember()));
+    }
+
+    private static <T extends ScimResource> UpdateRequest<T> request(T original, List<PatchOperation> operations) {
+        UpdateRequest<T> updateRequest = new UpdateRequest<>(null);
+        updateRequest.initWithPatch(original.getId(), original, operations);
+        return updateRequest;
+    }
+
+    private static List<PatchOperation> operation(PatchOperation.Type type, String path, Object value) throws Exception {
+        PatchOperation operation = new PatchOperation();
+        operation.setOperation(type);
+        operation.setPath(new PatchOperationPath(path));
+        operation.setValue(value);
+        return Collections.singletonList(operation);
+    }
+}